@@ -0,0 +1,82 @@
+package benchmark;
+
+import hardware.Chip8Core;
+import hardware.Display;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of DXYN: sprites drawn into the framebuffer, optionally handed to a
+ * {@link Display} after every draw as in the emulator.
+ *
+ * @author Richard Yang
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class DrawBenchmark {
+	
+	private static final int COPIES = 256;
+	private static final int DRAWS = 1024;
+	
+	/**
+	 * column of the sprites, 0 is byte aligned and 61 crosses the right edge
+	 */
+	@Param({"0", "3", "61"})
+	public int x;
+	
+	/**
+	 * rows of the sprites
+	 */
+	@Param({"1", "15"})
+	public int height;
+	
+	@Param({"false", "true"})
+	public boolean wrapping;
+	
+	/**
+	 * whether a display receives the framebuffer after every draw
+	 */
+	@Param({"false", "true"})
+	public boolean display;
+	
+	private Chip8Core core;
+	
+	@Setup
+	public void setUp() {
+		core = new Chip8Core();
+		core.setSpriteWrapping(wrapping);
+		if(display) {
+			core.setFrameSink(new Display());
+		}
+		// V0 = x, V1 = 20 so the tall sprites cross the bottom edge, I = the font
+		int[] setup = {0x6000 | x, 0x6114, 0xA000};
+		byte[] rom = Programs.repeat(setup, 0xD010 | height, COPIES);
+		core.load(rom, rom.length);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(DRAWS)
+	public void draw() {
+		for(int i = 0 ; i < DRAWS ; i++) {
+			core.emulateCycle();
+		}
+	}
+}
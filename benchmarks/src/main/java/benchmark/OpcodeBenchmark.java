@@ -0,0 +1,63 @@
+package benchmark;
+
+import hardware.Chip8Core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of interpreting one instruction with {@link Chip8Core#emulateCycle()}, per opcode:
+ * the machine runs a program made of one instruction repeated.
+ *
+ * @author Richard Yang
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OpcodeBenchmark {
+	
+	private static final int COPIES = 256;
+	private static final int CYCLES = 1024;
+	
+	/**
+	 * the instruction repeated, in hexadecimal
+	 */
+	@Param({"6A55", "7A01", "8AB4", "8AB5", "8AB6", "3A00", "A300", "CAFF", "FA07", "FA15",
+		"FA1E", "FA29", "FA33", "FA55", "FA65", "00E0"})
+	public String opcode;
+	
+	private Chip8Core core;
+	
+	@Setup
+	public void setUp() {
+		core = new Chip8Core();
+		core.setSeed(1);
+		// I points past the program, so that FX33 and FX55 write to data
+		byte[] rom = Programs.repeat(new int[] {0xAE00, 0x6B03}, Integer.parseInt(opcode, 16), COPIES);
+		core.load(rom, rom.length);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(CYCLES)
+	public void emulateCycle() {
+		for(int i = 0 ; i < CYCLES ; i++) {
+			core.emulateCycle();
+		}
+	}
+}
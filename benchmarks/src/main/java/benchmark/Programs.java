@@ -0,0 +1,86 @@
+package benchmark;
+
+import hardware.Chip8Core;
+import hardware.PolledInputSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Builds the programs the benchmarks run and finds the bundled roms, in the directory
+ * named by -Dchip8.romDirectory or else in roms or ../roms under the working directory.
+ *
+ * @author Richard Yang
+ *
+ */
+final class Programs {
+	
+	/**
+	 * system property pointing at the rom directory, by default roms or ../roms
+	 */
+	static final String ROM_DIRECTORY_PROPERTY = "chip8.romDirectory";
+	
+	private Programs() {
+	}
+	
+	/**
+	 * a program running the same instruction over and over: the setup instructions once,
+	 * then count copies of the instruction and two jumps back to the first copy, two so
+	 * that a skip over the first still loops
+	 * @param setup instructions run once first
+	 * @param instruction the instruction to repeat
+	 * @param count number of copies of the instruction
+	 * @return the rom image
+	 */
+	static byte[] repeat(int[] setup, int instruction, int count) {
+		int length = setup.length + count + 2;
+		byte[] rom = new byte[length * 2];
+		int loop = Chip8Core.MEMORY_START + setup.length * 2;
+		int position = 0;
+		for(int opcode : setup) {
+			position = put(rom, position, opcode);
+		}
+		for(int i = 0 ; i < count ; i++) {
+			position = put(rom, position, instruction);
+		}
+		position = put(rom, position, 0x1000 | loop);
+		put(rom, position, 0x1000 | loop);
+		return rom;
+	}
+	
+	private static int put(byte[] rom, int position, int opcode) {
+		rom[position] = (byte)(opcode >> 8);
+		rom[position + 1] = (byte)opcode;
+		return position + 2;
+	}
+	
+	/**
+	 * @param name file name of a bundled rom
+	 * @return the rom image
+	 * @throws IOException if the rom cannot be read
+	 */
+	static byte[] readRom(String name) throws IOException {
+		String directory = System.getProperty(ROM_DIRECTORY_PROPERTY);
+		File file = directory != null ? new File(directory, name) : new File("roms", name);
+		if(directory == null && !file.isFile()) {
+			file = new File("../roms", name);
+		}
+		return Files.readAllBytes(file.toPath());
+	}
+	
+	/**
+	 * @param core the machine reading the keys
+	 * @return a keypad pressing a different key every few thousand instructions, so that
+	 * games go past their title screens
+	 */
+	static PolledInputSource scriptedKeys(final Chip8Core core) {
+		return new PolledInputSource() {
+			@Override
+			public int getKeyState() {
+				long period = core.getInstructionCount() / 2048;
+				return period % 4 == 0 ? 0 : 1 << (int)(period * 5 % 16);
+			}
+		};
+	}
+}
@@ -0,0 +1,70 @@
+package benchmark;
+
+import hardware.Chip8Core;
+import hardware.RunResult;
+import hardware.Scheduler;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end speed of every bundled rom run as fast as possible by the {@link Scheduler},
+ * timers included, with a scripted keypad; the score is instructions per second.
+ *
+ * The roms are read from roms or ../roms under the working directory, so the jar runs
+ * from the project or the benchmarks directory; from anywhere else, point the forked
+ * JVMs at them with -jvmArgsAppend -Dchip8.romDirectory=path/to/roms.
+ *
+ * @author Richard Yang
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RomBenchmark {
+	
+	private static final int INSTRUCTIONS = 1000000;
+	
+	@Param({"15puzzle", "blinky", "blitz", "breakout", "brix", "connect4", "guess", "hidden",
+		"invaders", "kaleid", "maze", "merlin", "missile", "pong", "pong2", "puzzle", "squash",
+		"syzygy", "tank", "tetris", "tictac", "ufo", "vbrix", "vers", "wall", "wipeoff"})
+	public String rom;
+	
+	@Param({"false", "true"})
+	public boolean blockCompiler;
+	
+	private Scheduler scheduler;
+	
+	@Setup
+	public void setUp() throws IOException {
+		byte[] image = Programs.readRom(rom + ".rom");
+		Chip8Core core = new Chip8Core();
+		core.setBlockCompilation(blockCompiler);
+		core.setSeed(1);
+		core.load(image, image.length);
+		core.setInputSource(Programs.scriptedKeys(core));
+		scheduler = new Scheduler(core);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(INSTRUCTIONS)
+	public RunResult run() {
+		return scheduler.runInstructions(INSTRUCTIONS);
+	}
+}
@@ -6,6 +6,7 @@ import hardware.Display;
 import java.awt.BorderLayout;
 
 import javax.swing.JFrame;
+import javax.swing.JPopupMenu;
 
 /**
  * 
@@ -23,12 +24,17 @@ public class Chip8 {
 	public Chip8() {
 		myCPU = new CPU();
 		myFrame = new JFrame(NAME);
+		// the canvas renderer is heavyweight, menus have to open in windows of their own
+		if(myCPU.getRenderer() != null) {
+			JPopupMenu.setDefaultLightWeightPopupEnabled(false);
+		}
 		myMenuBar = new GameMenuBar(myCPU);
 		myFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		myFrame.add(myCPU.getCanvas(),BorderLayout.CENTER);
+		myFrame.add(myCPU.getScreen(),BorderLayout.CENTER);
 		myFrame.setJMenuBar(myMenuBar);
 		myFrame.setSize(Display.PIXEL_WIDTH * Display.SCREEN_WIDTH + 10, Display.PIXEL_HEIGHT * Display.SCREEN_HEIGHT + 50);
-		myFrame.setResizable(false);
+		// the display draws at one size, the canvas renderer scales to the window
+		myFrame.setResizable(myCPU.getRenderer() != null);
 		myFrame.setLocationRelativeTo(null);
 		myFrame.setJMenuBar(myMenuBar);
 		myFrame.setVisible(true);
@@ -11,6 +11,7 @@ import javax.swing.JFileChooser;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
  * 
@@ -29,9 +30,18 @@ public class FileMenu extends JMenu {
 	private JMenuItem startItem;
 	private JMenuItem pauseItem;
 	private JMenuItem resumeItem;
+	private JMenuItem stepFrameItem;
+	private JMenuItem stepInstructionItem;
+	private JMenuItem saveStateItem;
+	private JMenuItem loadStateItem;
+	private JMenuItem recordItem;
+	private JMenuItem replayItem;
 	private JMenuItem closeItem;
 	private CPU myCPU;
 	
+	//whether the record item stops a recording instead of starting one
+	private boolean isRecording;
+	
 	public FileMenu(CPU cpu) {
 		super("File");
 		myCPU = cpu;
@@ -39,6 +49,12 @@ public class FileMenu extends JMenu {
 		createStartItem();
 		createPauseItem();
 		createResumeItem();
+		createStepFrameItem();
+		createStepInstructionItem();
+		createSaveStateItem();
+		createLoadStateItem();
+		createRecordItem();
+		createReplayItem();
 		createCloseItem();
 	}
 	
@@ -82,7 +98,7 @@ public class FileMenu extends JMenu {
 	    ActionListener listener = new ActionListener(){
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
-				myCPU.suspendThread();
+				myCPU.pauseThread();
 			}
 	    };
 	    pauseItem.addActionListener(listener);
@@ -102,6 +118,110 @@ public class FileMenu extends JMenu {
 	    add(resumeItem);		
 	}
 	
+	private void createStepFrameItem() {
+		stepFrameItem = new JMenuItem("Step Frame");
+		stepFrameItem.setMnemonic(KeyEvent.VK_E);
+		ActionListener listener = new ActionListener(){
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				myCPU.stepFrame();
+			}
+		};
+		stepFrameItem.addActionListener(listener);
+		add(stepFrameItem);
+	}
+	
+	private void createStepInstructionItem() {
+		stepInstructionItem = new JMenuItem("Step Instruction");
+		stepInstructionItem.setMnemonic(KeyEvent.VK_N);
+		ActionListener listener = new ActionListener(){
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				myCPU.stepInstruction();
+			}
+		};
+		stepInstructionItem.addActionListener(listener);
+		add(stepInstructionItem);
+	}
+	
+	private void createSaveStateItem() {
+		saveStateItem = new JMenuItem("Save State");
+		saveStateItem.setMnemonic(KeyEvent.VK_V);
+		ActionListener listener = new ActionListener(){
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				JFileChooser chooser = new JFileChooser(CPU.DEFAULT_PATH);
+				if(chooser.showSaveDialog(saveStateItem) == JFileChooser.APPROVE_OPTION) {
+					myCPU.saveState(chooser.getSelectedFile());
+				}
+			}
+		};
+		saveStateItem.addActionListener(listener);
+		add(saveStateItem);
+	}
+	
+	private void createLoadStateItem() {
+		loadStateItem = new JMenuItem("Load State");
+		loadStateItem.setMnemonic(KeyEvent.VK_D);
+		ActionListener listener = new ActionListener(){
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				// the input log is indexed by instruction count, a loaded state would break it
+				if(myCPU.isInputLogActive()) {
+					JOptionPane.showMessageDialog(loadStateItem, "Stop recording or replaying input before loading a state.",
+							"Load State", JOptionPane.WARNING_MESSAGE);
+					return;
+				}
+				JFileChooser chooser = new JFileChooser(CPU.DEFAULT_PATH);
+				if(chooser.showOpenDialog(loadStateItem) == JFileChooser.APPROVE_OPTION) {
+					myCPU.loadState(chooser.getSelectedFile());
+				}
+			}
+		};
+		loadStateItem.addActionListener(listener);
+		add(loadStateItem);
+	}
+	
+	private void createRecordItem() {
+		recordItem = new JMenuItem("Record Input");
+		recordItem.setMnemonic(KeyEvent.VK_I);
+		ActionListener listener = new ActionListener(){
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				if(!isRecording) {
+					myCPU.startRecording();
+					isRecording = true;
+					recordItem.setText("Stop Recording");
+					return;
+				}
+				JFileChooser chooser = new JFileChooser(CPU.DEFAULT_PATH);
+				if(chooser.showSaveDialog(recordItem) == JFileChooser.APPROVE_OPTION) {
+					myCPU.stopRecording(chooser.getSelectedFile());
+					isRecording = false;
+					recordItem.setText("Record Input");
+				}
+			}
+		};
+		recordItem.addActionListener(listener);
+		add(recordItem);
+	}
+	
+	private void createReplayItem() {
+		replayItem = new JMenuItem("Replay Input");
+		replayItem.setMnemonic(KeyEvent.VK_Y);
+		ActionListener listener = new ActionListener(){
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				JFileChooser chooser = new JFileChooser(CPU.DEFAULT_PATH);
+				if(chooser.showOpenDialog(replayItem) == JFileChooser.APPROVE_OPTION) {
+					myCPU.replay(chooser.getSelectedFile());
+				}
+			}
+		};
+		replayItem.addActionListener(listener);
+		add(replayItem);
+	}
+	
 	private void createCloseItem() {
 		closeItem = new JMenuItem("Close");
 		closeItem.setMnemonic(KeyEvent.VK_C);
@@ -110,7 +230,7 @@ public class FileMenu extends JMenu {
 
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				myCPU.suspendThread();
+				myCPU.pauseThread();
 				int response = JOptionPane.showOptionDialog(closeItem, "DO YOU REALLY WANT TO CLOSE THIS GAME?", 
 						                      "Confirm", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE, null, null, null);
 				
@@ -129,6 +249,8 @@ public class FileMenu extends JMenu {
 	private JFileChooser getFileChooser(String relativePath) {
 		JFileChooser chooser = new JFileChooser(relativePath);
 		chooser.setControlButtonsAreShown(true);
+		// roms are only read once chosen, the catalog already knows what is in the directory
+		chooser.setFileFilter(new FileNameExtensionFilter("CHIP-8 roms", "rom", "ch8", "c8", "zip"));
 		
 		ActionListener listener = new ActionListener() {
 
@@ -1,11 +1,25 @@
 package gui;
 
+import java.awt.GraphicsDevice;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 
 import hardware.CPU;
+import hardware.CanvasRenderer;
+import hardware.QuirksProfile;
+import hardware.RunAhead;
 
+import javax.swing.ButtonGroup;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
+import javax.swing.JRadioButtonMenuItem;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 
 /**
  * 
@@ -22,7 +36,7 @@ public class GameMenuBar extends JMenuBar{
 	public GameMenuBar(CPU cpu) {
 		super();
 		createFileMenu(cpu);
-		createOptionMenu();
+		createOptionMenu(cpu);
 		createHelpMenu();
 	}
 	
@@ -32,12 +46,130 @@ public class GameMenuBar extends JMenuBar{
 		add(fileMenu);
 	}
 	
-	private void createOptionMenu() {
+	private void createOptionMenu(final CPU cpu) {
 		optionMenu = new JMenu("Option");
 	    optionMenu.setMnemonic(KeyEvent.VK_O);
+	
+	    final JCheckBoxMenuItem metricsItem = new JCheckBoxMenuItem("Show Metrics");
+	    metricsItem.setMnemonic(KeyEvent.VK_M);
+	    metricsItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				cpu.setMetricsOverlayVisible(metricsItem.isSelected());
+			}
+	    });
+	    optionMenu.add(metricsItem);
+	    optionMenu.add(createQuirksMenu(cpu));
+	    optionMenu.add(createRunAheadMenu(cpu));
+	    if(cpu.getRenderer() != null) {
+	    	createRendererItems(cpu.getRenderer());
+	    }
 	    add(optionMenu);
 	}
 	
+	/**
+	 * options of the canvas renderer, which scales the screen to any window
+	 */
+	private void createRendererItems(final CanvasRenderer renderer) {
+		final JCheckBoxMenuItem phosphorItem = new JCheckBoxMenuItem("Phosphor", renderer.isPhosphorEnabled());
+		phosphorItem.setMnemonic(KeyEvent.VK_P);
+		phosphorItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				renderer.setPhosphor(phosphorItem.isSelected());
+			}
+		});
+		optionMenu.add(phosphorItem);
+		
+		final JCheckBoxMenuItem fullScreenItem = new JCheckBoxMenuItem("Full Screen");
+		fullScreenItem.setMnemonic(KeyEvent.VK_U);
+		fullScreenItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F11, 0));
+		fullScreenItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Window window = SwingUtilities.getWindowAncestor(GameMenuBar.this);
+				GraphicsDevice device = window.getGraphicsConfiguration().getDevice();
+				// without full screen support the window is only made as large as the screen
+				device.setFullScreenWindow(fullScreenItem.isSelected() ? window : null);
+				renderer.requestFocusInWindow();
+			}
+		});
+		optionMenu.add(fullScreenItem);
+	}
+	
+	private JMenu createQuirksMenu(final CPU cpu) {
+		final JMenu quirksMenu = new JMenu("Quirks");
+		quirksMenu.setMnemonic(KeyEvent.VK_Q);
+		ButtonGroup group = new ButtonGroup();
+		for(final QuirksProfile profile : QuirksProfile.values()) {
+			JRadioButtonMenuItem item = new JRadioButtonMenuItem(profile.getName());
+			item.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					cpu.setQuirks(profile);
+				}
+			});
+			group.add(item);
+			quirksMenu.add(item);
+		}
+		// the profile changes with every rom loaded, show the current one when opened
+		quirksMenu.addMenuListener(new MenuListener() {
+			@Override
+			public void menuSelected(MenuEvent e) {
+				QuirksProfile current = cpu.getQuirks();
+				for(int i = 0 ; i < quirksMenu.getItemCount() ; i++) {
+					JRadioButtonMenuItem item = (JRadioButtonMenuItem)quirksMenu.getItem(i);
+					item.setSelected(item.getText().equals(current.getName()));
+				}
+			}
+			
+			@Override
+			public void menuDeselected(MenuEvent e) {
+			}
+			
+			@Override
+			public void menuCanceled(MenuEvent e) {
+			}
+		});
+		return quirksMenu;
+	}
+	
+	private JMenu createRunAheadMenu(final CPU cpu) {
+		final JMenu runAheadMenu = new JMenu("Run-Ahead");
+		runAheadMenu.setMnemonic(KeyEvent.VK_R);
+		ButtonGroup group = new ButtonGroup();
+		for(int i = 0 ; i <= RunAhead.MAX_FRAMES ; i++) {
+			final int frames = i;
+			JRadioButtonMenuItem item = new JRadioButtonMenuItem(frames == 0 ? "Off" : frames == 1 ? "1 frame" : frames + " frames");
+			item.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					cpu.setRunAheadFrames(frames);
+				}
+			});
+			group.add(item);
+			runAheadMenu.add(item);
+		}
+		// the extra work of each frame is shown by the metrics overlay
+		runAheadMenu.addMenuListener(new MenuListener() {
+			@Override
+			public void menuSelected(MenuEvent e) {
+				for(int i = 0 ; i < runAheadMenu.getItemCount() ; i++) {
+					runAheadMenu.getItem(i).setSelected(i == cpu.getRunAheadFrames());
+				}
+			}
+			
+			@Override
+			public void menuDeselected(MenuEvent e) {
+			}
+			
+			@Override
+			public void menuCanceled(MenuEvent e) {
+			}
+		});
+		return runAheadMenu;
+	}
+	
 	private void createHelpMenu() {
 		helpMenu = new HelpMenu();
 		helpMenu.setMnemonic(KeyEvent.VK_H);
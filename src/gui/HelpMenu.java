@@ -34,7 +34,7 @@ public class HelpMenu extends JMenu{
 
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				JOptionPane.showConfirmDialog(aboutItem, "version " + CPU.GAME_VERSION +"\n" +
+				JOptionPane.showConfirmDialog(aboutItem, "version " + CPU.EMULATOR_VERSION +"\n" +
 						                                "Author : Yang", null, JOptionPane.OK_OPTION, JOptionPane.INFORMATION_MESSAGE);
 			}
 	    };
@@ -0,0 +1,263 @@
+package hardware;
+
+import java.awt.GraphicsEnvironment;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays the buzzer of a {@link Chip8Core} through javax.sound.
+ *
+ * Every emulated frame the emulation thread renders exactly one frame of samples into
+ * a {@link SampleRingBuffer}, and a dedicated audio thread drains it into the audio line,
+ * whose blocking writes pace it. The buzzer plays the XO-CHIP audio pattern at the pitch
+ * register, or a 500 Hz square wave when no pattern was loaded.
+ *
+ * The audio thread keeps a few frames buffered to ride over frames that come late. When
+ * the ring runs dry it holds the last sample, counts an underrun and buffers one more
+ * frame before playing again, so underruns stay rare on a slow machine; after ten
+ * seconds without one it gives a frame back, to bring the latency down. Frames coming
+ * faster than real time, when running in turbo, are dropped whole before they are
+ * rendered, so the waveform stays continuous whatever the emulation speed.
+ *
+ * @author Richard Yang
+ *
+ */
+public class AudioOutput implements AudioSink, Runnable {
+	/**
+	 * samples per second, a whole number of samples per frame
+	 */
+	public static final int SAMPLE_RATE = 48000;
+	/**
+	 * samples rendered per emulated frame
+	 */
+	public static final int SAMPLES_PER_FRAME = SAMPLE_RATE / Scheduler.TIMER_FREQUENCY;
+	/**
+	 * frames buffered before playing starts, and the most it can grow to after underruns
+	 */
+	public static final int MIN_BUFFERED_FRAMES = 3;
+	public static final int MAX_BUFFERED_FRAMES = 8;
+	
+	/**
+	 * rate of the audio pattern at the default pitch, in bits per second
+	 */
+	private static final double PATTERN_RATE = 4000;
+	private static final int PATTERN_BITS = Chip8Core.AUDIO_PATTERN_SIZE * 8;
+	/**
+	 * pattern played when the rom loaded none, a 500 Hz square wave at the default pitch
+	 */
+	private static final byte[] BEEP_PATTERN = {
+		(byte)0xF0, (byte)0xF0, (byte)0xF0, (byte)0xF0, (byte)0xF0, (byte)0xF0, (byte)0xF0, (byte)0xF0,
+		(byte)0xF0, (byte)0xF0, (byte)0xF0, (byte)0xF0, (byte)0xF0, (byte)0xF0, (byte)0xF0, (byte)0xF0 };
+	private static final int AMPLITUDE = 0x1800;
+	/**
+	 * the level moves 1/2^SMOOTHING of the way to the wave per sample, to avoid clicks
+	 */
+	private static final int SMOOTHING = 3;
+	
+	/**
+	 * samples written to the line at once, about 5 ms
+	 */
+	private static final int CHUNK_SAMPLES = 256;
+	private static final int RING_CAPACITY = 16384;
+	/**
+	 * chunks played without an underrun before the buffering shrinks by a frame, 10 s
+	 */
+	private static final int SHRINK_CHUNKS = 10 * SAMPLE_RATE / CHUNK_SAMPLES;
+	
+	private final SourceDataLine line;
+	private final SampleRingBuffer ring;
+	
+	//written to the line by the audio thread
+	private final byte[] chunk;
+	
+	//frames kept buffered, grown by the audio thread after an underrun
+	private volatile int bufferedFrames;
+	
+	//whether the audio thread is waiting for the ring to fill up, and the chunks played
+	//since the last underrun; audio thread only
+	private boolean isBuffering;
+	private int cleanChunks;
+	
+	//position in the pattern, in bits, and bits per sample at the pitch last seen;
+	//emulation thread only
+	private double patternPosition;
+	private double patternStep;
+	private int lastPitch;
+	private int level;
+	
+	private volatile long underruns;
+	private volatile long droppedFrames;
+	
+	//counts the underruns and dropped frames, null for none
+	private Metrics myMetrics;
+	
+	private volatile Thread audioThread;
+	
+	private AudioOutput(SourceDataLine line) {
+		this.line = line;
+		ring = new SampleRingBuffer(RING_CAPACITY);
+		chunk = new byte[CHUNK_SAMPLES * 2];
+		bufferedFrames = MIN_BUFFERED_FRAMES;
+		isBuffering = true;
+		lastPitch = -1;
+	}
+	
+	/**
+	 * open the default audio line and start the audio thread
+	 * @return the output, null when headless or when no line can be opened, in which case
+	 * the machine should keep the silent sink
+	 */
+	public static AudioOutput open() {
+		if(GraphicsEnvironment.isHeadless()) {
+			return null;
+		}
+		AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+		try {
+			SourceDataLine line = AudioSystem.getSourceDataLine(format);
+			line.open(format, CHUNK_SAMPLES * 2 * 4);
+			line.start();
+			AudioOutput output = new AudioOutput(line);
+			Thread thread = new Thread(output, "CHIP-8 audio");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MAX_PRIORITY);
+			output.audioThread = thread;
+			thread.start();
+			return output;
+		} catch (LineUnavailableException e) {
+			e.printStackTrace();
+		} catch (IllegalArgumentException e) {
+			// no mixer supports the format
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * @param metrics counts the underruns and dropped frames, null for none
+	 */
+	public void setMetrics(Metrics metrics) {
+		myMetrics = metrics;
+	}
+	
+	/**
+	 * render one frame of samples into the ring, or drop it when the audio thread is
+	 * already far enough ahead
+	 */
+	@Override
+	public void audioFrame(boolean isSounding, byte[] pattern, int pitch) {
+		int buffered = ring.size();
+		if(buffered + SAMPLES_PER_FRAME > (bufferedFrames + 2) * SAMPLES_PER_FRAME
+				|| buffered + SAMPLES_PER_FRAME > ring.getCapacity()) {
+			droppedFrames++;
+			if(myMetrics != null) {
+				myMetrics.audioFrameDropped();
+			}
+			return;
+		}
+		
+		if(pitch != lastPitch) {
+			lastPitch = pitch;
+			patternStep = PATTERN_RATE * Math.pow(2, (pitch - Chip8Core.DEFAULT_PITCH) / 48.0) / SAMPLE_RATE;
+		}
+		byte[] bits = isSilent(pattern) ? BEEP_PATTERN : pattern;
+		for(int i = 0 ; i < SAMPLES_PER_FRAME ; i++) {
+			int wave = 0;
+			if(isSounding) {
+				int bit = (int)patternPosition;
+				wave = (bits[bit >> 3] << (bit & 7) & 0x80) != 0 ? AMPLITUDE : -AMPLITUDE;
+				patternPosition += patternStep;
+				if(patternPosition >= PATTERN_BITS) {
+					patternPosition -= PATTERN_BITS;
+				}
+			}
+			level += (wave - level) >> SMOOTHING;
+			ring.put(i, (short)level);
+		}
+		ring.publish(SAMPLES_PER_FRAME);
+	}
+	
+	private static boolean isSilent(byte[] pattern) {
+		for(int i = 0 ; i < pattern.length ; i++) {
+			if(pattern[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * drain the ring into the line until closed, on the audio thread
+	 */
+	@Override
+	public void run() {
+		while(audioThread == Thread.currentThread()) {
+			int count = 0;
+			if(isBuffering && ring.size() >= bufferedFrames * SAMPLES_PER_FRAME) {
+				isBuffering = false;
+			}
+			if(!isBuffering) {
+				count = ring.read(chunk, 0, CHUNK_SAMPLES);
+				if(count < CHUNK_SAMPLES) {
+					isBuffering = true;
+					cleanChunks = 0;
+					underruns++;
+					bufferedFrames = Math.min(bufferedFrames + 1, MAX_BUFFERED_FRAMES);
+					if(myMetrics != null) {
+						myMetrics.audioUnderrun();
+					}
+				} else if(++cleanChunks >= SHRINK_CHUNKS) {
+					cleanChunks = 0;
+					bufferedFrames = Math.max(bufferedFrames - 1, MIN_BUFFERED_FRAMES);
+				}
+			}
+			// hold the last sample rather than jumping to zero, which would click
+			byte low = count > 0 ? chunk[count * 2 - 2] : chunk[chunk.length - 2];
+			byte high = count > 0 ? chunk[count * 2 - 1] : chunk[chunk.length - 1];
+			for(int i = count * 2 ; i < chunk.length ; i += 2) {
+				chunk[i] = low;
+				chunk[i + 1] = high;
+			}
+			line.write(chunk, 0, chunk.length);
+		}
+		line.drain();
+		line.close();
+	}
+	
+	/**
+	 * stop the audio thread and close the line
+	 */
+	public void close() {
+		audioThread = null;
+	}
+	
+	/**
+	 * @return times the ring ran dry while playing
+	 */
+	public long getUnderruns() {
+		return underruns;
+	}
+	
+	/**
+	 * @return frames dropped because the emulation ran ahead of real time
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+	
+	/**
+	 * @return frames the audio thread keeps buffered, grown by underruns
+	 */
+	public int getBufferedFrames() {
+		return bufferedFrames;
+	}
+	
+	/**
+	 * @return latency of the sound, in milliseconds, at the current buffering
+	 */
+	public double getLatency() {
+		return (bufferedFrames * SAMPLES_PER_FRAME + CHUNK_SAMPLES * 4) * 1000.0 / SAMPLE_RATE;
+	}
+}
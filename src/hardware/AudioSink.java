@@ -0,0 +1,19 @@
+package hardware;
+
+/**
+ * Receives the sound state of a {@link Chip8Core} once per emulated frame.
+ *
+ * @author Richard Yang
+ *
+ */
+public interface AudioSink {
+	
+	/**
+	 * called on the emulation thread at every timer tick, before the sound timer counts down
+	 * @param isSounding whether the sound timer is running, so the buzzer sounds this frame
+	 * @param pattern the live audio pattern, 128 one bit samples from the highest bit of
+	 *        the first byte, all zero unless an XO-CHIP rom loaded one
+	 * @param pitch the pitch register, see {@link Chip8Core#getPitch()}
+	 */
+	void audioFrame(boolean isSounding, byte[] pattern, int pitch);
+}
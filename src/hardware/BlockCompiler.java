@@ -0,0 +1,870 @@
+package hardware;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles straight-line runs of CHIP-8 instructions into hidden classes so that
+ * HotSpot can inline the register work of a whole block.
+ *
+ * A block stops before any instruction that waits for a key, writes memory or leaves
+ * the block other than by a jump, a call, a return or a skip on registers or keys, and
+ * that instruction is left to the interpreter. The jump, call, return or skip ending a
+ * block is compiled with it, and the block hands back the address to go on from, so the
+ * machine runs the blocks one after the other without going back to the interpreter.
+ * A block also takes the number of instructions left in the frame and
+ * stops there, so that a frame ends in the middle of a block as it does in the
+ * interpreter.
+ *
+ * Defining a class costs far more than interpreting an instruction, and every block run
+ * is a call the JIT cannot inline, so only runs of {@link #MIN_BLOCK_LENGTH} instructions
+ * or more are compiled, and only once their address has been looked up
+ * {@link #COMPILE_THRESHOLD} times or the rom analysis found them hot.
+ *
+ * Only the CALL ending a block writes memory, to the stack, once the block is done, so
+ * blocks cannot modify themselves while they run; a block written to is dropped, and its
+ * address is interpreted until it gets hot again.
+ *
+ * @author Richard Yang
+ *
+ */
+class BlockCompiler {
+	
+	/**
+	 * longest block compiled, in instructions
+	 */
+	static final int MAX_BLOCK_LENGTH = 16;
+	/**
+	 * shortest block compiled; a shorter run costs more in the call to its block than it
+	 * saves over the interpreter
+	 */
+	static final int MIN_BLOCK_LENGTH = 4;
+	/**
+	 * number of lookups of an address before the block there is compiled
+	 */
+	static final int COMPILE_THRESHOLD = 64;
+	
+	private static final String BLOCK_CLASS = "hardware/GeneratedBlock";
+	private static final String SUPER_CLASS = "hardware/CompiledBlock";
+	private static final String CORE_CLASS = "hardware/Chip8Core";
+	private static final String RUN_DESCRIPTOR = "(Lhardware/Chip8Core;[B[BII)I";
+	
+	//local variable slots of the generated run method
+	private static final int LOCAL_CORE = 1;
+	private static final int LOCAL_V = 2;
+	private static final int LOCAL_MEMORY = 3;
+	private static final int LOCAL_INDEX = 4;
+	private static final int LOCAL_BUDGET = 5;
+	private static final int LOCAL_TEMP = 6;
+	
+	private final Chip8Core myCore;
+	
+	private final MethodHandles.Lookup myLookup;
+	
+	//compiled block starting at each address
+	private final CompiledBlock[] blocks;
+	
+	//length of the block at each address, 0 when not compiled yet, or minus the number
+	//of instructions read when the run there is too short to compile
+	private final int[] lengths;
+	
+	//lookups of each address not compiled yet
+	private final int[] lookups;
+	
+	//the analysis of the rom in memory the blocks compiled from it are shared through,
+	//null when the machine was not prepared with one
+	private RomAnalysis myAnalysis;
+	
+	//whether a block compiled since the last reset holds the byte at each address, so
+	//that writes to the stack and to data do not look for blocks
+	private final boolean[] covered;
+	
+	public BlockCompiler(Chip8Core core, int memorySize) {
+		myCore = core;
+		myLookup = MethodHandles.lookup();
+		blocks = new CompiledBlock[memorySize];
+		lengths = new int[memorySize];
+		lookups = new int[memorySize];
+		covered = new boolean[memorySize];
+	}
+	
+	/**
+	 * find the block starting at the given address, compiling it once the address is hot
+	 * @param address address of the first instruction
+	 * @return the block, or null if the address has to be interpreted
+	 */
+	public CompiledBlock lookup(int address) {
+		if(lengths[address] == 0 && ++lookups[address] >= COMPILE_THRESHOLD) {
+			compile(address);
+		}
+		return lengths[address] > 0 ? blocks[address] : null;
+	}
+	
+	/**
+	 * @param address address of the first instruction
+	 * @return the number of instructions in the block at the given address
+	 */
+	public int lengthAt(int address) {
+		return lengths[address];
+	}
+	
+	/**
+	 * take the block another machine compiled at the given address from the same rom, or
+	 * have the block compiled on its first lookup rather than once the address is hot;
+	 * the blocks compiled from the rom from now on are shared with the other machines
+	 * @param address address of the first instruction of a hot block of the analysis
+	 * @param analysis the analysis of the rom in memory
+	 * @return the number of instructions in the block taken, 0 when it is left to be
+	 * compiled and below 0 when the address is interpreted
+	 */
+	public int prepare(int address, RomAnalysis analysis) {
+		myAnalysis = analysis;
+		if(lengths[address] != 0) {
+			return lengths[address];
+		}
+		CompiledBlock shared = analysis.compiledBlockAt(address);
+		if(shared != null) {
+			lengths[address] = analysis.compiledLengthAt(address);
+			blocks[address] = shared;
+			cover(address, lengths[address]);
+			return lengths[address];
+		}
+		lookups[address] = COMPILE_THRESHOLD - 1;
+		return 0;
+	}
+	
+	/**
+	 * drop every block, or run found too short, containing the written address; the
+	 * address is interpreted until it gets hot again
+	 * @param address the address written
+	 */
+	public void invalidate(int address) {
+		if(!covered[address]) {
+			return;
+		}
+		int first = Math.max(0, address - 2 * (MAX_BLOCK_LENGTH + 1) + 1);
+		for(int start = first ; start <= address ; start++) {
+			if(lengths[start] != 0 && address < start + 2 * Math.abs(lengths[start])) {
+				blocks[start] = null;
+				lengths[start] = 0;
+				lookups[start] = 0;
+			}
+		}
+	}
+	
+	/**
+	 * drop every block, used when a new rom is loaded
+	 */
+	public void reset() {
+		for(int i = 0 ; i < blocks.length ; i++) {
+			blocks[i] = null;
+			lengths[i] = 0;
+			lookups[i] = 0;
+			covered[i] = false;
+		}
+		myAnalysis = null;
+	}
+	
+	private void cover(int start, int length) {
+		for(int i = start ; i < Math.min(start + 2 * length, covered.length) ; i++) {
+			covered[i] = true;
+		}
+	}
+	
+	private void compile(int start) {
+		int length = 0;
+		int address = start;
+		while(length < MAX_BLOCK_LENGTH && address + 1 < lengths.length
+				&& isCompilable(myCore.handlerAt(address))) {
+			length++;
+			address += 2;
+		}
+		// the next address is handed back in 16 bits
+		if(length < MAX_BLOCK_LENGTH && address + 3 < lengths.length && isExit(myCore.handlerAt(address))) {
+			length++;
+		}
+		if(length < MIN_BLOCK_LENGTH) {
+			// a write to the instruction ending the run may make it longer
+			lengths[start] = -(length + 1);
+			cover(start, length + 1);
+			return;
+		}
+		
+		// interpreted from now on if the class cannot be defined
+		lengths[start] = -length;
+		cover(start, length);
+		try {
+			byte[] classBytes = generate(start, length);
+			Class<?> blockClass = myLookup.defineHiddenClass(classBytes, true).lookupClass();
+			blocks[start] = (CompiledBlock)blockClass.getDeclaredConstructor().newInstance();
+			lengths[start] = length;
+			share(start, length);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * share a block with the other machines prepared with the analysis, when it was
+	 * compiled from the rom as loaded: a block running past the rom, or over bytes
+	 * written since, depends on memory the analysis does not cover
+	 */
+	private void share(int start, int length) {
+		int end = start + 2 * length;
+		if(myAnalysis != null && start >= myAnalysis.getStart() && end <= myAnalysis.getEnd()
+				&& myAnalysis.holds(myCore.getMemory(), start, end)) {
+			myAnalysis.shareCompiledBlock(start, blocks[start], length);
+		}
+	}
+	
+	private boolean isCompilable(int handler) {
+		switch(handler) {
+		case Chip8Core.OP_NOP:
+		case Chip8Core.OP_CLS:
+		case Chip8Core.OP_LD_BYTE:
+		case Chip8Core.OP_ADD_BYTE:
+		case Chip8Core.OP_LD_REG:
+		case Chip8Core.OP_OR:
+		case Chip8Core.OP_AND:
+		case Chip8Core.OP_XOR:
+		case Chip8Core.OP_ADD_REG:
+		case Chip8Core.OP_SUB:
+		case Chip8Core.OP_SHR:
+		case Chip8Core.OP_SUBN:
+		case Chip8Core.OP_SHL:
+		case Chip8Core.OP_LD_I:
+		case Chip8Core.OP_RND:
+		case Chip8Core.OP_DRW:
+		case Chip8Core.OP_DRW_WIDE:
+		case Chip8Core.OP_LD_VX_DT:
+		case Chip8Core.OP_LD_DT:
+		case Chip8Core.OP_LD_ST:
+		case Chip8Core.OP_ADD_I:
+		case Chip8Core.OP_LD_FONT:
+		case Chip8Core.OP_LOAD:
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * @return whether the instruction can end a block, leaving it for an address known
+	 * from the registers, the keys and the stack
+	 */
+	private boolean isExit(int handler) {
+		switch(handler) {
+		case Chip8Core.OP_JP:
+		case Chip8Core.OP_CALL:
+		case Chip8Core.OP_RET:
+			return true;
+		case Chip8Core.OP_SE_BYTE:
+		case Chip8Core.OP_SNE_BYTE:
+		case Chip8Core.OP_SE_REG:
+		case Chip8Core.OP_SNE_REG:
+		case Chip8Core.OP_SKP:
+		case Chip8Core.OP_SKNP:
+			// the length of the instruction skipped over would be read from memory
+			return !myCore.isSkippingLongLoads();
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * generate a class extending {@link CompiledBlock} for the given block
+	 */
+	private byte[] generate(int start, int length) throws IOException {
+		ConstantPool pool = new ConstantPool();
+		int thisClass = pool.classRef(BLOCK_CLASS);
+		int superClass = pool.classRef(SUPER_CLASS);
+		int superInit = pool.methodRef(SUPER_CLASS, "<init>", "()V");
+		int initName = pool.utf8("<init>");
+		int initDescriptor = pool.utf8("()V");
+		int runName = pool.utf8("run");
+		int runDescriptor = pool.utf8(RUN_DESCRIPTOR);
+		int codeName = pool.utf8("Code");
+		int stackMapName = pool.utf8("StackMapTable");
+		
+		Code init = new Code();
+		init.op(0x2A); // aload_0
+		init.op(0xB7); // invokespecial
+		init.u2(superInit);
+		init.op(0xB1); // return
+		
+		Code run = new Code();
+		int end = start + 2 * length;
+		for(int address = start ; address < end ; address += 2) {
+			if(address > start) {
+				// a budget running out inside the block stops it before this instruction
+				run.load(LOCAL_BUDGET);
+				run.push((address - start) >> 1);
+				int branch = run.size();
+				run.op(0xA0); // if_icmpne
+				run.u2(0);
+				pushAddress(run, pool, address);
+				emitReturn(run);
+				run.patch(branch + 1, run.size() - branch);
+				run.frame();
+			}
+			if(address + 2 < end || !isExit(myCore.handlerAt(address))) {
+				emitInstruction(run, pool, address);
+			}
+		}
+		emitExit(run, pool, end - 2);
+		emitReturn(run);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(52);
+		pool.write(out);
+		out.writeShort(0x0030); // final, super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(0); // interfaces
+		out.writeShort(0); // fields
+		out.writeShort(2); // methods
+		writeMethod(out, initName, initDescriptor, codeName, stackMapName, init, 1, 1);
+		writeMethod(out, runName, runDescriptor, codeName, stackMapName, run, 8, LOCAL_TEMP + 1);
+		out.writeShort(0); // attributes
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	private void writeMethod(DataOutputStream out, int name, int descriptor, int codeName, int stackMapName,
+			Code code, int maxStack, int maxLocals) throws IOException {
+		byte[] body = code.toByteArray();
+		byte[] frames = code.stackMap();
+		out.writeShort(0x0001); // public
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + body.length + (frames.length > 0 ? 8 + frames.length : 0));
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(body.length);
+		out.write(body);
+		out.writeShort(0); // exception table
+		if(frames.length == 0) {
+			out.writeShort(0); // attributes
+			return;
+		}
+		out.writeShort(1);
+		out.writeShort(stackMapName);
+		out.writeInt(2 + frames.length);
+		out.writeShort(code.frameCount());
+		out.write(frames);
+	}
+	
+	/**
+	 * emit the bytecode of one instruction, mirroring the interpreter in {@link Chip8Core#emulateCycle()}
+	 */
+	private void emitInstruction(Code code, ConstantPool pool, int address) {
+		int x = myCore.operandX[address];
+		int y = myCore.operandY[address];
+		int immediate = myCore.operandImmediate[address];
+		
+		switch(myCore.handlerAt(address)) {
+		case Chip8Core.OP_CLS: {
+			code.load(LOCAL_CORE);
+			code.invoke(pool.methodRef(CORE_CLASS, "clearScreen", "()V"));
+			break;
+		}
+		
+		case Chip8Core.OP_LD_BYTE: {
+			code.startStore(x);
+			code.push(immediate);
+			code.op(0x54); // bastore
+			break;
+		}
+		
+		case Chip8Core.OP_ADD_BYTE: {
+			code.startStore(x);
+			code.register(x);
+			code.push(immediate);
+			code.op(0x60); // iadd
+			code.push(0xFF);
+			code.op(0x7E); // iand
+			code.op(0x54);
+			break;
+		}
+		
+		case Chip8Core.OP_LD_REG: {
+			code.startStore(x);
+			code.register(y);
+			code.op(0x54);
+			break;
+		}
+		
+		case Chip8Core.OP_OR:
+		case Chip8Core.OP_AND:
+		case Chip8Core.OP_XOR: {
+			int handler = myCore.handlerAt(address);
+			code.startStore(x);
+			code.register(x);
+			code.register(y);
+			code.op(handler == Chip8Core.OP_OR ? 0x80 : handler == Chip8Core.OP_AND ? 0x7E : 0x82);
+			code.op(0x54);
+			break;
+		}
+		
+		case Chip8Core.OP_ADD_REG: {
+			code.register(x);
+			code.register(y);
+			code.op(0x60);
+			code.op(0x36); // istore
+			code.op(LOCAL_TEMP);
+			
+			code.startStore(x);
+			code.load(LOCAL_TEMP);
+			code.push(0xFF);
+			code.op(0x7E);
+			code.op(0x54);
+			
+			code.startStore(15);
+			code.load(LOCAL_TEMP);
+			code.push(8);
+			code.op(0x7A); // ishr
+			code.op(0x54);
+			break;
+		}
+		
+		case Chip8Core.OP_SUB:
+		case Chip8Core.OP_SUBN: {
+			boolean isSub = myCore.handlerAt(address) == Chip8Core.OP_SUB;
+			int left = isSub ? x : y;
+			int right = isSub ? y : x;
+			code.register(left);
+			code.register(right);
+			code.op(0x64); // isub
+			code.op(0x36);
+			code.op(LOCAL_TEMP);
+			
+			code.startStore(x);
+			code.load(LOCAL_TEMP);
+			code.op(0x54);
+			
+			// VF = (left - right) >= 0, computed as the inverted sign bit
+			code.startStore(15);
+			code.load(LOCAL_TEMP);
+			code.push(31);
+			code.op(0x7C); // iushr
+			code.push(1);
+			code.op(0x82); // ixor
+			code.op(0x54);
+			break;
+		}
+		
+		case Chip8Core.OP_SHR:
+		case Chip8Core.OP_SHL: {
+			boolean isRight = myCore.handlerAt(address) == Chip8Core.OP_SHR;
+			// y is x unless the quirks profile shifts VY
+			code.register(y);
+			code.op(0x36);
+			code.op(LOCAL_TEMP);
+			
+			code.startStore(x);
+			code.load(LOCAL_TEMP);
+			code.push(1);
+			code.op(isRight ? 0x7A : 0x78); // ishr, ishl
+			code.op(0x54);
+			
+			code.startStore(15);
+			code.load(LOCAL_TEMP);
+			if(isRight) {
+				code.push(1);
+				code.op(0x7E);
+			} else {
+				code.push(7);
+				code.op(0x7A);
+			}
+			code.op(0x54);
+			break;
+		}
+		
+		case Chip8Core.OP_LD_I: {
+			code.push(immediate);
+			code.op(0x36);
+			code.op(LOCAL_INDEX);
+			break;
+		}
+		
+		case Chip8Core.OP_RND: {
+			code.startStore(x);
+			code.load(LOCAL_CORE);
+			code.push(immediate);
+			code.invoke(pool.methodRef(CORE_CLASS, "randomByte", "(I)I"));
+			code.op(0x54);
+			break;
+		}
+		
+		case Chip8Core.OP_DRW: {
+			code.load(LOCAL_CORE);
+			code.register(x);
+			code.register(y);
+			code.push(immediate);
+			code.load(LOCAL_INDEX);
+			code.invoke(pool.methodRef(CORE_CLASS, "drawSprite", "(IIII)V"));
+			break;
+		}
+		
+		case Chip8Core.OP_DRW_WIDE: {
+			code.load(LOCAL_CORE);
+			code.register(x);
+			code.register(y);
+			code.load(LOCAL_INDEX);
+			code.invoke(pool.methodRef(CORE_CLASS, "drawWideSprite", "(III)V"));
+			break;
+		}
+		
+		case Chip8Core.OP_LD_VX_DT: {
+			code.startStore(x);
+			code.load(LOCAL_CORE);
+			code.invoke(pool.methodRef(CORE_CLASS, "getDelayTimer", "()I"));
+			code.op(0x54);
+			break;
+		}
+		
+		case Chip8Core.OP_LD_DT:
+		case Chip8Core.OP_LD_ST: {
+			String setter = myCore.handlerAt(address) == Chip8Core.OP_LD_DT ? "setDelayTimer" : "setSoundTimer";
+			code.load(LOCAL_CORE);
+			code.register(x);
+			code.invoke(pool.methodRef(CORE_CLASS, setter, "(I)V"));
+			break;
+		}
+		
+		case Chip8Core.OP_ADD_I: {
+			code.load(LOCAL_INDEX);
+			code.register(x);
+			code.op(0x60);
+			maskIndex(code);
+			code.op(0x36);
+			code.op(LOCAL_INDEX);
+			break;
+		}
+		
+		case Chip8Core.OP_LD_FONT: {
+			code.register(x);
+			code.push(0x0F);
+			code.op(0x7E);
+			code.push(5);
+			code.op(0x68); // imul
+			code.op(0x36);
+			code.op(LOCAL_INDEX);
+			break;
+		}
+		
+		case Chip8Core.OP_LOAD: {
+			for(int i = 0 ; i <= x ; i++) {
+				code.startStore(i);
+				code.load(LOCAL_MEMORY);
+				code.load(LOCAL_INDEX);
+				code.push(i);
+				code.op(0x60);
+				maskIndex(code);
+				code.op(0x33); // baload
+				code.op(0x54);
+			}
+			if(immediate != 0) {
+				code.load(LOCAL_INDEX);
+				code.push(immediate);
+				code.op(0x60);
+				maskIndex(code);
+				code.op(0x36);
+				code.op(LOCAL_INDEX);
+			}
+			break;
+		}
+		
+		default: break;
+		}
+	}
+	
+	/**
+	 * push the address of the instruction following the block, which ends with the given
+	 * instruction; a skip adds 2 to the next address without branching, so the method
+	 * needs no stack map frames
+	 */
+	private void emitExit(Code code, ConstantPool pool, int address) {
+		int handler = myCore.handlerAt(address);
+		if(!isExit(handler)) {
+			pushAddress(code, pool, address + 2);
+			return;
+		}
+		if(handler == Chip8Core.OP_JP) {
+			pushAddress(code, pool, myCore.operandImmediate[address]);
+			return;
+		}
+		if(handler == Chip8Core.OP_CALL) {
+			code.load(LOCAL_CORE);
+			pushAddress(code, pool, address);
+			code.invoke(pool.methodRef(CORE_CLASS, "pushReturnAddress", "(I)V"));
+			pushAddress(code, pool, myCore.operandImmediate[address]);
+			return;
+		}
+		if(handler == Chip8Core.OP_RET) {
+			code.load(LOCAL_CORE);
+			code.invoke(pool.methodRef(CORE_CLASS, "popReturnAddress", "()I"));
+			code.push(2);
+			code.op(0x60); // iadd
+			return;
+		}
+		pushAddress(code, pool, address + 2);
+		// the skips on equal keys and registers test a value for 0, the others for not 0
+		boolean isEqualSkip = handler == Chip8Core.OP_SE_BYTE || handler == Chip8Core.OP_SE_REG
+				|| handler == Chip8Core.OP_SKNP;
+		if(!isEqualSkip) {
+			code.push(0);
+		}
+		if(handler == Chip8Core.OP_SKP || handler == Chip8Core.OP_SKNP) {
+			code.load(LOCAL_CORE);
+			code.invoke(pool.methodRef(CORE_CLASS, "keyState", "()I"));
+			code.push(1);
+			code.register(myCore.operandX[address]);
+			code.push(0x0F);
+			code.op(0x7E); // iand
+			code.op(0x78); // ishl
+			code.op(0x7E); // iand, 0 when the key is up
+		} else {
+			code.register(myCore.operandX[address]);
+			if(handler == Chip8Core.OP_SE_BYTE || handler == Chip8Core.OP_SNE_BYTE) {
+				code.push(myCore.operandImmediate[address]);
+			} else {
+				code.register(myCore.operandY[address]);
+			}
+			code.op(0x82); // ixor, 0 when equal
+		}
+		if(isEqualSkip) {
+			code.push(1);
+			code.op(0x64); // isub, negative when equal
+		} else {
+			code.op(0x64); // isub, negative when different
+		}
+		code.push(31);
+		code.op(0x7C); // iushr
+		code.push(1);
+		code.op(0x78); // ishl
+		code.op(0x60); // iadd
+	}
+	
+	/**
+	 * return the address on top of the stack with the index register
+	 */
+	private void emitReturn(Code code) {
+		code.push(16);
+		code.op(0x78); // ishl
+		code.load(LOCAL_INDEX);
+		code.op(0x80); // ior
+		code.op(0xAC); // ireturn
+	}
+	
+	private void pushAddress(Code code, ConstantPool pool, int address) {
+		if(address > Short.MAX_VALUE) {
+			code.op(0x13); // ldc_w
+			code.u2(pool.integer(address));
+		} else {
+			code.push(address);
+		}
+	}
+	
+	/**
+	 * keep the address on top of the stack within the memory of the quirks profile
+	 */
+	private void maskIndex(Code code) {
+		if(myCore.indexMask() == 0xFFFF) {
+			code.op(0x92); // i2c, sipush cannot hold 0xFFFF
+		} else {
+			code.push(myCore.indexMask());
+			code.op(0x7E); // iand
+		}
+	}
+	
+	/**
+	 * bytecode of one method body
+	 */
+	private static class Code extends ByteArrayOutputStream {
+		
+		//the stack map frames of the branch targets, and the offset of the last one
+		private final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		private int frameCount;
+		private int lastFrame = -1;
+		
+		void op(int value) {
+			write(value);
+		}
+		
+		void u2(int value) {
+			write(value >> 8);
+			write(value);
+		}
+		
+		/**
+		 * overwrite two bytes already written, such as a branch offset
+		 */
+		void patch(int position, int value) {
+			buf[position] = (byte)(value >> 8);
+			buf[position + 1] = (byte)value;
+		}
+		
+		/**
+		 * mark the current offset as a branch target; the locals there are the arguments,
+		 * and the stack is empty
+		 */
+		void frame() {
+			int delta = size() - lastFrame - 1;
+			if(delta < 64) {
+				frames.write(delta); // same_frame
+			} else {
+				frames.write(251); // same_frame_extended
+				frames.write(delta >> 8);
+				frames.write(delta);
+			}
+			lastFrame = size();
+			frameCount++;
+		}
+		
+		int frameCount() {
+			return frameCount;
+		}
+		
+		/**
+		 * @return the entries of the StackMapTable attribute
+		 */
+		byte[] stackMap() {
+			return frames.toByteArray();
+		}
+		
+		void push(int value) {
+			if(value >= -1 && value <= 5) {
+				op(0x03 + value); // iconst
+			} else if(value >= -128 && value <= 127) {
+				op(0x10); // bipush
+				op(value);
+			} else {
+				op(0x11); // sipush
+				u2(value);
+			}
+		}
+		
+		void load(int local) {
+			if(local == LOCAL_INDEX || local == LOCAL_BUDGET || local == LOCAL_TEMP) {
+				op(0x15); // iload
+			} else {
+				op(0x19); // aload
+			}
+			op(local);
+		}
+		
+		void invoke(int methodRef) {
+			op(0xB6); // invokevirtual
+			u2(methodRef);
+		}
+		
+		/**
+		 * push the V array and a register number ahead of a bastore
+		 */
+		void startStore(int register) {
+			load(LOCAL_V);
+			push(register);
+		}
+		
+		/**
+		 * push the unsigned value of a register
+		 */
+		void register(int register) {
+			load(LOCAL_V);
+			push(register);
+			op(0x33); // baload
+			push(0xFF);
+			op(0x7E); // iand
+		}
+	}
+	
+	/**
+	 * constant pool of the generated class, entries are shared by key
+	 */
+	private static class ConstantPool {
+		
+		private final Map<String, Integer> indices = new HashMap<String, Integer>();
+		private final List<byte[]> entries = new ArrayList<byte[]>();
+		
+		int utf8(String value) {
+			Integer index = indices.get("U" + value);
+			if(index != null) {
+				return index;
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			try {
+				out.writeByte(1);
+				out.writeUTF(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return add("U" + value, bytes.toByteArray());
+		}
+		
+		int integer(int value) {
+			Integer index = indices.get("I" + value);
+			if(index != null) {
+				return index;
+			}
+			return add("I" + value, new byte[] {3,
+					(byte)(value >> 24), (byte)(value >> 16), (byte)(value >> 8), (byte)value});
+		}
+		
+		int classRef(String name) {
+			Integer index = indices.get("C" + name);
+			if(index != null) {
+				return index;
+			}
+			int nameIndex = utf8(name);
+			return add("C" + name, new byte[] {7, (byte)(nameIndex >> 8), (byte)nameIndex});
+		}
+		
+		int methodRef(String owner, String name, String descriptor) {
+			String key = "M" + owner + "." + name + descriptor;
+			Integer index = indices.get(key);
+			if(index != null) {
+				return index;
+			}
+			int ownerIndex = classRef(owner);
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			Integer existing = indices.get("N" + name + descriptor);
+			int nameAndType = existing != null ? existing : 0;
+			if(existing == null) {
+				nameAndType = add("N" + name + descriptor, new byte[] {12,
+						(byte)(nameIndex >> 8), (byte)nameIndex, (byte)(descriptorIndex >> 8), (byte)descriptorIndex});
+			}
+			return add(key, new byte[] {10,
+					(byte)(ownerIndex >> 8), (byte)ownerIndex, (byte)(nameAndType >> 8), (byte)nameAndType});
+		}
+		
+		private int add(String key, byte[] entry) {
+			entries.add(entry);
+			int index = entries.size();
+			indices.put(key, index);
+			return index;
+		}
+		
+		void write(DataOutputStream out) throws IOException {
+			out.writeShort(entries.size() + 1);
+			for(byte[] entry : entries) {
+				out.write(entry);
+			}
+		}
+	}
+}
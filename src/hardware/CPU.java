@@ -1,10 +1,14 @@
 package hardware;
 
 
+import java.awt.Component;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 
@@ -21,191 +25,326 @@ public class CPU implements Runnable{
 	 */
 	public static final String DEFAULT_PATH = "./roms/";
 	/**
-	 * default sleep time of threads
+	 * system property selecting the block compiler instead of the interpreter, off by
+	 * default as CHIP-8 code branches too often for the blocks to pay off on most roms
 	 */
-	private static final int SLEEP_TIME = 20;
+	public static final String BLOCK_COMPILER_PROPERTY = "chip8.blockCompiler";
 	/**
-	 * start position of the 4KB memory
+	 * system property setting the number of instructions run per second
 	 */
-	private static final int MEMORY_START = 0x0200;
+	public static final String SPEED_PROPERTY = "chip8.instructionsPerSecond";
 	/**
-	 * start position of the stack pointer
+	 * system property running the emulator as fast as possible
 	 */
-	private static final int STACK_POINTER_START = 0x01E0;
+	public static final String TURBO_PROPERTY = "chip8.turbo";
+	/**
+	 * system property setting the memory kept for rewinding, in megabytes, 0 to disable it
+	 */
+	public static final String REWIND_BUDGET_PROPERTY = "chip8.rewindMegabytes";
+	/**
+	 * default memory kept for rewinding, in megabytes
+	 */
+	public static final int DEFAULT_REWIND_BUDGET = 4;
+	/**
+	 * system property setting the number of frames run ahead, 0 to show the frames as run
+	 */
+	public static final String RUN_AHEAD_PROPERTY = "chip8.runAheadFrames";
+	/**
+	 * system property choosing how the screen is drawn, "canvas" for {@link CanvasRenderer}
+	 */
+	public static final String RENDERER_PROPERTY = "chip8.renderer";
+	/**
+	 * value of {@link #RENDERER_PROPERTY} drawing the screen with {@link CanvasRenderer}
+	 */
+	public static final String CANVAS_RENDERER = "canvas";
+	/**
+	 * system property fading pixels out on the canvas renderer
+	 */
+	public static final String PHOSPHOR_PROPERTY = "chip8.phosphor";
 	
-	//the memory, 4k in total
-	private char[] memory;
+	//the machine being run
+	private Chip8Core myCore;
 	
-    // the opcode, which is 2 bytes
-	private Integer opCode;
-
-	//16 CPU registers
-	private char[] V;
+	//the display, which also takes the keys
+	private Display myDisplay;
 	
-	//index register, from 0x000 to 0xFFF
-	private int indexRegister;
+	//draws the screen instead of the display, null when the display draws it
+	private CanvasRenderer myRenderer;
 	
-	//program counter, from 0x000 to 0xFFF
-	private int pc;
+	//shows the frames, the renderer or the display
+	private FrameSink myScreen;
 	
-	//the display
-	private Display myDisplay;
+	//paces the machine in real time
+	private Scheduler myScheduler;
 	
-	//delay timer 
-	private char delayTimer;
-
-	//sound timer
-	private char soundTimer;
-	
-	//period 
-	private int period;
-	// a full period, when periond reach this value, we refresh the timer
-	private int fullPeriod;
-	
-	//stack pointer 
-	private int sp;
-	
-	//whether a certain key has been pressed
-	private boolean[] keyPressed;
-	
-	//whether a key has been pressed during this cycle
-	private boolean isKeyPressed;
-	
-	//whether a different key has been pressed during this cycle
-	private boolean isDifferentKeyPressed;
-	
-	//the last key pressed
-	private char lastKeyPressed;
-	
-	//last different key pressed
-	private char currentKeyPressed;
-	
-	//whether the thread is running
-	private boolean isRunning;
-	
-	//main thread 
-	private Thread CPUThread;
-	
-	//random generator
-	private Random myRandom;
-	
-	//font of chip-8
-	private final char[] Font =  {
-		      0xf9,0x99,0xf2,0x62,0x27,
-		      0xf1,0xf8,0xff,0x1f,0x1f,
-		      0x99,0xf1,0x1f,0x8f,0x1f,
-		      0xf8,0xf9,0xff,0x12,0x44,
-		      0xf9,0xf9,0xff,0x9f,0x1f,
-		      0xf9,0xf9,0x9e,0x9e,0x9e,
-		      0xf8,0x88,0xfe,0x99,0x9e,
-		      0xf8,0xf8,0xff,0x8f,0x88 };
-	
-	// key map
-	private final char[] keyMap = {
-		0x01,0x02,0x03,0x0C,
-		0x04,0x05,0x06,0x0D,
-		0x07,0x08,0x09,0x0E,
-		0x0A,0x00,0x0B,0x0F };
-	
-	//inversed key map
-	private final byte[] keyUnMap = {
-		0x0D,0x00,0x01,0x02,
-		0x04,0x05,0x06,0x08,
-		0x09,0x0A,0x0C,0x0E,
-		0x03,0x07,0x0B,0x0F	};
+	//counters of the machine and the display, shown through JMX and flight recorder
+	private Metrics myMetrics;
+	
+	//plays the buzzer, null when there is no sound device
+	private AudioOutput myAudio;
+	
+	//history of the machine for rewinding, null when disabled
+	private RewindBuffer myRewindBuffer;
+	
+	//runs ahead of the machine to show its future screen, null when disabled
+	private RunAhead myRunAhead;
+	private volatile int myRunAheadFrames;
+	
+	//the roms of the rom directory, scanned once at start up
+	private RomCatalog myCatalog;
+	
+	//the rom last loaded, to restart it for a recording or a replay
+	private ByteBuffer myRom;
+	
+	//catalog entry of the rom last loaded, null if it is not in the catalog
+	private RomEntry myRomEntry;
+	
+	//records or replays the keypad, null when playing live
+	private volatile InputSource myInputLogSource;
+	
+	//what the thread is doing, changed by other threads and checked between frames
+	private final AtomicReference<RunState> runState = new AtomicReference<RunState>(RunState.STOPPED);
+	
+	//whether the next step runs a whole frame rather than one instruction
+	private volatile boolean isFrameStep;
+	
+	//main thread
+	private volatile Thread CPUThread;
+	
+	//work handed to the CPU thread, run between two frames
+	private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<Runnable>();
 	
 	public CPU() {
-		memory = new char[4096];
-		V = new char[16];
-		myRandom = new Random();
+		myCore = new Chip8Core();
 		myDisplay = new Display();
-		keyPressed = myDisplay.getPressedKeys();
+		myScreen = myDisplay;
+		myMetrics = new Metrics();
+		myDisplay.setMetrics(myMetrics);
+		if(CANVAS_RENDERER.equals(System.getProperty(RENDERER_PROPERTY))) {
+			myRenderer = new CanvasRenderer(myDisplay);
+			myRenderer.setMetrics(myMetrics);
+			myRenderer.setPhosphor(Boolean.getBoolean(PHOSPHOR_PROPERTY));
+			myScreen = myRenderer;
+		}
+		myCore.setFrameSink(myScreen);
+		myCore.setInputSource(myDisplay);
+		myCore.setMetrics(myMetrics);
+		myMetrics.register();
+		myAudio = AudioOutput.open();
+		if(myAudio != null) {
+			myAudio.setMetrics(myMetrics);
+			myCore.setAudioSink(myAudio);
+		}
+		myScheduler = new Scheduler(myCore);
+		myScheduler.setInstructionsPerSecond(
+				Integer.getInteger(SPEED_PROPERTY, Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND));
+		myScheduler.setTurbo(Boolean.getBoolean(TURBO_PROPERTY));
+		setBlockCompilation(Boolean.getBoolean(BLOCK_COMPILER_PROPERTY));
+		setRewindBudget(Integer.getInteger(REWIND_BUDGET_PROPERTY, DEFAULT_REWIND_BUDGET) << 20);
+		setRunAheadFrames(Integer.getInteger(RUN_AHEAD_PROPERTY, 0));
+		myCatalog = new RomCatalog(new File(DEFAULT_PATH));
+		myCatalog.refresh();
+		saveCatalog();
 		
 		init();
 	}
+	
+	/**
+	 * choose whether straight-line blocks are compiled to bytecode or interpreted
+	 * @param enabled true to use the block compiler
+	 */
+	public void setBlockCompilation(boolean enabled) {
+		myCore.setBlockCompilation(enabled);
+	}
+	/**
+	 * set the memory kept for rewinding; the history recorded so far is lost
+	 * @param budget number of bytes, 0 to disable rewinding
+	 */
+	public void setRewindBudget(final int budget) {
+		runBetweenFrames(new Runnable() {
+			@Override
+			public void run() {
+				myRewindBuffer = budget > 0
+						? new RewindBuffer(budget, RewindBuffer.DEFAULT_KEYFRAME_INTERVAL) : null;
+				myMetrics.rewindRecorded(0, 0);
+			}
+		});
+	}
+	
+	/**
+	 * show the screen the machine will have a number of frames from now, to hide the input
+	 * lag of the game; the machine itself runs exactly as without
+	 * @param frames number of frames to run ahead, up to {@link RunAhead#MAX_FRAMES}, 0 to
+	 *        show the screen as it is
+	 */
+	public void setRunAheadFrames(final int frames) {
+		if(frames < 0 || frames > RunAhead.MAX_FRAMES) {
+			throw new IllegalArgumentException("run ahead frames must be 0 to " + RunAhead.MAX_FRAMES + " : " + frames);
+		}
+		myRunAheadFrames = frames;
+		runBetweenFrames(new Runnable() {
+			@Override
+			public void run() {
+				if(frames == 0) {
+					myRunAhead = null;
+					myScheduler.setRunAhead(null);
+					myCore.setFrameSink(myScreen);
+					showScreen();
+					myMetrics.runAhead(0, 0);
+					return;
+				}
+				if(myRunAhead == null) {
+					myRunAhead = new RunAhead(frames, myDisplay, myScreen);
+					myScheduler.setRunAhead(myRunAhead);
+					// only the frames run ahead are shown
+					myCore.setFrameSink(null);
+				} else {
+					myRunAhead.setFrames(frames);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * @return number of frames run ahead, 0 when the screen is shown as it is
+	 */
+	public int getRunAheadFrames() {
+		return myRunAheadFrames;
+	}
+	
+	/**
+	 * show the screen of the machine, or the one it will have when running ahead
+	 */
+	private void showScreen() {
+		RunAhead runAhead = myRunAhead;
+		if(runAhead == null) {
+			myScreen.frameUpdated(myCore.getFrameBuffer(), myCore.getScreenWidth(), myCore.getScreenHeight());
+			return;
+		}
+		runAhead.run(myCore, myScheduler);
+		myMetrics.runAhead(runAhead.getFrames(), runAhead.getLastTime());
+	}
+	
 	/**
 	 * initialize all the states, pointers and other instance variables
 	 */
 	public void init() {
-		pc = MEMORY_START;
-		opCode = 0;
-		indexRegister = 0;
-		sp = STACK_POINTER_START;
-		period = 0;
-		fullPeriod = 25;
-		
-		myDisplay.clear();
-		clearVRegisters(); 
-		clearMemory(); 
-		loadFontSet();
-		
+		myScheduler.reset();
+		myCore.reset();
+		if(myRewindBuffer != null) {
+			myRewindBuffer.clear();
+		}
 	}
 	
 	/**
-	 * start the CPU thread
+	 * start the CPU thread, or resume it if it is paused
 	 */
 	public void startThread() {
 		if(CPUThread == null) {
-			isRunning = true;
-			CPUThread = new Thread(this);
+			runState.set(RunState.RUNNING);
+			CPUThread = new Thread(this, "CHIP-8 CPU");
 			CPUThread.start();
+		} else {
+			resumeThread();
 		}
 	}
 	
 	/**
-	 * suspend the thread
+	 * pause the thread at the end of the current frame
 	 */
-	public void suspendThread() {
-		CPUThread.suspend();
+	public void pauseThread() {
+		runState.compareAndSet(RunState.RUNNING, RunState.PAUSED);
 	}
+	
 	/**
-	 * resume the thread
+	 * resume the thread after a pause
 	 */
 	public void resumeThread() {
-		CPUThread.resume();
+		if(runState.compareAndSet(RunState.PAUSED, RunState.RUNNING)) {
+			wakeUp();
+		}
+	}
+	
+	/**
+	 * run one instruction, pausing first if running
+	 */
+	public void stepInstruction() {
+		step(false);
+	}
+	
+	/**
+	 * run to the end of the current frame, pausing first if running
+	 */
+	public void stepFrame() {
+		step(true);
+	}
+	
+	private void step(boolean frame) {
+		isFrameStep = frame;
+		runState.compareAndSet(RunState.RUNNING, RunState.PAUSED);
+		if(runState.compareAndSet(RunState.PAUSED, RunState.STEPPING)) {
+			wakeUp();
+		}
 	}
+	
 	/**
-	 * stop the thread
+	 * stop the thread at the end of the current frame and wait for it to end, so the
+	 * machine can be changed safely afterwards
 	 */
 	public void stopThread() {
-		isRunning = false;
+		Thread thread = CPUThread;
+		runState.set(RunState.STOPPED);
+		if(thread == null) {
+			return;
+		}
+		LockSupport.unpark(thread);
+		if(thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 		CPUThread = null;
 	}
  
 	/**
-	 * load all the fonts into memory
+	 * @return what the CPU thread is doing
 	 */
-	public void loadFontSet() {
-		for(int i=0; i<40; i++) {
-	         memory[i << 1] = (char)(Font[i] & 0xf0);
-	         memory[(i << 1) + 1] = (char)((Font[i] << 4) & 0xf0);
-	      }
+	public RunState getRunState() {
+		return runState.get();
 	}
-	/**
-	 * reset delay timer and sound timer
-	 */
-	public void resetTimers() {
-		delayTimer = '0';
-		soundTimer = '0';
+	
+	private void wakeUp() {
+		Thread thread = CPUThread;
+		if(thread != null) {
+			LockSupport.unpark(thread);
+		}
 	}
 	
 	/**
-	 * load rom file into the emulator
+	 * load rom file into the emulator, or the first rom of a zip archive, with the quirks
+	 * profile the catalog has for it
 	 * @param gameFile game file
 	 */
 	public void load(File gameFile) {
-		FileInputStream stream;
+		ByteBuffer rom;
 		try {
-			stream = new FileInputStream(gameFile);
-			int count = stream.available();
-			System.out.println("COUNT" + count);
-			for(int i = 0 ; i < count ; i++) {
-				memory[i+512] = (char)(stream.read() & 0x00FF);
-			}
+			rom = RomCatalog.read(gameFile);
 		} catch (IOException e) {
 			e.printStackTrace();
+			return;
+		}
+		RomEntry entry = myCatalog.find(gameFile);
+		myCore.setQuirks(entry != null ? entry.getQuirks() : RomCatalog.detectQuirks(rom));
+		myCore.load(rom);
+		myCore.prepare(RomAnalyzer.analyze(rom, myCore.getQuirks()));
+		myRom = rom;
+		myRomEntry = entry;
+		if(entry != null) {
+			myCatalog.markPlayed(entry, System.currentTimeMillis());
+			saveCatalog();
 		}
-		
 	}
 	/**
 	 * load rom file based on name
@@ -216,363 +355,322 @@ public class CPU implements Runnable{
 		load(gameFile);
 	}
 	
-	//run emulator
-	public void execute() {
-		emulateCycle();
-		
-		updateOpCode();
-		
-		isKeyPressed = false;
-		isDifferentKeyPressed = false;
-		
-		for(int i=0 ; i<16 ; i++) {
-			if(keyPressed[i]) {
-				currentKeyPressed = keyMap[i];
-				isKeyPressed = true;
-			}
-		}
-		
-		if(isKeyPressed) {
-			if(currentKeyPressed != lastKeyPressed) {
-				lastKeyPressed = currentKeyPressed;
-				isDifferentKeyPressed = true;
-			}
+	
+	/**
+	 * run a task while the machine is between two frames: on the CPU thread if there is
+	 * one, even paused, right away otherwise
+	 * @param task the task to run
+	 */
+	public void runBetweenFrames(Runnable task) {
+		if(CPUThread == null) {
+			task.run();
 		} else {
-			lastKeyPressed = 0xFF;
+			pendingTasks.add(task);
+			wakeUp();
 		}
-		
-		refreshTimer();
-		
 	}
 	
-	public void updateOpCode() {
-		opCode = (memory[pc] << 8 | memory[pc + 1]) & 0xFFFF;
+	/**
+	 * restart the loaded rom and record the keypad until {@link #stopRecording(File)}
+	 */
+	public void startRecording() {
+		runBetweenFrames(new Runnable() {
+			@Override
+			public void run() {
+				long seed = System.nanoTime();
+				restart(seed);
+				InputLog log = new InputLog(seed, myScheduler.getInstructionsPerSecond(), myCore.getQuirks());
+				myInputLogSource = new RecordingInputSource(myDisplay, myCore, log);
+				myCore.setInputSource(myInputLogSource);
+			}
+		});
 	}
 	
-	public void emulateCycle() {
-		
-		char opCode1 = (char)((opCode & 0xF000) >> 12);
-		char opCode2 = (char)((opCode & 0x0F00) >> 8);
-		char opCode3 = (char)((opCode & 0x00F0) >> 4);
-		char opCode4 = (char)(opCode & 0x000F);
-		
-		switch(opCode1) {
-		case 0x0:{
-			switch(opCode3) {
-			case 0xE:
-				switch(opCode4) {
-				    case 0x0: {
-					    myDisplay.clear();
-					    pc += 2;
-					    break;
-				    }
-				    
-				    case 0xE: {
-				    	pc = memory[sp]<<8;
-                        sp = sp+1;
-                        pc = pc + memory[sp];
-                        sp = sp+1;
-                        pc += 2;
-                        break;
-				    }	
+	/**
+	 * stop recording the keypad and write the log
+	 * @param logFile the file to write
+	 */
+	public void stopRecording(final File logFile) {
+		runBetweenFrames(new Runnable() {
+			@Override
+			public void run() {
+				if(!(myInputLogSource instanceof RecordingInputSource)) {
+					return;
+				}
+				InputLog log = ((RecordingInputSource)myInputLogSource).getLog();
+				log.finish(myCore);
+				stopInputLog();
+				try {
+					log.write(logFile);
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
 			}
-			break;
-		}
-		
-		case 0x1: {
-			pc = opCode & 0x0FFF;
-			break;
-		}	
-		case 0x2: {
-			sp = sp-1;
-            memory[sp] = (char)(pc & 0x00FF);
-            sp = sp-1;
-            memory[sp] = (char)(pc >> 8);
-            // jump
-            pc = (opCode & 0x0FFF);
-            break;
-		}    
-			
-		case 0x3: {
-            if(V[opCode2] == getLower(opCode)) pc += 2;
-            pc += 2;
-		    break;
-		}
-		
-		case 0x4: {
-			if(V[opCode2] != getLower(opCode)) pc += 2;
-            pc += 2;
-            System.out.println("PC : " + Integer.toHexString(pc));
-		    break;
-		}
-		
-		case 0x5: {
-			if(V[opCode2] == V[opCode3]) pc += 2;
-			pc += 2;
-			break;
-		}
-		
-		case 0x6: {
-			V[opCode2] = (char)getLower(opCode);
-			pc += 2;
-			break;
-		}
-		
-		case 0x7: {
-			V[opCode2] = (char)((V[opCode2] + getLower(opCode)) & 0x00FF);
-			pc += 2;
-			break;
+		});
+	}
+	
+	/**
+	 * restart the loaded rom and play a recorded keypad back, the live keypad takes over
+	 * at the end of the recording
+	 * @param logFile the input log to replay
+	 */
+	public void replay(File logFile) {
+		final InputLog log;
+		try {
+			log = InputLog.read(logFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
 		}
-			
-		case 0x8: {
-			switch(opCode4) {
-			
-			case 0x0: {
-				V[opCode2] = V[opCode3];
-				break;
-			}
-			
-			case 0x1: {
-				V[opCode2] = (char)(V[opCode2] | V[opCode3]);
-				break;
-			}
-			
-			case 0x2: {
-				V[opCode2] = (char)(V[opCode2] & V[opCode3]);
-				break;
-			}
-			
-			case 0x3: {
-				V[opCode2] = (char)(V[opCode2] ^ V[opCode3]);	
-				break;
-			}
-			
-			case 0x4: {
-				int sum = V[opCode2] + V[opCode3];
-				V[opCode2] = (char)(sum & 0x00FF);
-				V[15] = (char)((sum & 0x0F00) >> 8);
-				break;
-			}
-				
-			case 0x5: {
-				V[15] = (char)(((V[opCode2] - V[opCode3]) >= 0) ? 0x01:0x00);
-				V[opCode2] = (char)((V[opCode2] - V[opCode3]) & 0x00FF);
-				break;
-			}
-				
-			case 0x6: {
-				V[15] = (char)(((V[opCode2]&0x000F) > 0)? 0x01 : 0x00);
-				V[opCode2] >>=1;
-				break;	
-			}
-			
-			case 0x7: {
-				V[15] = (char)(((V[opCode3] - V[opCode2]) >= 0) ? 0x01:0x00);
-				V[opCode2] = (char)(V[opCode3] - V[opCode2]);
-				break;
-			}
-				
-			case 0xE: {
-				V[15] = (char)(((V[opCode2]>>7) > 0)? 0x01 : 0x00);
-				V[opCode2] = (char)((V[opCode2] << 1) & 0x00FF);
-				break;
-			}
-			
-			default: break;
+		runBetweenFrames(new Runnable() {
+			@Override
+			public void run() {
+				myScheduler.setInstructionsPerSecond(log.getInstructionsPerSecond());
+				myCore.setQuirks(log.getQuirks());
+				restart(log.getSeed());
+				myInputLogSource = new ReplayInputSource(log, myCore, myDisplay);
+				myCore.setInputSource(myInputLogSource);
 			}
-			pc += 2;
-			break;
-		}
-		
-		case 0x9: {
-			if(V[opCode2] != V[opCode3]) pc += 2;
-			pc += 2;
-			break;
-		}
-		
-		case 0xA: {
-			indexRegister = opCode & 0x0FFF;
-			pc += 2;
-			break;
+		});
+	}
+	
+	private void stopInputLog() {
+		myInputLogSource = null;
+		myCore.setInputSource(myDisplay);
+	}
+	
+	/**
+	 * put the machine back to the start of the loaded rom with a known seed
+	 */
+	private void restart(long seed) {
+		stopInputLog();
+		myCore.setSeed(seed);
+		init();
+		if(myRom != null) {
+			myCore.load(myRom);
+			myCore.prepare(RomAnalyzer.analyze(myRom, myCore.getQuirks()));
 		}
-		
-		case 0xB: {
-			pc = (opCode & 0x0FFF + V[0]) & 0x0FFF;
-		    break;
-		}	
-		case 0xC: {
-			V[opCode2] = (char)((opCode & 0x00FF) & (myRandom.nextInt(0xFFFF) & 0x00FF)); 
-		    pc += 2;
-			break;
-		}	
-		case 0xD: {
-			int x = V[opCode2];
-			int y = V[opCode3];
-			int height = opCode4;
-			boolean isFlipped = false;
-			
-			for(int i =0 ; i < height; i++) {
-				myDisplay.draw8Bit(x, y + i, memory[indexRegister + i], isFlipped);
+	}
+	
+	/**
+	 * run the loaded rom with another quirks profile from now on, and remember it in the
+	 * catalog
+	 * @param quirks the profile
+	 */
+	public void setQuirks(final QuirksProfile quirks) {
+		runBetweenFrames(new Runnable() {
+			@Override
+			public void run() {
+				myCore.setQuirks(quirks);
+				if(myRomEntry != null) {
+					myCatalog.setQuirks(myRomEntry, quirks);
+					saveCatalog();
+				}
 			}
-			myDisplay.repaint();
-			V[15] = (char)(isFlipped ? 0x01 : 0x00);
-			pc += 2;
-			break;
+		});
+	}
+	
+	/**
+	 * @return the quirks profile the machine runs with
+	 */
+	public QuirksProfile getQuirks() {
+		return myCore.getQuirks();
+	}
+	
+	private void saveCatalog() {
+		try {
+			myCatalog.save();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		
-		case 0xE: {
-			
-			switch(getLower(opCode)) {
-			case 0x9E: {
-				if(keyPressed[keyUnMap[V[opCode2]]]) {
-					pc += 2;
+	}
+	
+	/**
+	 * save the state of the machine to a file
+	 * @param stateFile the file to write
+	 */
+	public void saveState(final File stateFile) {
+		runBetweenFrames(new Runnable() {
+			@Override
+			public void run() {
+				Snapshot snapshot = new Snapshot();
+				myCore.saveState(snapshot);
+				try {
+					snapshot.write(stateFile);
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
-				break;	
 			}
-			
-			case 0xA1: {
-				if(!keyPressed[keyUnMap[V[opCode2]]]) {
-					pc += 2;
+		});
+	}
+	
+	/**
+	 * put the machine back in a state saved to a file, with the quirks profile it was
+	 * saved with; refused while recording or replaying, as the input log would no longer
+	 * match the instruction count of the machine
+	 * @param stateFile the file to read
+	 */
+	public void loadState(final File stateFile) {
+		runBetweenFrames(new Runnable() {
+			@Override
+			public void run() {
+				if(myInputLogSource != null) {
+					return;
 				}
-				break;
-			}
-			
-			}
-			pc += 2;
-			break;
-		}
-		
-		case 0xF: {
-			switch(getLower(opCode)) {
-			
-			case 0x07: {
-				V[opCode2] = (char)delayTimer;
-				pc += 2;
-				break;
-			}
-				
-			case 0x0A: {
-				if(isDifferentKeyPressed) {
-					V[opCode2] = (char)currentKeyPressed;
-					pc += 2;
+				Snapshot snapshot = new Snapshot();
+				try {
+					snapshot.read(stateFile);
+					myCore.restoreState(snapshot);
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
-				break;
-			}
-				
-			case 0x15: {
-				delayTimer = V[opCode2];
-				pc += 2;
-				break;
-			}
-			
-			case 0x18: {
-				soundTimer = V[opCode2];
-				pc += 2;
-				break;
-			}
-				
-			case 0x1E: {
-				/**
-				 *  VF is set to 1 when range overflow (I+VX>0xFFF), and 0 when there isn't.
-				 *  This is undocumented feature of the Chip-8 and used by Spacefight 2019! game.
-				 *  see wikipedia: http://en.wikipedia.org/wiki/CHIP-8
-				 */
-				
-				//V[15] = (char)((indexRegister + V[opCode2]) > 0x0FFF ? 0x01 : 0x00); 
-				indexRegister = (indexRegister +  V[opCode2]) & 0x0FFF;
-				pc += 2;
-				break;
-			}
-			
-			case 0x29: {
-				indexRegister = (V[opCode2] & 0x0F) * 5;
-				pc += 2;
-				break;
-			}
-			case 0x33: {
-				memory[indexRegister] = (char)(V[opCode2] / 100);
-				memory[indexRegister + 1] = (char)((V[opCode2] / 10) % 10);
-				memory[indexRegister + 2] = (char)(V[opCode2] % 10);
-				pc += 2;
-				break;
-			}
-				
-			case 0x55: {
-			    for(int i = 0, j = opCode2; i <= j ; i++) {
-			    	memory[indexRegister + i] = V[i];
-			    }
-			    pc += 2;
-			    break;
 			}
-				
-			case 0x65: {
-				for(int i = 0, j = opCode2; i <= j ; i++) {
-			        V[i] = memory[indexRegister + i];
-			    }
-			    pc += 2;
-			    break;
-			}
-		    }
-		    break;	
-		
-	    }
-			
-		default : {
-			System.out.println("Unknown Code");
-			break;
-		}
-		}
-		
+		});
 	}
 	
-	public void refreshTimer() {
-		period ++;
-		
-		if(period == fullPeriod) {
-			period = 0;
-			
-			if(delayTimer > 0) {
-				delayTimer --;
-			}
-			if(soundTimer > 0) {
-				if(soundTimer == 1) soundTimer --;
-			}
-			
-			try {
-				CPUThread.sleep(SLEEP_TIME);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
+	/**
+	 * @return whether input is being recorded or replayed, during which no state is loaded
+	 */
+	public boolean isInputLogActive() {
+		return myInputLogSource != null;
 	}
-
 	
+	/**
+	 * @return the roms of the rom directory
+	 */
+	public RomCatalog getCatalog() {
+		return myCatalog;
+	}
 	
-	private int getLower(int opCode) {
-		return opCode & 0x00FF;
+	public Display getCanvas() {
+		return myDisplay;
 	}
 	
-	public void clearVRegisters() {
-		for(int i = 0 ; i < 16 ; i++) {
-			V[i] = 0;
-		}
+	/**
+	 * @return the component showing the screen, the canvas renderer or the display
+	 */
+	public Component getScreen() {
+		return myRenderer != null ? myRenderer : myDisplay;
 	}
 	
-	public void clearMemory() {
-		for(int i =0 ; i < 4096 ; i++) {
-			memory[i] = 0;
-		}
+	/**
+	 * @return the canvas renderer, null when the display draws the screen
+	 */
+	public CanvasRenderer getRenderer() {
+		return myRenderer;
 	}
 	
-	public Display getCanvas() {
-		return myDisplay;
+	/**
+	 * @return the machine run by this CPU
+	 */
+	public Chip8Core getCore() {
+		return myCore;
 	}
-
+	
+	/**
+	 * @return the scheduler pacing the machine
+	 */
+	public Scheduler getScheduler() {
+		return myScheduler;
+	}
+	
+	/**
+	 * @return the counters of the machine and the display
+	 */
+	public Metrics getMetrics() {
+		return myMetrics;
+	}
+	
+	/**
+	 * @return the audio output, null when there is no sound device
+	 */
+	public AudioOutput getAudio() {
+		return myAudio;
+	}
+	
+	/**
+	 * @param visible true to show the metrics over the screen
+	 */
+	public void setMetricsOverlayVisible(boolean visible) {
+		myDisplay.setOverlayVisible(visible);
+	}
+	
+	/**
+	 * @return the rewind history, whose toString reports its bytes per frame, or null
+	 * when rewinding is disabled
+	 */
+	public RewindBuffer getRewindBuffer() {
+		return myRewindBuffer;
+	}
+	
 	@Override
 	public void run() {
-		while(isRunning) {
-			execute();
+		myScheduler.reset();
+		boolean wasPaused = false;
+		while(true) {
+			Runnable task;
+			boolean hasRunTasks = false;
+			while((task = pendingTasks.poll()) != null) {
+				task.run();
+				hasRunTasks = true;
+			}
+			// a task may have changed the machine, or turned running ahead on
+			if(hasRunTasks && myRunAhead != null) {
+				showScreen();
+			}
+			
+			RunState state = runState.get();
+			if(state == RunState.STOPPED) {
+				break;
+			}
+			if(state == RunState.PAUSED) {
+				// woken by a state change or a task, spurious wake ups just loop
+				wasPaused = true;
+				LockSupport.park(this);
+				continue;
+			}
+			if(state == RunState.STEPPING) {
+				if(isFrameStep) {
+					myScheduler.runFrames(1);
+				} else {
+					myScheduler.runInstructions(1);
+					if(myRunAhead != null) {
+						showScreen();
+					}
+				}
+				runState.compareAndSet(RunState.STEPPING, RunState.PAUSED);
+				continue;
+			}
+			if(wasPaused) {
+				wasPaused = false;
+				myScheduler.restartClock();
+			}
+			
+			RewindBuffer rewindBuffer = myRewindBuffer;
+			// rewinding during a recording or a replay would break its instruction count
+			if(rewindBuffer != null && myInputLogSource == null && myDisplay.isRewindHeld()) {
+				rewindBuffer.stepBack(myCore);
+				myMetrics.rewindRecorded(rewindBuffer.getSeconds(), rewindBuffer.getBytesPerFrame());
+				if(myRunAhead != null) {
+					// going back in time shows the past as it was
+					myScreen.frameUpdated(myCore.getFrameBuffer(), myCore.getScreenWidth(), myCore.getScreenHeight());
+				}
+				myScheduler.idleFrame();
+			} else {
+				myScheduler.runFrame();
+				if(rewindBuffer != null) {
+					rewindBuffer.record(myCore);
+					myMetrics.rewindRecorded(rewindBuffer.getSeconds(), rewindBuffer.getBytesPerFrame());
+				}
+				if(myRunAhead != null) {
+					// the scheduler ran ahead at the end of the frame
+					myMetrics.runAhead(myRunAhead.getFrames(), myRunAhead.getLastTime());
+				}
+				if(myInputLogSource instanceof ReplayInputSource
+						&& ((ReplayInputSource)myInputLogSource).isFinished()) {
+					stopInputLog();
+				}
+			}
 		}
 	}
 }
@@ -0,0 +1,431 @@
+package hardware;
+
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shows the screen on a heavyweight canvas drawn by a thread of its own, for any window
+ * size up to full screen.
+ *
+ * Each frame is turned into one int raster of a pixel per screen pixel, uploaded into a
+ * VolatileImage in video memory and scaled from there onto the back buffer of a
+ * BufferStrategy by nearest neighbor, so the work done per frame does not grow with the
+ * window. The screen keeps its 2:1 shape, scaled by a whole number when the window is
+ * large enough so that every pixel is as wide as the others, with black bars around it.
+ *
+ * The drawing thread is paced by a timer at the refresh rate the monitor reports, and
+ * sleeps while the screen does not change. This is not synchronized with the vertical
+ * blank, which Java2D offers no public way to wait for: a flip lands anywhere in the
+ * scan and may tear, the pacing only keeps the canvas from being drawn more often than
+ * the monitor shows it.
+ *
+ * With the phosphor on, a pixel turned off fades out over a few refreshes instead of at
+ * once, as on a CRT, which hides the flicker of sprites erased and drawn again every
+ * frame.
+ *
+ * @author Richard Yang
+ *
+ */
+public class CanvasRenderer extends Canvas implements FrameSink {
+	
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -2712450903172218846L;
+	
+	/**
+	 * buffers of the buffer strategy, triple buffering falls back to double where it is
+	 * not available
+	 */
+	public static final int BUFFER_COUNT = 3;
+	
+	/**
+	 * refresh rate assumed when the monitor does not report one
+	 */
+	public static final int DEFAULT_REFRESH_RATE = 60;
+	
+	/**
+	 * part of the distance to the background a fading pixel still has after a refresh,
+	 * in 256ths; a pixel off for one frame keeps more than half of its color
+	 */
+	private static final int PHOSPHOR_PERSISTENCE = 160;
+	
+	private static final Color BORDER_COLOR = Color.BLACK;
+	
+	//latest framebuffer and screen size from the emulation thread, guarded by pendingPixels
+	private final long[] pendingPixels;
+	private int pendingWidth;
+	private int pendingHeight;
+	
+	//whether pendingPixels changed since the last refresh
+	private volatile boolean isDirty;
+	
+	//framebuffer being shown, and its screen size
+	private final long[] myPixels;
+	private int myWidth;
+	private int myHeight;
+	
+	//color of each pixel of the frame, and the color shown, which differs while fading;
+	//both one row of HIRES_SCREEN_WIDTH pixels per screen row
+	private final int[] targetPixels;
+	private final BufferedImage rasterImage;
+	private final int[] rasterPixels;
+	
+	//copy of the raster in video memory, scaled onto the back buffer
+	private VolatileImage screenImage;
+	
+	//whether some pixel is still fading out
+	private boolean isFading;
+	
+	private volatile boolean isPhosphorEnabled;
+	
+	//whether the window asked for the canvas to be drawn again
+	private volatile boolean isExposed;
+	
+	//size of the canvas when it was last drawn
+	private int renderedWidth;
+	private int renderedHeight;
+	
+	//time between two refreshes of the monitor, in nanoseconds, the pace of the drawing thread
+	private long refreshPeriod;
+	
+	//draws the canvas, null while the canvas is not shown
+	private volatile Thread renderThread;
+	
+	//held while drawing, so that the canvas is not taken off the screen meanwhile
+	private final Object renderLock = new Object();
+	
+	//the graphics configuration of the canvas when it was shown; the drawing thread does
+	//not ask for it as that takes the tree lock
+	private GraphicsConfiguration myConfiguration;
+	
+	//draws the metrics over the screen and takes the keys, null for neither
+	private final Display overlay;
+	
+	//counts the frames drawn, null for none
+	private Metrics myMetrics;
+	
+	/**
+	 * @param overlay draws the metrics over the screen when asked to, and takes the keypad
+	 *        keys; null for neither
+	 */
+	public CanvasRenderer(Display overlay) {
+		super();
+		this.overlay = overlay;
+		pendingPixels = new long[Chip8Core.FRAME_BUFFER_SIZE];
+		pendingWidth = Chip8Core.SCREEN_WIDTH;
+		pendingHeight = Chip8Core.SCREEN_HEIGHT;
+		myPixels = new long[Chip8Core.FRAME_BUFFER_SIZE];
+		myWidth = Chip8Core.SCREEN_WIDTH;
+		myHeight = Chip8Core.SCREEN_HEIGHT;
+		rasterImage = new BufferedImage(Chip8Core.HIRES_SCREEN_WIDTH, Chip8Core.HIRES_SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		rasterPixels = ((DataBufferInt)rasterImage.getRaster().getDataBuffer()).getData();
+		targetPixels = new int[rasterPixels.length];
+		Arrays.fill(rasterPixels, Display.PLANE_COLORS[0]);
+		Arrays.fill(targetPixels, Display.PLANE_COLORS[0]);
+		refreshPeriod = 1000000000L / DEFAULT_REFRESH_RATE;
+		
+		setPreferredSize(new Dimension(Display.SCREEN_WIDTH * Display.PIXEL_WIDTH,
+				Display.SCREEN_HEIGHT * Display.PIXEL_HEIGHT));
+		setBackground(BORDER_COLOR);
+		setFocusable(true);
+		if(overlay != null) {
+			overlay.listenTo(this);
+		}
+	}
+	
+	/**
+	 * @param metrics counts the frames drawn; null for none
+	 */
+	public void setMetrics(Metrics metrics) {
+		myMetrics = metrics;
+	}
+	
+	/**
+	 * @param enabled true to fade pixels out over a few refreshes instead of at once
+	 */
+	public void setPhosphor(boolean enabled) {
+		isPhosphorEnabled = enabled;
+		wakeUp();
+	}
+	
+	public boolean isPhosphorEnabled() {
+		return isPhosphorEnabled;
+	}
+	
+	/**
+	 * only copies the framebuffer, the drawing thread shows it at the next refresh
+	 */
+	@Override
+	public void frameUpdated(long[] frameBuffer, int width, int height) {
+		synchronized(pendingPixels) {
+			System.arraycopy(frameBuffer, 0, pendingPixels, 0, Chip8Core.FRAME_BUFFER_SIZE);
+			pendingWidth = width;
+			pendingHeight = height;
+			isDirty = true;
+		}
+		wakeUp();
+	}
+	
+	/**
+	 * the window was uncovered or resized, draw it again from the drawing thread
+	 */
+	@Override
+	public void paint(Graphics g) {
+		isExposed = true;
+		wakeUp();
+	}
+	
+	@Override
+	public void update(Graphics g) {
+		paint(g);
+	}
+	
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		createBufferStrategy(BUFFER_COUNT);
+		myConfiguration = getGraphicsConfiguration();
+		int refreshRate = myConfiguration != null
+				? myConfiguration.getDevice().getDisplayMode().getRefreshRate() : DisplayMode.REFRESH_RATE_UNKNOWN;
+		refreshPeriod = 1000000000L / (refreshRate > 0 ? refreshRate : DEFAULT_REFRESH_RATE);
+		isExposed = true;
+		
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				renderLoop();
+			}
+		}, "CHIP-8 Renderer");
+		thread.setDaemon(true);
+		renderThread = thread;
+		thread.start();
+	}
+	
+	@Override
+	public void removeNotify() {
+		// the drawing thread stops before the buffers go away
+		synchronized(renderLock) {
+			Thread thread = renderThread;
+			renderThread = null;
+			if(thread != null) {
+				LockSupport.unpark(thread);
+			}
+			if(screenImage != null) {
+				screenImage.flush();
+				screenImage = null;
+			}
+		}
+		super.removeNotify();
+	}
+	
+	private void wakeUp() {
+		Thread thread = renderThread;
+		if(thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+	
+	/**
+	 * draw at most once per refresh period while there is something new to show, sleep
+	 * otherwise
+	 */
+	private void renderLoop() {
+		Thread self = Thread.currentThread();
+		long nextRefresh = System.nanoTime();
+		while(renderThread == self) {
+			long now = System.nanoTime();
+			if(now - nextRefresh < 0) {
+				// a frame arriving early waits for the refresh
+				LockSupport.parkNanos(this, nextRefresh - now);
+				continue;
+			}
+			if(!hasChanged()) {
+				// woken by a frame, a resize or the window being uncovered
+				LockSupport.park(this);
+				nextRefresh = System.nanoTime();
+				continue;
+			}
+			synchronized(renderLock) {
+				if(renderThread == self) {
+					render();
+				}
+			}
+			nextRefresh = Math.max(nextRefresh + refreshPeriod, now);
+		}
+	}
+	
+	/**
+	 * @return whether the canvas shows something else than when it was last drawn
+	 */
+	private boolean hasChanged() {
+		return isDirty || isFading || isExposed || getWidth() != renderedWidth || getHeight() != renderedHeight
+				|| (overlay != null && overlay.isOverlayShown());
+	}
+	
+	/**
+	 * bring the raster up to date and show it, on the drawing thread
+	 */
+	private void render() {
+		long start = System.nanoTime();
+		takeFrame();
+		updateRaster();
+		
+		BufferStrategy strategy = getBufferStrategy();
+		int width = getWidth();
+		int height = getHeight();
+		if(strategy == null || width <= 0 || height <= 0) {
+			return;
+		}
+		isExposed = false;
+		renderedWidth = width;
+		renderedHeight = height;
+		do {
+			do {
+				Graphics2D g = (Graphics2D)strategy.getDrawGraphics();
+				try {
+					draw(g, width, height);
+				} finally {
+					g.dispose();
+				}
+			} while(strategy.contentsRestored());
+			strategy.show();
+		} while(strategy.contentsLost());
+		Toolkit.getDefaultToolkit().sync();
+		
+		if(myMetrics != null) {
+			myMetrics.framePainted(System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * take the pending framebuffer and work out the color of every pixel
+	 */
+	private void takeFrame() {
+		if(!isDirty) {
+			return;
+		}
+		synchronized(pendingPixels) {
+			isDirty = false;
+			System.arraycopy(pendingPixels, 0, myPixels, 0, Chip8Core.FRAME_BUFFER_SIZE);
+			if(pendingWidth != myWidth || pendingHeight != myHeight) {
+				myWidth = pendingWidth;
+				myHeight = pendingHeight;
+				// the old picture does not fade into one of another resolution
+				Arrays.fill(rasterPixels, Display.PLANE_COLORS[0]);
+			}
+		}
+		int words = myWidth / 64;
+		for(int row = 0 ; row < myHeight ; row++) {
+			int rowStart = row * Chip8Core.HIRES_SCREEN_WIDTH;
+			for(int word = 0 ; word < words ; word++) {
+				long first = myPixels[Chip8Core.rowIndex(0, row) + word];
+				long second = myPixels[Chip8Core.rowIndex(1, row) + word];
+				for(int bit = 0 ; bit < 64 ; bit++) {
+					int color = (int)((first << bit) >>> 63) | (int)((second << bit) >>> 63) << 1;
+					targetPixels[rowStart + word * 64 + bit] = Display.PLANE_COLORS[color];
+				}
+			}
+		}
+		isFading = true;
+	}
+	
+	/**
+	 * move the colors shown toward the colors of the frame, at once or fading out
+	 */
+	private void updateRaster() {
+		if(!isFading) {
+			return;
+		}
+		boolean isPhosphor = isPhosphorEnabled;
+		boolean hasFading = false;
+		for(int row = 0 ; row < myHeight ; row++) {
+			int rowStart = row * Chip8Core.HIRES_SCREEN_WIDTH;
+			for(int i = rowStart ; i < rowStart + myWidth ; i++) {
+				int target = targetPixels[i];
+				int shown = rasterPixels[i];
+				if(shown == target) {
+					continue;
+				}
+				// a pixel lights up at once, only going dark fades
+				if(!isPhosphor || target != Display.PLANE_COLORS[0]) {
+					rasterPixels[i] = target;
+					continue;
+				}
+				shown = fade(shown, target);
+				rasterPixels[i] = shown;
+				hasFading |= shown != target;
+			}
+		}
+		isFading = hasFading;
+	}
+	
+	/**
+	 * @return the color PHOSPHOR_PERSISTENCE / 256 of the way from the target to the shown one
+	 */
+	private static int fade(int shown, int target) {
+		int color = 0;
+		for(int shift = 0 ; shift < 24 ; shift += 8) {
+			int from = (shown >> shift) & 0xFF;
+			int to = (target >> shift) & 0xFF;
+			// division rounds toward the target, so the pixel gets there
+			color |= (to + (from - to) * PHOSPHOR_PERSISTENCE / 256) << shift;
+		}
+		return color | (target & 0xFF000000);
+	}
+	
+	/**
+	 * upload the raster and scale it onto the back buffer
+	 */
+	private void draw(Graphics2D g, int width, int height) {
+		if(screenImage == null || screenImage.getWidth() != myWidth || screenImage.getHeight() != myHeight
+				|| screenImage.validate(myConfiguration) == VolatileImage.IMAGE_INCOMPATIBLE) {
+			if(screenImage != null) {
+				screenImage.flush();
+			}
+			screenImage = createVolatileImage(myWidth, myHeight);
+		}
+		Graphics2D imageGraphics = screenImage.createGraphics();
+		try {
+			imageGraphics.drawImage(rasterImage, 0, 0, myWidth, myHeight, 0, 0, myWidth, myHeight, null);
+		} finally {
+			imageGraphics.dispose();
+		}
+		
+		// whole pixels when they fit, so that none is wider than another
+		double scale = Math.min((double)width / myWidth, (double)height / myHeight);
+		if(scale >= 1) {
+			scale = Math.floor(scale);
+		}
+		int screenWidth = (int)(myWidth * scale);
+		int screenHeight = (int)(myHeight * scale);
+		int left = (width - screenWidth) / 2;
+		int top = (height - screenHeight) / 2;
+		
+		g.setColor(BORDER_COLOR);
+		g.fillRect(0, 0, width, height);
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		// a surface lost since the upload is drawn from the raster this time
+		if(screenImage.contentsLost()) {
+			g.drawImage(rasterImage, left, top, left + screenWidth, top + screenHeight, 0, 0, myWidth, myHeight, null);
+		} else {
+			g.drawImage(screenImage, left, top, screenWidth, screenHeight, null);
+		}
+		if(overlay != null && overlay.isOverlayShown()) {
+			overlay.paintOverlay(g);
+		}
+	}
+}
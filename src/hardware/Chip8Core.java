@@ -0,0 +1,1669 @@
+package hardware;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The CHIP-8 machine itself: memory, registers, timers and the framebuffer.
+ *
+ * It knows nothing about Swing or threads, draws into a packed framebuffer
+ * handed to a {@link FrameSink} and reads the keypad from an {@link InputSource},
+ * so it can run headless. Executing an instruction does not allocate.
+ *
+ * @author Richard Yang
+ *
+ */
+public class Chip8Core {
+	/**
+	 * size of the memory, the 64 KB of XO-CHIP; other profiles only address the first 4 KB
+	 */
+	public static final int MEMORY_SIZE = 0x10000;
+	/**
+	 * start position of the 4KB memory
+	 */
+	public static final int MEMORY_START = 0x0200;
+	/**
+	 * largest rom that fits in memory after {@link #MEMORY_START}, with the XO-CHIP profile
+	 */
+	public static final int MAX_ROM_SIZE = MEMORY_SIZE - MEMORY_START;
+	/**
+	 * start position of the stack pointer
+	 */
+	private static final int STACK_POINTER_START = 0x01E0;
+	
+	/**
+	 * size of the low resolution screen
+	 */
+	public static final int SCREEN_WIDTH = 64;
+	public static final int SCREEN_HEIGHT = 32;
+	/**
+	 * size of the SUPER-CHIP high resolution screen
+	 */
+	public static final int HIRES_SCREEN_WIDTH = 128;
+	public static final int HIRES_SCREEN_HEIGHT = 64;
+	/**
+	 * number of bitplanes, the second one is only drawn by XO-CHIP
+	 */
+	public static final int PLANE_COUNT = 2;
+	/**
+	 * longs per framebuffer row, enough for the high resolution width
+	 */
+	public static final int ROW_WORDS = HIRES_SCREEN_WIDTH / 64;
+	/**
+	 * size of the framebuffer, in longs
+	 */
+	public static final int FRAME_BUFFER_SIZE = PLANE_COUNT * HIRES_SCREEN_HEIGHT * ROW_WORDS;
+	/**
+	 * number of RPL flags saved by FX75, 8 on SUPER-CHIP and 16 on XO-CHIP
+	 */
+	public static final int FLAG_COUNT = 16;
+	/**
+	 * size of the XO-CHIP audio pattern buffer, 128 one bit samples
+	 */
+	public static final int AUDIO_PATTERN_SIZE = 16;
+	/**
+	 * pitch register value playing the audio pattern at 4000 samples per second
+	 */
+	public static final int DEFAULT_PITCH = 64;
+	/**
+	 * start position of the big font, right after the small one
+	 */
+	private static final int BIG_FONT_START = 80;
+	
+	/**
+	 * frame sink used until one is set
+	 */
+	private static final FrameSink NO_FRAME_SINK = new FrameSink() {
+		@Override
+		public void frameUpdated(long[] frameBuffer, int width, int height) {
+		}
+	};
+	/**
+	 * audio sink used until one is set, the machine is silent
+	 */
+	private static final AudioSink NO_AUDIO_SINK = new AudioSink() {
+		@Override
+		public void audioFrame(boolean isSounding, byte[] pattern, int pitch) {
+		}
+	};
+	/**
+	 * input source used until one is set, no key is ever pressed
+	 */
+	private static final InputSource NO_INPUT_SOURCE = new InputSource() {
+		@Override
+		public int getKeyState() {
+			return 0;
+		}
+		
+		@Override
+		public int pollKeyEvent() {
+			return -1;
+		}
+		
+		@Override
+		public long nextInputCount(long count) {
+			return Long.MAX_VALUE;
+		}
+	};
+	
+	//the memory, 4k in total
+	private byte[] memory;
+	
+	//decoded instruction cache, indexed by address, OP_NONE when not decoded yet
+	byte[] handlers;
+	
+	//X and Y register operands of the decoded instructions
+	byte[] operandX;
+	byte[] operandY;
+	
+	//N, NN or NNN operand of the decoded instructions
+	short[] operandImmediate;
+	
+	//16 CPU registers
+	private byte[] V;
+	
+	//index register, from 0x000 to 0xFFF
+	private int indexRegister;
+	
+	//program counter, from 0x000 to 0xFFF
+	private int pc;
+	
+	//stack pointer
+	private int sp;
+	
+	//delay timer
+	private int delayTimer;
+	
+	//sound timer
+	private int soundTimer;
+	
+	//ROW_WORDS longs per row, see rowIndex, the leftmost pixel in the highest bit
+	private long[] frameBuffer;
+	
+	//size of the screen in the current mode
+	private int screenWidth;
+	private int screenHeight;
+	
+	//bitplanes drawn, cleared and scrolled, bit p for plane p
+	private int planeMask;
+	
+	//whether sprites crossing an edge wrap to the other side instead of being clipped
+	private boolean isWrapping;
+	
+	//interpreter behaviors of the rom, applied when instructions are decoded
+	private QuirksProfile quirks;
+	
+	//addresses I can hold and the registers are loaded from, set by the quirks profile
+	private int indexMask;
+	
+	//whether skips step over the whole of a 4 byte F000 NNNN, set by the quirks profile
+	private boolean isSkippingLongLoads;
+	
+	//RPL user flags, kept across resets like on the HP48
+	private byte[] flags;
+	
+	//XO-CHIP audio pattern and the pitch it is played at
+	private byte[] audioPattern;
+	private int pitch;
+	
+	//receives the framebuffer whenever it changes
+	private FrameSink frameSink;
+	
+	//receives the sound state once per frame
+	private AudioSink audioSink;
+	
+	//provides the keypad state, one bit per key
+	private InputSource inputSource;
+	
+	//whether FX0A is waiting for a key press, the edges before the wait are ignored
+	private boolean isWaitingForKey;
+	
+	//state of the xorshift random generator, never 0
+	private long randomState;
+	
+	//instructions run through execute since the last reset
+	private long instructionCount;
+	
+	//times the stack pointer wrapped around memory since the last reset
+	private long stackFaults;
+	
+	//compiles straight-line blocks to bytecode, null when only the interpreter is used
+	private BlockCompiler blockCompiler;
+	
+	//whether skipIdle counts the spins in place instead of leaving them to execute
+	private boolean isSkippingIdle = true;
+	
+	//counts what the machine runs, null when nobody is watching
+	private Metrics metrics;
+	
+	//font of chip-8
+	private static final int[] FONT =  {
+		      0xf9,0x99,0xf2,0x62,0x27,
+		      0xf1,0xf8,0xff,0x1f,0x1f,
+		      0x99,0xf1,0x1f,0x8f,0x1f,
+		      0xf8,0xf9,0xff,0x12,0x44,
+		      0xf9,0xf9,0xff,0x9f,0x1f,
+		      0xf9,0xf9,0x9e,0x9e,0x9e,
+		      0xf8,0x88,0xfe,0x99,0x9e,
+		      0xf8,0xf8,0xff,0x8f,0x88 };
+	
+	//big 8x10 font of SUPER-CHIP, with the XO-CHIP letters
+	private static final int[] BIG_FONT = {
+		      0x3c,0x7e,0xe7,0xc3,0xc3,0xc3,0xc3,0xe7,0x7e,0x3c,
+		      0x18,0x38,0x58,0x18,0x18,0x18,0x18,0x18,0x18,0x3c,
+		      0x3e,0x7f,0xc3,0x06,0x0c,0x18,0x30,0x60,0xff,0xff,
+		      0x3c,0x7e,0xc3,0x03,0x0e,0x0e,0x03,0xc3,0x7e,0x3c,
+		      0x06,0x0e,0x1e,0x36,0x66,0xc6,0xff,0xff,0x06,0x06,
+		      0xff,0xff,0xc0,0xc0,0xfc,0xfe,0x03,0xc3,0x7e,0x3c,
+		      0x3e,0x7c,0xc0,0xc0,0xfc,0xfe,0xc3,0xc3,0x7e,0x3c,
+		      0xff,0xff,0x03,0x06,0x0c,0x18,0x30,0x60,0x60,0x60,
+		      0x3c,0x7e,0xc3,0xc3,0x7e,0x7e,0xc3,0xc3,0x7e,0x3c,
+		      0x3c,0x7e,0xc3,0xc3,0x7f,0x3f,0x03,0x03,0x3e,0x7c,
+		      0x7e,0xff,0xc3,0xc3,0xc3,0xff,0xff,0xc3,0xc3,0xc3,
+		      0xfc,0xfc,0xc3,0xc3,0xfc,0xfc,0xc3,0xc3,0xfc,0xfc,
+		      0x3c,0xff,0xc3,0xc0,0xc0,0xc0,0xc0,0xc3,0xff,0x3c,
+		      0xfc,0xfe,0xc3,0xc3,0xc3,0xc3,0xc3,0xc3,0xfe,0xfc,
+		      0xff,0xff,0xc0,0xc0,0xff,0xff,0xc0,0xc0,0xff,0xff,
+		      0xff,0xff,0xc0,0xc0,0xff,0xff,0xc0,0xc0,0xc0,0xc0 };
+	
+	//handler indices of the decoded instruction cache, shared with the block compiler
+	static final int OP_NONE = 0;
+	static final int OP_UNKNOWN = 1;
+	static final int OP_NOP = 2;
+	static final int OP_CLS = 3;
+	static final int OP_RET = 4;
+	static final int OP_JP = 5;
+	static final int OP_CALL = 6;
+	static final int OP_SE_BYTE = 7;
+	static final int OP_SNE_BYTE = 8;
+	static final int OP_SE_REG = 9;
+	static final int OP_LD_BYTE = 10;
+	static final int OP_ADD_BYTE = 11;
+	static final int OP_LD_REG = 12;
+	static final int OP_OR = 13;
+	static final int OP_AND = 14;
+	static final int OP_XOR = 15;
+	static final int OP_ADD_REG = 16;
+	static final int OP_SUB = 17;
+	static final int OP_SHR = 18;
+	static final int OP_SUBN = 19;
+	static final int OP_SHL = 20;
+	static final int OP_SNE_REG = 21;
+	static final int OP_LD_I = 22;
+	static final int OP_JP_OFFSET = 23;
+	static final int OP_RND = 24;
+	static final int OP_DRW = 25;
+	static final int OP_SKP = 26;
+	static final int OP_SKNP = 27;
+	static final int OP_LD_VX_DT = 28;
+	static final int OP_LD_KEY = 29;
+	static final int OP_LD_DT = 30;
+	static final int OP_LD_ST = 31;
+	static final int OP_ADD_I = 32;
+	static final int OP_LD_FONT = 33;
+	static final int OP_LD_BCD = 34;
+	static final int OP_STORE = 35;
+	static final int OP_LOAD = 36;
+	static final int OP_SCROLL_DOWN = 37;
+	static final int OP_SCROLL_UP = 38;
+	static final int OP_SCROLL_RIGHT = 39;
+	static final int OP_SCROLL_LEFT = 40;
+	static final int OP_EXIT = 41;
+	static final int OP_LORES = 42;
+	static final int OP_HIRES = 43;
+	static final int OP_DRW_WIDE = 44;
+	static final int OP_LD_BIG_FONT = 45;
+	static final int OP_SAVE_FLAGS = 46;
+	static final int OP_LOAD_FLAGS = 47;
+	static final int OP_SAVE_RANGE = 48;
+	static final int OP_LOAD_RANGE = 49;
+	static final int OP_LD_I_LONG = 50;
+	static final int OP_PLANE = 51;
+	static final int OP_LD_PATTERN = 52;
+	static final int OP_PITCH = 53;
+	
+	public Chip8Core() {
+		memory = new byte[MEMORY_SIZE];
+		handlers = new byte[MEMORY_SIZE];
+		operandX = new byte[MEMORY_SIZE];
+		operandY = new byte[MEMORY_SIZE];
+		operandImmediate = new short[MEMORY_SIZE];
+		V = new byte[16];
+		frameBuffer = new long[FRAME_BUFFER_SIZE];
+		flags = new byte[FLAG_COUNT];
+		audioPattern = new byte[AUDIO_PATTERN_SIZE];
+		frameSink = NO_FRAME_SINK;
+		audioSink = NO_AUDIO_SINK;
+		inputSource = NO_INPUT_SOURCE;
+		setQuirks(QuirksProfile.CHIP8);
+		setSeed(System.nanoTime());
+		
+		reset();
+	}
+	
+	/**
+	 * @param sink receives the framebuffer whenever it changes, null for none
+	 */
+	public void setFrameSink(FrameSink sink) {
+		frameSink = sink != null ? sink : NO_FRAME_SINK;
+	}
+	
+	/**
+	 * @param sink receives the sound state once per frame, null for none
+	 */
+	public void setAudioSink(AudioSink sink) {
+		audioSink = sink != null ? sink : NO_AUDIO_SINK;
+	}
+	
+	/**
+	 * @param source provides the keypad state, null for none
+	 */
+	public void setInputSource(InputSource source) {
+		inputSource = source != null ? source : NO_INPUT_SOURCE;
+	}
+	
+	/**
+	 * seed the generator used by CXNN, so runs can be repeated
+	 * @param seed the seed
+	 */
+	public void setSeed(long seed) {
+		randomState = seed ^ 0x9E3779B97F4A7C15L;
+		if(randomState == 0) {
+			randomState = 0x9E3779B97F4A7C15L;
+		}
+	}
+	
+	/**
+	 * @param metrics counts the instructions and timer ticks from now on, null for none
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * choose how sprites crossing the edge of the screen are drawn
+	 * @param wrap true to wrap them to the other side, false to clip them
+	 */
+	public void setSpriteWrapping(boolean wrap) {
+		isWrapping = wrap;
+	}
+	
+	/**
+	 * choose the interpreter the rom was written for; the instructions decoded so far are
+	 * dropped so they pick up the new behaviors, and the memory the profile cannot address
+	 * is cleared, with the second plane unless it is XO-CHIP
+	 * @param profile the quirks profile
+	 */
+	public void setQuirks(QuirksProfile profile) {
+		// a snapshot leaves out what the profile cannot reach
+		Arrays.fill(memory, profile.getMemorySize(), MEMORY_SIZE, (byte)0);
+		if(!profile.isXoChip()) {
+			planeMask = 1;
+			int start = rowIndex(1, 0);
+			Arrays.fill(frameBuffer, start, start + HIRES_SCREEN_HEIGHT * ROW_WORDS, 0);
+		}
+		quirks = profile;
+		indexMask = profile.getMemorySize() - 1;
+		isSkippingLongLoads = profile.isXoChip();
+		invalidateDecodeCache();
+	}
+	
+	public QuirksProfile getQuirks() {
+		return quirks;
+	}
+	
+	/**
+	 * choose whether straight-line blocks are compiled to bytecode or interpreted
+	 * @param enabled true to use the block compiler
+	 */
+	public void setBlockCompilation(boolean enabled) {
+		blockCompiler = enabled ? new BlockCompiler(this, MEMORY_SIZE) : null;
+	}
+	
+	/**
+	 * @return whether straight-line blocks are compiled to bytecode
+	 */
+	public boolean isCompilingBlocks() {
+		return blockCompiler != null;
+	}
+	
+	/**
+	 * choose whether {@link #skipIdle(int)} counts the spins in place rather than leaving
+	 * them to be run, which ends in the same state either way
+	 * @param enabled true to skip the spins, the default
+	 */
+	public void setIdleSkipping(boolean enabled) {
+		isSkippingIdle = enabled;
+	}
+	
+	/**
+	 * initialize all the states, pointers, memory and the screen
+	 */
+	public void reset() {
+		pc = MEMORY_START;
+		indexRegister = 0;
+		sp = STACK_POINTER_START;
+		isWaitingForKey = false;
+		instructionCount = 0;
+		stackFaults = 0;
+		planeMask = 1;
+		pitch = DEFAULT_PITCH;
+		Arrays.fill(audioPattern, (byte)0);
+		
+		resetTimers();
+		setHighResolution(false);
+		clearVRegisters();
+		clearMemory();
+		loadFontSet();
+	}
+	
+	/**
+	 * load all the fonts into memory
+	 */
+	public void loadFontSet() {
+		for(int i=0; i<40; i++) {
+			memory[i << 1] = (byte)(FONT[i] & 0xf0);
+			memory[(i << 1) + 1] = (byte)((FONT[i] << 4) & 0xf0);
+		}
+		for(int i = 0 ; i < BIG_FONT.length ; i++) {
+			memory[BIG_FONT_START + i] = (byte)BIG_FONT[i];
+		}
+	}
+	
+	/**
+	 * reset delay timer and sound timer
+	 */
+	public void resetTimers() {
+		delayTimer = 0;
+		soundTimer = 0;
+	}
+	
+	public void clearVRegisters() {
+		for(int i = 0 ; i < 16 ; i++) {
+			V[i] = 0;
+		}
+	}
+	
+	public void clearMemory() {
+		for(int i =0 ; i < MEMORY_SIZE ; i++) {
+			memory[i] = 0;
+		}
+		invalidateDecodeCache();
+	}
+	
+	/**
+	 * copy a rom image into memory at {@link #MEMORY_START}
+	 * @param rom the rom image
+	 * @param length number of bytes of the image to copy
+	 * @throws IllegalArgumentException if the image does not fit in the memory of the
+	 * quirks profile
+	 */
+	public void load(byte[] rom, int length) {
+		checkRomSize(length);
+		System.arraycopy(rom, 0, memory, MEMORY_START, length);
+		invalidateDecodeCache();
+	}
+	
+	/**
+	 * copy the remaining bytes of a rom image into memory at {@link #MEMORY_START} with
+	 * a single bulk get, so a mapped file goes straight into memory
+	 * @param rom the rom image, its position is left unchanged
+	 * @throws IllegalArgumentException if the image does not fit in the memory of the
+	 * quirks profile
+	 */
+	public void load(ByteBuffer rom) {
+		checkRomSize(rom.remaining());
+		rom.duplicate().get(memory, MEMORY_START, rom.remaining());
+		invalidateDecodeCache();
+	}
+	
+	/**
+	 * decode the instructions of the loaded rom before the first frame, and when the block
+	 * compiler is on have its hot blocks compiled on their first run rather than once
+	 * they get hot; the blocks already compiled by another machine prepared with the
+	 * same analysis are taken rather than compiled again
+	 * @param analysis the analysis of the rom, ignored if it was done with another quirks
+	 * profile or the rom in memory is not the one analyzed
+	 */
+	public void prepare(RomAnalysis analysis) {
+		if(analysis.getQuirks() != quirks || !analysis.isLoadedIn(memory)) {
+			return;
+		}
+		for(int address = analysis.getStart() ; address < analysis.getEnd() ; address++) {
+			if(analysis.isCode(address)) {
+				handlerAt(address);
+			}
+		}
+		if(blockCompiler == null) {
+			return;
+		}
+		for(RomAnalysis.Block block : analysis.getBlocks()) {
+			if(!block.isHot()) {
+				continue;
+			}
+			// the blocks start where execute will look for them: after each block taken
+			// and each instruction not compiled yet or left to the interpreter
+			int address = block.getStart();
+			while(address < block.getEnd()) {
+				int length = blockCompiler.prepare(address, analysis);
+				address += length > 0 ? 2 * length : analysis.instructionLength(address);
+			}
+		}
+	}
+	
+	private void checkRomSize(int length) {
+		int maxLength = quirks.getMemorySize() - MEMORY_START;
+		if(length > maxLength) {
+			throw new IllegalArgumentException("rom of " + length + " bytes does not fit in "
+					+ maxLength + " bytes of " + quirks + " memory");
+		}
+	}
+	
+	/**
+	 * run the next instruction, or the compiled blocks following one another from here
+	 * until the budget runs out
+	 * @param budget the most instructions to run, at least 1
+	 * @return the number of instructions run
+	 */
+	public int execute(int budget) {
+		if(blockCompiler != null) {
+			CompiledBlock block = blockCompiler.lookup(pc);
+			if(block != null) {
+				return runBlocks(block, budget);
+			}
+		}
+		int start = pc;
+		emulateCycle();
+		instructionCount++;
+		if(metrics != null) {
+			metrics.instructionsRun(memory, start, 1);
+		}
+		return 1;
+	}
+	
+	/**
+	 * run compiled blocks one after the other, kept out of {@link #execute(int)} so that
+	 * it stays small enough to be inlined into the scheduler
+	 * @param block the block at pc
+	 * @param budget the most instructions to run, at least 1
+	 * @return the number of instructions run
+	 */
+	private int runBlocks(CompiledBlock block, int budget) {
+		int executed = 0;
+		while(block != null) {
+			int start = pc;
+			int length = Math.min(blockCompiler.lengthAt(start), budget - executed);
+			// an input source asked for the keys by the last instruction sees its count
+			instructionCount += length - 1;
+			int result = block.run(this, V, memory, indexRegister, budget - executed);
+			instructionCount++;
+			pc = result >>> 16;
+			indexRegister = result & 0xFFFF;
+			executed += length;
+			if(metrics != null) {
+				metrics.instructionsRun(memory, start, length);
+			}
+			block = executed < budget && !mayBeIdle(pc) ? blockCompiler.lookup(pc) : null;
+		}
+		return executed;
+	}
+	
+	/**
+	 * spot the machine spinning in place and account for the spin at once instead of
+	 * running it: a jump to itself, FX0A still waiting for a key, or a delay timer poll
+	 * such as FX07 3X00 1NNN back to the FX07. The timers only change between frames,
+	 * so until then every pass leaves the machine as it found it but for the instruction
+	 * count, and counting the passes ends in the very state running them would
+	 * @param budget the most instructions to account for, up to the end of the frame
+	 * @return the number of instructions accounted for, 0 when the machine is not idle
+	 * and has to be run with {@link #execute(int)}
+	 */
+	public int skipIdle(int budget) {
+		if(!isSkippingIdle) {
+			return 0;
+		}
+		int address = pc;
+		int handler = handlerAt(address);
+		if(handler == OP_JP && operandImmediate[address] == address) {
+			countIdle(address, 1, budget);
+			return budget;
+		}
+		if(handler == OP_LD_KEY && isWaitingForKey && budget > 1) {
+			// the source is polled as the interpreter would, then the spin is counted up to
+			// the first count at which the source says the keys can change
+			execute(1);
+			if(pc != address) {
+				return 1;
+			}
+			long passes = Math.min(budget - 1, inputSource.nextInputCount(instructionCount) - instructionCount);
+			if(passes > 0) {
+				countIdle(address, 1, (int)passes);
+			}
+			return 1 + (int)Math.max(0, passes);
+		}
+		if(handler == OP_LD_VX_DT && address + 5 < MEMORY_SIZE && budget >= 3) {
+			int x = operandX[address];
+			int skipHandler = handlerAt(address + 2);
+			int value = getDelayTimer();
+			int immediate = operandImmediate[address + 2];
+			boolean isSkipped = skipHandler == OP_SE_BYTE ? value == immediate : value != immediate;
+			if((skipHandler == OP_SE_BYTE || skipHandler == OP_SNE_BYTE) && operandX[address + 2] == x && !isSkipped
+					&& handlerAt(address + 4) == OP_JP && operandImmediate[address + 4] == address) {
+				int passes = budget / 3;
+				V[x] = (byte)value;
+				countIdle(address, 3, passes);
+				return 3 * passes;
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * @return whether {@link #skipIdle(int)} may count the instructions from the address
+	 * instead of running them, which a chain of compiled blocks leaves it to do
+	 */
+	private boolean mayBeIdle(int address) {
+		int handler = handlerAt(address);
+		return handler == OP_LD_VX_DT || handler == OP_JP && operandImmediate[address] == address;
+	}
+	
+	private void countIdle(int address, int length, int passes) {
+		instructionCount += (long)length * passes;
+		if(metrics != null) {
+			metrics.idleInstructionsSkipped(memory, address, length, passes);
+		}
+	}
+	
+	/**
+	 * count down the delay and sound timers, called at the timer rate; the buzzer sounds
+	 * for the frames the sound timer is running
+	 */
+	public void tickTimers() {
+		audioSink.audioFrame(soundTimer > 0, audioPattern, pitch);
+		if(delayTimer > 0) {
+			delayTimer --;
+		}
+		if(soundTimer > 0) {
+			soundTimer --;
+		}
+		if(metrics != null) {
+			metrics.timerTicked();
+		}
+	}
+	
+	/**
+	 * decode the instruction word at the given address into the cache, with the operands
+	 * the quirks profile calls for so the handlers never look at it
+	 * @param address address of the first byte of the instruction
+	 * @return the handler index of the decoded instruction
+	 */
+	private int decode(int address) {
+		int word = (memory[address] & 0xFF) << 8;
+		if(address + 1 < MEMORY_SIZE) {
+			word |= memory[address + 1] & 0xFF;
+		}
+		
+		int x = (word & 0x0F00) >> 8;
+		int y = (word & 0x00F0) >> 4;
+		int n = word & 0x000F;
+		int handler = OP_UNKNOWN;
+		int immediate = word & 0x00FF;
+		
+		switch(word >> 12) {
+		case 0x0: {
+			if(word == 0x00E0) handler = OP_CLS;
+			else if(word == 0x00EE) handler = OP_RET;
+			else if(quirks.isSuperChip() && (word & 0xFFF0) == 0x00C0) { handler = OP_SCROLL_DOWN; immediate = n; }
+			else if(quirks.isXoChip() && (word & 0xFFF0) == 0x00D0) { handler = OP_SCROLL_UP; immediate = n; }
+			else if(quirks.isSuperChip()) {
+				switch(word) {
+				case 0x00FB: handler = OP_SCROLL_RIGHT; break;
+				case 0x00FC: handler = OP_SCROLL_LEFT; break;
+				case 0x00FD: handler = OP_EXIT; break;
+				case 0x00FE: handler = OP_LORES; break;
+				case 0x00FF: handler = OP_HIRES; break;
+				}
+			}
+			break;
+		}
+		case 0x1: handler = OP_JP; immediate = word & 0x0FFF; break;
+		case 0x2: handler = OP_CALL; immediate = word & 0x0FFF; break;
+		case 0x3: handler = OP_SE_BYTE; break;
+		case 0x4: handler = OP_SNE_BYTE; break;
+		case 0x5: {
+			if(quirks.isXoChip() && n == 0x2) handler = OP_SAVE_RANGE;
+			else if(quirks.isXoChip() && n == 0x3) handler = OP_LOAD_RANGE;
+			else handler = OP_SE_REG;
+			break;
+		}
+		case 0x6: handler = OP_LD_BYTE; break;
+		case 0x7: handler = OP_ADD_BYTE; break;
+		case 0x8: {
+			switch(n) {
+			case 0x0: handler = OP_LD_REG; break;
+			case 0x1: handler = OP_OR; break;
+			case 0x2: handler = OP_AND; break;
+			case 0x3: handler = OP_XOR; break;
+			case 0x4: handler = OP_ADD_REG; break;
+			case 0x5: handler = OP_SUB; break;
+			case 0x6: handler = OP_SHR; y = quirks.isShiftingVY() ? y : x; break;
+			case 0x7: handler = OP_SUBN; break;
+			case 0xE: handler = OP_SHL; y = quirks.isShiftingVY() ? y : x; break;
+			default: handler = OP_NOP; break;
+			}
+			break;
+		}
+		case 0x9: handler = OP_SNE_REG; break;
+		case 0xA: handler = OP_LD_I; immediate = word & 0x0FFF; break;
+		case 0xB: handler = OP_JP_OFFSET; immediate = word & 0x0FFF; x = quirks.isJumpingWithVX() ? x : 0; break;
+		case 0xC: handler = OP_RND; break;
+		case 0xD: {
+			if(n == 0 && quirks.isSuperChip()) handler = OP_DRW_WIDE;
+			else { handler = OP_DRW; immediate = n; }
+			break;
+		}
+		case 0xE: {
+			if(immediate == 0x9E) handler = OP_SKP;
+			else if(immediate == 0xA1) handler = OP_SKNP;
+			else handler = OP_NOP;
+			break;
+		}
+		case 0xF: {
+			switch(immediate) {
+			case 0x07: handler = OP_LD_VX_DT; break;
+			case 0x0A: handler = OP_LD_KEY; break;
+			case 0x15: handler = OP_LD_DT; break;
+			case 0x18: handler = OP_LD_ST; break;
+			case 0x1E: handler = OP_ADD_I; break;
+			case 0x29: handler = OP_LD_FONT; break;
+			case 0x33: handler = OP_LD_BCD; break;
+			case 0x55: handler = OP_STORE; immediate = quirks.indexAdvance(x); break;
+			case 0x65: handler = OP_LOAD; immediate = quirks.indexAdvance(x); break;
+			case 0x30: if(quirks.isSuperChip()) handler = OP_LD_BIG_FONT; break;
+			case 0x75: if(quirks.isSuperChip()) handler = OP_SAVE_FLAGS; break;
+			case 0x85: if(quirks.isSuperChip()) handler = OP_LOAD_FLAGS; break;
+			case 0x00: if(quirks.isXoChip() && x == 0) handler = OP_LD_I_LONG; break;
+			case 0x01: if(quirks.isXoChip()) handler = OP_PLANE; break;
+			case 0x02: if(quirks.isXoChip() && x == 0) handler = OP_LD_PATTERN; break;
+			case 0x3A: if(quirks.isXoChip()) handler = OP_PITCH; break;
+			}
+			break;
+		}
+		}
+		
+		handlers[address] = (byte)handler;
+		operandX[address] = (byte)x;
+		operandY[address] = (byte)y;
+		operandImmediate[address] = (short)immediate;
+		return handler;
+	}
+	
+	/**
+	 * get the handler index of the instruction at the given address, decoding it if needed
+	 * @param address address of the instruction
+	 * @return the handler index
+	 */
+	int handlerAt(int address) {
+		int handler = handlers[address];
+		if(handler == OP_NONE) {
+			handler = decode(address);
+		}
+		return handler;
+	}
+	
+	/**
+	 * write one byte into memory, dropping the decoded instructions overlapping it
+	 * @param address the address to write
+	 * @param value the value to write
+	 */
+	private void writeMemory(int address, int value) {
+		memory[address] = (byte)value;
+		handlers[address] = OP_NONE;
+		if(address > 0) {
+			handlers[address - 1] = OP_NONE;
+		}
+		if(blockCompiler != null) {
+			blockCompiler.invalidate(address);
+		}
+	}
+	
+	/**
+	 * drop every decoded instruction, used when the whole memory is rewritten
+	 */
+	private void invalidateDecodeCache() {
+		for(int i = 0 ; i < handlers.length ; i++) {
+			handlers[i] = OP_NONE;
+		}
+		if(blockCompiler != null) {
+			blockCompiler.reset();
+		}
+	}
+	
+	private int register(int index) {
+		return V[index] & 0xFF;
+	}
+	
+	/**
+	 * step over the next instruction, which is 4 bytes long for an XO-CHIP F000 NNNN
+	 */
+	private void skip() {
+		if(isSkippingLongLoads && memory[(pc + 2) & indexMask] == (byte)0xF0 && memory[(pc + 3) & indexMask] == 0) {
+			pc += 2;
+		}
+		pc += 2;
+	}
+	
+	public void emulateCycle() {
+		int handler = handlerAt(pc);
+		int x = operandX[pc];
+		int y = operandY[pc];
+		int immediate = operandImmediate[pc];
+		
+		switch(handler) {
+		case OP_CLS: {
+			clearScreen();
+			pc += 2;
+			break;
+		}
+		
+		case OP_RET: {
+			pc = popReturnAddress();
+			pc += 2;
+			break;
+		}
+		
+		case OP_JP: {
+			pc = immediate;
+			break;
+		}
+		
+		case OP_CALL: {
+			pushReturnAddress(pc);
+			// jump
+			pc = immediate;
+			break;
+		}
+		
+		case OP_SE_BYTE: {
+			if(register(x) == immediate) skip();
+			pc += 2;
+			break;
+		}
+		
+		case OP_SNE_BYTE: {
+			if(register(x) != immediate) skip();
+			pc += 2;
+			break;
+		}
+		
+		case OP_SE_REG: {
+			if(V[x] == V[y]) skip();
+			pc += 2;
+			break;
+		}
+		
+		case OP_LD_BYTE: {
+			V[x] = (byte)immediate;
+			pc += 2;
+			break;
+		}
+		
+		case OP_ADD_BYTE: {
+			V[x] = (byte)(register(x) + immediate);
+			pc += 2;
+			break;
+		}
+		
+		case OP_LD_REG: {
+			V[x] = V[y];
+			pc += 2;
+			break;
+		}
+		
+		case OP_OR: {
+			V[x] = (byte)(V[x] | V[y]);
+			pc += 2;
+			break;
+		}
+		
+		case OP_AND: {
+			V[x] = (byte)(V[x] & V[y]);
+			pc += 2;
+			break;
+		}
+		
+		case OP_XOR: {
+			V[x] = (byte)(V[x] ^ V[y]);
+			pc += 2;
+			break;
+		}
+		
+		case OP_ADD_REG: {
+			int sum = register(x) + register(y);
+			V[x] = (byte)sum;
+			V[15] = (byte)(sum >> 8);
+			pc += 2;
+			break;
+		}
+		
+		case OP_SUB: {
+			// VF is written last, so it holds the flag even when it is VX
+			int difference = register(x) - register(y);
+			V[x] = (byte)difference;
+			V[15] = (byte)(difference >= 0 ? 0x01 : 0x00);
+			pc += 2;
+			break;
+		}
+		
+		case OP_SHR: {
+			// y is x unless the profile shifts VY
+			int value = register(y);
+			V[x] = (byte)(value >> 1);
+			V[15] = (byte)(value & 0x01);
+			pc += 2;
+			break;
+		}
+		
+		case OP_SUBN: {
+			int difference = register(y) - register(x);
+			V[x] = (byte)difference;
+			V[15] = (byte)(difference >= 0 ? 0x01 : 0x00);
+			pc += 2;
+			break;
+		}
+		
+		case OP_SHL: {
+			int value = register(y);
+			V[x] = (byte)(value << 1);
+			V[15] = (byte)(value >> 7);
+			pc += 2;
+			break;
+		}
+		
+		case OP_SNE_REG: {
+			if(V[x] != V[y]) skip();
+			pc += 2;
+			break;
+		}
+		
+		case OP_LD_I: {
+			indexRegister = immediate;
+			pc += 2;
+			break;
+		}
+		
+		case OP_JP_OFFSET: {
+			// x is 0 unless the profile jumps with VX
+			pc = (immediate + register(x)) & 0x0FFF;
+			break;
+		}
+		
+		case OP_RND: {
+			V[x] = (byte)randomByte(immediate);
+			pc += 2;
+			break;
+		}
+		
+		case OP_DRW: {
+			drawSprite(register(x), register(y), immediate, indexRegister);
+			pc += 2;
+			break;
+		}
+		
+		case OP_SKP: {
+			if((inputSource.getKeyState() & (1 << (V[x] & 0x0F))) != 0) {
+				skip();
+			}
+			pc += 2;
+			break;
+		}
+		
+		case OP_SKNP: {
+			if((inputSource.getKeyState() & (1 << (V[x] & 0x0F))) == 0) {
+				skip();
+			}
+			pc += 2;
+			break;
+		}
+		
+		case OP_LD_VX_DT: {
+			V[x] = (byte)getDelayTimer();
+			pc += 2;
+			break;
+		}
+		
+		case OP_LD_KEY: {
+			int event;
+			if(!isWaitingForKey) {
+				// edges queued before the wait started do not answer it
+				while(inputSource.pollKeyEvent() >= 0) {
+				}
+				isWaitingForKey = true;
+			}
+			// pc stays on FX0A until a key is pressed
+			while((event = inputSource.pollKeyEvent()) >= 0) {
+				if(KeyEventQueue.isPress(event)) {
+					V[x] = (byte)KeyEventQueue.keyOf(event);
+					isWaitingForKey = false;
+					pc += 2;
+					break;
+				}
+			}
+			break;
+		}
+		
+		case OP_LD_DT: {
+			setDelayTimer(register(x));
+			pc += 2;
+			break;
+		}
+		
+		case OP_LD_ST: {
+			setSoundTimer(register(x));
+			pc += 2;
+			break;
+		}
+		
+		case OP_ADD_I: {
+			/**
+			 *  VF is set to 1 when range overflow (I+VX>0xFFF), and 0 when there isn't.
+			 *  This is undocumented feature of the Chip-8 and used by Spacefight 2019! game.
+			 *  see wikipedia: http://en.wikipedia.org/wiki/CHIP-8
+			 */
+			
+			//V[15] = (byte)((indexRegister + register(x)) > 0x0FFF ? 0x01 : 0x00);
+			indexRegister = (indexRegister + register(x)) & indexMask;
+			pc += 2;
+			break;
+		}
+		
+		case OP_LD_FONT: {
+			indexRegister = (V[x] & 0x0F) * 5;
+			pc += 2;
+			break;
+		}
+		
+		case OP_LD_BCD: {
+			int value = register(x);
+			writeMemory(indexRegister, value / 100);
+			writeMemory((indexRegister + 1) & indexMask, (value / 10) % 10);
+			writeMemory((indexRegister + 2) & indexMask, value % 10);
+			pc += 2;
+			break;
+		}
+		
+		case OP_STORE: {
+			for(int i = 0 ; i <= x ; i++) {
+				writeMemory((indexRegister + i) & indexMask, V[i]);
+			}
+			// the immediate is how far the profile moves I
+			indexRegister = (indexRegister + immediate) & indexMask;
+			pc += 2;
+			break;
+		}
+		
+		case OP_LOAD: {
+			for(int i = 0 ; i <= x ; i++) {
+				V[i] = memory[(indexRegister + i) & indexMask];
+			}
+			indexRegister = (indexRegister + immediate) & indexMask;
+			pc += 2;
+			break;
+		}
+		
+		case OP_SCROLL_DOWN: {
+			scrollDown(immediate);
+			pc += 2;
+			break;
+		}
+		
+		case OP_SCROLL_UP: {
+			scrollUp(immediate);
+			pc += 2;
+			break;
+		}
+		
+		case OP_SCROLL_RIGHT: {
+			scrollRight();
+			pc += 2;
+			break;
+		}
+		
+		case OP_SCROLL_LEFT: {
+			scrollLeft();
+			pc += 2;
+			break;
+		}
+		
+		case OP_EXIT: {
+			// pc stays on 00FD, the machine stops there
+			break;
+		}
+		
+		case OP_LORES: {
+			setHighResolution(false);
+			pc += 2;
+			break;
+		}
+		
+		case OP_HIRES: {
+			setHighResolution(true);
+			pc += 2;
+			break;
+		}
+		
+		case OP_DRW_WIDE: {
+			drawWideSprite(register(x), register(y), indexRegister);
+			pc += 2;
+			break;
+		}
+		
+		case OP_LD_BIG_FONT: {
+			indexRegister = BIG_FONT_START + (V[x] & 0x0F) * 10;
+			pc += 2;
+			break;
+		}
+		
+		case OP_SAVE_FLAGS: {
+			System.arraycopy(V, 0, flags, 0, x + 1);
+			pc += 2;
+			break;
+		}
+		
+		case OP_LOAD_FLAGS: {
+			System.arraycopy(flags, 0, V, 0, x + 1);
+			pc += 2;
+			break;
+		}
+		
+		case OP_SAVE_RANGE: {
+			// the registers from VX to VY, in that order even when X is above Y
+			int step = x <= y ? 1 : -1;
+			for(int i = 0 ; i <= Math.abs(y - x) ; i++) {
+				writeMemory((indexRegister + i) & indexMask, V[x + i * step]);
+			}
+			pc += 2;
+			break;
+		}
+		
+		case OP_LOAD_RANGE: {
+			int step = x <= y ? 1 : -1;
+			for(int i = 0 ; i <= Math.abs(y - x) ; i++) {
+				V[x + i * step] = memory[(indexRegister + i) & indexMask];
+			}
+			pc += 2;
+			break;
+		}
+		
+		case OP_LD_I_LONG: {
+			indexRegister = (memory[(pc + 2) & indexMask] & 0xFF) << 8 | (memory[(pc + 3) & indexMask] & 0xFF);
+			pc += 4;
+			break;
+		}
+		
+		case OP_PLANE: {
+			planeMask = x & ((1 << PLANE_COUNT) - 1);
+			pc += 2;
+			break;
+		}
+		
+		case OP_LD_PATTERN: {
+			for(int i = 0 ; i < AUDIO_PATTERN_SIZE ; i++) {
+				audioPattern[i] = memory[(indexRegister + i) & indexMask];
+			}
+			pc += 2;
+			break;
+		}
+		
+		case OP_PITCH: {
+			pitch = register(x);
+			pc += 2;
+			break;
+		}
+		
+		case OP_NOP: {
+			pc += 2;
+			break;
+		}
+		
+		default : {
+			// unknown 0NNN and FXNN codes leave pc where it is
+			break;
+		}
+		}
+	
+	}
+	
+	/*
+	 * the helpers below are shared by the interpreter and the compiled blocks
+	 */
+	
+	/**
+	 * push the address of a CALL on the stack, which grows down through memory and wraps
+	 * around to its top, counted as a stack fault, rather than run off its start
+	 * @param address the address of the CALL
+	 */
+	void pushReturnAddress(int address) {
+		if(sp < 2) {
+			stackFaults++;
+		}
+		sp = (sp-1) & indexMask;
+		writeMemory(sp, address & 0x00FF);
+		sp = (sp-1) & indexMask;
+		writeMemory(sp, address >> 8);
+	}
+	
+	/**
+	 * @return the address of the CALL on top of the stack, taken off it; popping past the
+	 * end of memory wraps around to its start, counted as a stack fault
+	 */
+	int popReturnAddress() {
+		if(sp > indexMask - 1) {
+			stackFaults++;
+		}
+		int address = (memory[sp] & 0xFF) << 8;
+		sp = (sp+1) & indexMask;
+		address = address + (memory[sp] & 0xFF);
+		sp = (sp+1) & indexMask;
+		return address;
+	}
+	
+	/**
+	 * clear the selected planes
+	 */
+	void clearScreen() {
+		for(int plane = 0 ; plane < PLANE_COUNT ; plane++) {
+			if((planeMask & (1 << plane)) != 0) {
+				int start = rowIndex(plane, 0);
+				Arrays.fill(frameBuffer, start, start + HIRES_SCREEN_HEIGHT * ROW_WORDS, 0);
+			}
+		}
+		frameSink.frameUpdated(frameBuffer, screenWidth, screenHeight);
+	}
+	
+	/**
+	 * switch between the 64x32 and the 128x64 screen, clearing every plane
+	 * @param isHigh true for 128x64
+	 */
+	void setHighResolution(boolean isHigh) {
+		screenWidth = isHigh ? HIRES_SCREEN_WIDTH : SCREEN_WIDTH;
+		screenHeight = isHigh ? HIRES_SCREEN_HEIGHT : SCREEN_HEIGHT;
+		Arrays.fill(frameBuffer, 0);
+		frameSink.frameUpdated(frameBuffer, screenWidth, screenHeight);
+	}
+	
+	/**
+	 * move the selected planes down, by whole pixels of the current mode
+	 * @param rows number of rows to move
+	 */
+	void scrollDown(int rows) {
+		rows = Math.min(rows, screenHeight);
+		for(int plane = 0 ; plane < PLANE_COUNT ; plane++) {
+			if((planeMask & (1 << plane)) != 0) {
+				int start = rowIndex(plane, 0);
+				System.arraycopy(frameBuffer, start, frameBuffer, start + rows * ROW_WORDS, (screenHeight - rows) * ROW_WORDS);
+				Arrays.fill(frameBuffer, start, start + rows * ROW_WORDS, 0);
+			}
+		}
+		frameSink.frameUpdated(frameBuffer, screenWidth, screenHeight);
+	}
+	
+	/**
+	 * move the selected planes up, by whole pixels of the current mode
+	 * @param rows number of rows to move
+	 */
+	void scrollUp(int rows) {
+		rows = Math.min(rows, screenHeight);
+		for(int plane = 0 ; plane < PLANE_COUNT ; plane++) {
+			if((planeMask & (1 << plane)) != 0) {
+				int start = rowIndex(plane, 0);
+				int kept = (screenHeight - rows) * ROW_WORDS;
+				System.arraycopy(frameBuffer, start + rows * ROW_WORDS, frameBuffer, start, kept);
+				Arrays.fill(frameBuffer, start + kept, start + screenHeight * ROW_WORDS, 0);
+			}
+		}
+		frameSink.frameUpdated(frameBuffer, screenWidth, screenHeight);
+	}
+	
+	/**
+	 * move the selected planes 4 pixels right, one shift per word
+	 */
+	void scrollRight() {
+		boolean isHigh = screenWidth == HIRES_SCREEN_WIDTH;
+		for(int plane = 0 ; plane < PLANE_COUNT ; plane++) {
+			if((planeMask & (1 << plane)) == 0) {
+				continue;
+			}
+			for(int row = 0 ; row < screenHeight ; row++) {
+				int i = rowIndex(plane, row);
+				if(isHigh) {
+					frameBuffer[i + 1] = (frameBuffer[i + 1] >>> 4) | (frameBuffer[i] << 60);
+				}
+				frameBuffer[i] >>>= 4;
+			}
+		}
+		frameSink.frameUpdated(frameBuffer, screenWidth, screenHeight);
+	}
+	
+	/**
+	 * move the selected planes 4 pixels left, one shift per word
+	 */
+	void scrollLeft() {
+		boolean isHigh = screenWidth == HIRES_SCREEN_WIDTH;
+		for(int plane = 0 ; plane < PLANE_COUNT ; plane++) {
+			if((planeMask & (1 << plane)) == 0) {
+				continue;
+			}
+			for(int row = 0 ; row < screenHeight ; row++) {
+				int i = rowIndex(plane, row);
+				if(isHigh) {
+					frameBuffer[i] = (frameBuffer[i] << 4) | (frameBuffer[i + 1] >>> 60);
+					frameBuffer[i + 1] <<= 4;
+				} else {
+					frameBuffer[i] <<= 4;
+				}
+			}
+		}
+		frameSink.frameUpdated(frameBuffer, screenWidth, screenHeight);
+	}
+	
+	/**
+	 * xorshift64* generator, its whole state fits in a snapshot
+	 */
+	int randomByte(int mask) {
+		long x = randomState;
+		x ^= x >>> 12;
+		x ^= x << 25;
+		x ^= x >>> 27;
+		randomState = x;
+		return mask & (int)((x * 0x2545F4914F6CDD1DL) >>> 56);
+	}
+	
+	/**
+	 * XOR an 8 pixel wide sprite into the selected planes, one shift and XOR per row and
+	 * word, and set VF on collision; the sprite of each plane follows the one before
+	 * @param x column of the sprite, taken modulo the screen width
+	 * @param y row of the sprite, taken modulo the screen height
+	 * @param height number of rows of the sprite
+	 * @param index address of the first row of the sprite
+	 */
+	void drawSprite(int x, int y, int height, int index) {
+		x &= screenWidth - 1;
+		y &= screenHeight - 1;
+		long collision = 0;
+		
+		for(int plane = 0 ; plane < PLANE_COUNT ; plane++) {
+			if((planeMask & (1 << plane)) == 0) {
+				continue;
+			}
+			for(int i = 0 ; i < height ; i++) {
+				long sprite = (long)(memory[(index + i) & indexMask] & 0xFF) << 56;
+				collision |= xorRow(plane, y + i, x, sprite);
+			}
+			index += height;
+		}
+		frameSink.frameUpdated(frameBuffer, screenWidth, screenHeight);
+		V[15] = (byte)(collision != 0 ? 0x01 : 0x00);
+	}
+	
+	/**
+	 * XOR a 16x16 sprite of two bytes per row into the selected planes, and set VF on
+	 * collision
+	 * @param x column of the sprite, taken modulo the screen width
+	 * @param y row of the sprite, taken modulo the screen height
+	 * @param index address of the first row of the sprite
+	 */
+	void drawWideSprite(int x, int y, int index) {
+		x &= screenWidth - 1;
+		y &= screenHeight - 1;
+		long collision = 0;
+		
+		for(int plane = 0 ; plane < PLANE_COUNT ; plane++) {
+			if((planeMask & (1 << plane)) == 0) {
+				continue;
+			}
+			for(int i = 0 ; i < 16 ; i++) {
+				int bits = (memory[(index + 2 * i) & indexMask] & 0xFF) << 8
+						| (memory[(index + 2 * i + 1) & indexMask] & 0xFF);
+				collision |= xorRow(plane, y + i, x, (long)bits << 48);
+			}
+			index += 32;
+		}
+		frameSink.frameUpdated(frameBuffer, screenWidth, screenHeight);
+		V[15] = (byte)(collision != 0 ? 0x01 : 0x00);
+	}
+	
+	/**
+	 * XOR one row of a sprite into a plane, wrapping or clipping it at the edges
+	 * @param sprite the row, its leftmost pixel in the highest bit
+	 * @return the pixels of the row that were already set
+	 */
+	private long xorRow(int plane, int row, int x, long sprite) {
+		if(row >= screenHeight) {
+			if(!isWrapping) {
+				return 0;
+			}
+			row -= screenHeight;
+		}
+		int index = rowIndex(plane, row);
+		if(screenWidth == SCREEN_WIDTH) {
+			long bits = isWrapping ? Long.rotateRight(sprite, x) : sprite >>> x;
+			long collision = frameBuffer[index] & bits;
+			frameBuffer[index] ^= bits;
+			return collision;
+		}
+		// a high resolution row is two words, what goes past the first lands in the other
+		int word = x >> 6;
+		int shift = x & 63;
+		long first = sprite >>> shift;
+		long second = shift == 0 || (word == 1 && !isWrapping) ? 0 : sprite << (64 - shift);
+		long collision = (frameBuffer[index + word] & first) | (frameBuffer[index + (word ^ 1)] & second);
+		frameBuffer[index + word] ^= first;
+		frameBuffer[index + (word ^ 1)] ^= second;
+		return collision;
+	}
+	
+	/**
+	 * @param plane number of the bitplane
+	 * @param row number of the row
+	 * @return index in the framebuffer of the first word of the row, the word holding the
+	 * leftmost 64 pixels; the next word holds the other 64 in high resolution
+	 */
+	public static int rowIndex(int plane, int row) {
+		return (plane * HIRES_SCREEN_HEIGHT + row) * ROW_WORDS;
+	}
+	
+	int getDelayTimer() {
+		return delayTimer;
+	}
+	
+	void setDelayTimer(int value) {
+		delayTimer = value;
+	}
+	
+	void setSoundTimer(int value) {
+		soundTimer = value;
+	}
+	
+	/**
+	 * @return addresses I can hold, for the block compiler
+	 */
+	int indexMask() {
+		return indexMask;
+	}
+	
+	/**
+	 * @return the keys held down as the input source reports them, for the block compiler
+	 */
+	int keyState() {
+		return inputSource.getKeyState();
+	}
+	
+	/**
+	 * @return whether skips step over the whole of a 4 byte F000 NNNN, for the block compiler
+	 */
+	boolean isSkippingLongLoads() {
+		return isSkippingLongLoads;
+	}
+	
+	/**
+	 * copy the whole machine state into a snapshot, without allocating
+	 * @param snapshot the snapshot to fill
+	 */
+	public void saveState(Snapshot snapshot) {
+		System.arraycopy(V, 0, snapshot.data, Snapshot.REGISTERS_OFFSET, 16);
+		snapshot.putShort(Snapshot.INDEX_OFFSET, indexRegister);
+		snapshot.putShort(Snapshot.PC_OFFSET, pc);
+		snapshot.putShort(Snapshot.SP_OFFSET, sp);
+		snapshot.data[Snapshot.DELAY_TIMER_OFFSET] = (byte)delayTimer;
+		snapshot.data[Snapshot.SOUND_TIMER_OFFSET] = (byte)soundTimer;
+		snapshot.data[Snapshot.KEY_OFFSET] = (byte)(isWaitingForKey ? 1 : 0);
+		snapshot.putLong(Snapshot.RANDOM_OFFSET, randomState);
+		snapshot.data[Snapshot.SCREEN_MODE_OFFSET] = (byte)(screenWidth == HIRES_SCREEN_WIDTH ? 1 : 0);
+		snapshot.data[Snapshot.PLANE_OFFSET] = (byte)planeMask;
+		snapshot.data[Snapshot.PITCH_OFFSET] = (byte)pitch;
+		System.arraycopy(flags, 0, snapshot.data, Snapshot.FLAGS_OFFSET, FLAG_COUNT);
+		System.arraycopy(audioPattern, 0, snapshot.data, Snapshot.AUDIO_PATTERN_OFFSET, AUDIO_PATTERN_SIZE);
+		snapshot.data[Snapshot.QUIRKS_OFFSET] = (byte)quirks.ordinal();
+		snapshot.putLong(Snapshot.INSTRUCTION_COUNT_OFFSET, instructionCount);
+		snapshot.updateLayout();
+		// only the memory the profile addresses, and the planes it draws at this resolution
+		System.arraycopy(memory, 0, snapshot.data, Snapshot.MEMORY_OFFSET, quirks.getMemorySize());
+		int words = screenWidth / 64;
+		int offset = snapshot.getFrameBufferOffset();
+		for(int plane = 0 ; plane < snapshot.getPlaneCount() ; plane++) {
+			for(int row = 0 ; row < screenHeight ; row++) {
+				for(int word = 0 ; word < words ; word++) {
+					snapshot.putLong(offset, frameBuffer[rowIndex(plane, row) + word]);
+					offset += 8;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * put the machine back in the state of a snapshot, without allocating; only the
+	 * memory that differs is written, so decoded and compiled code elsewhere survives.
+	 * The machine takes the quirks profile and the instruction count of the snapshot.
+	 * @param snapshot the snapshot to restore
+	 */
+	public void restoreState(Snapshot snapshot) {
+		byte[] data = snapshot.data;
+		if(snapshot.getQuirks() != quirks) {
+			setQuirks(snapshot.getQuirks());
+		}
+		instructionCount = snapshot.getInstructionCount();
+		for(int i = 0 ; i < quirks.getMemorySize() ; i++) {
+			if(memory[i] != data[Snapshot.MEMORY_OFFSET + i]) {
+				writeMemory(i, data[Snapshot.MEMORY_OFFSET + i]);
+			}
+		}
+		System.arraycopy(data, Snapshot.REGISTERS_OFFSET, V, 0, 16);
+		indexRegister = snapshot.getShort(Snapshot.INDEX_OFFSET);
+		pc = snapshot.getShort(Snapshot.PC_OFFSET);
+		sp = snapshot.getShort(Snapshot.SP_OFFSET);
+		delayTimer = data[Snapshot.DELAY_TIMER_OFFSET] & 0xFF;
+		soundTimer = data[Snapshot.SOUND_TIMER_OFFSET] & 0xFF;
+		isWaitingForKey = data[Snapshot.KEY_OFFSET] == 1;
+		randomState = snapshot.getLong(Snapshot.RANDOM_OFFSET);
+		boolean isHigh = data[Snapshot.SCREEN_MODE_OFFSET] == 1;
+		int width = isHigh ? HIRES_SCREEN_WIDTH : SCREEN_WIDTH;
+		if(width != screenWidth) {
+			// the words the snapshot leaves out have to be blank, as after a mode switch
+			Arrays.fill(frameBuffer, 0);
+		}
+		screenWidth = width;
+		screenHeight = isHigh ? HIRES_SCREEN_HEIGHT : SCREEN_HEIGHT;
+		planeMask = data[Snapshot.PLANE_OFFSET];
+		pitch = data[Snapshot.PITCH_OFFSET] & 0xFF;
+		System.arraycopy(data, Snapshot.FLAGS_OFFSET, flags, 0, FLAG_COUNT);
+		System.arraycopy(data, Snapshot.AUDIO_PATTERN_OFFSET, audioPattern, 0, AUDIO_PATTERN_SIZE);
+		int words = screenWidth / 64;
+		int offset = snapshot.getFrameBufferOffset();
+		for(int plane = 0 ; plane < snapshot.getPlaneCount() ; plane++) {
+			for(int row = 0 ; row < screenHeight ; row++) {
+				for(int word = 0 ; word < words ; word++) {
+					frameBuffer[rowIndex(plane, row) + word] = snapshot.getLong(offset);
+					offset += 8;
+				}
+			}
+		}
+		frameSink.frameUpdated(frameBuffer, screenWidth, screenHeight);
+	}
+	
+	/**
+	 * hash the whole machine state: memory, registers, timers, the screen mode, flags,
+	 * audio pattern and the framebuffer
+	 * @return a 64 bit FNV-1a hash of the state
+	 */
+	public long stateHash() {
+		long hash = 0xCBF29CE484222325L;
+		for(int i = 0 ; i < MEMORY_SIZE ; i++) {
+			hash = (hash ^ (memory[i] & 0xFF)) * 0x100000001B3L;
+		}
+		for(int i = 0 ; i < 16 ; i++) {
+			hash = (hash ^ (V[i] & 0xFF)) * 0x100000001B3L;
+		}
+		hash = (hash ^ pc) * 0x100000001B3L;
+		hash = (hash ^ indexRegister) * 0x100000001B3L;
+		hash = (hash ^ sp) * 0x100000001B3L;
+		hash = (hash ^ delayTimer) * 0x100000001B3L;
+		hash = (hash ^ soundTimer) * 0x100000001B3L;
+		hash = (hash ^ randomState) * 0x100000001B3L;
+		hash = (hash ^ screenWidth) * 0x100000001B3L;
+		hash = (hash ^ planeMask) * 0x100000001B3L;
+		hash = (hash ^ pitch) * 0x100000001B3L;
+		for(int i = 0 ; i < FLAG_COUNT ; i++) {
+			hash = (hash ^ (flags[i] & 0xFF)) * 0x100000001B3L;
+		}
+		for(int i = 0 ; i < AUDIO_PATTERN_SIZE ; i++) {
+			hash = (hash ^ (audioPattern[i] & 0xFF)) * 0x100000001B3L;
+		}
+		for(int i = 0 ; i < FRAME_BUFFER_SIZE ; i++) {
+			hash = (hash ^ frameBuffer[i]) * 0x100000001B3L;
+		}
+		return hash;
+	}
+	
+	/**
+	 * @return number of instructions run through {@link #execute(int)} since the last reset,
+	 * the clock input logs are indexed by
+	 */
+	public long getInstructionCount() {
+		return instructionCount;
+	}
+	
+	/**
+	 * @return number of times since the last reset a CALL ran the stack past the start of
+	 * memory or a RET past its end, the stack pointer wrapping around; a correct program
+	 * never does
+	 */
+	public long getStackFaults() {
+		return stackFaults;
+	}
+	
+	public int getPC() {
+		return pc;
+	}
+	
+	public int getIndexRegister() {
+		return indexRegister;
+	}
+	
+	/**
+	 * @param index number of the register
+	 * @return the unsigned value of register V[index]
+	 */
+	public int getRegister(int index) {
+		return register(index);
+	}
+	
+	public int getSoundTimer() {
+		return soundTimer;
+	}
+	
+	/**
+	 * @return the live framebuffer, rows of {@link #ROW_WORDS} longs found with
+	 * {@link #rowIndex(int, int)}, the leftmost pixel in the highest bit
+	 */
+	public long[] getFrameBuffer() {
+		return frameBuffer;
+	}
+	
+	/**
+	 * @return width of the screen in the current mode, 64 or 128
+	 */
+	public int getScreenWidth() {
+		return screenWidth;
+	}
+	
+	/**
+	 * @return height of the screen in the current mode, 32 or 64
+	 */
+	public int getScreenHeight() {
+		return screenHeight;
+	}
+	
+	/**
+	 * @return the live XO-CHIP audio pattern, 128 one bit samples from the highest bit of
+	 * the first byte
+	 */
+	public byte[] getAudioPattern() {
+		return audioPattern;
+	}
+	
+	/**
+	 * @return the XO-CHIP pitch register, the pattern plays at 4000 * 2^((pitch - 64) / 48)
+	 * samples per second
+	 */
+	public int getPitch() {
+		return pitch;
+	}
+	
+	/**
+	 * @return the live memory
+	 */
+	public byte[] getMemory() {
+		return memory;
+	}
+}
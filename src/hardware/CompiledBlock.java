@@ -0,0 +1,27 @@
+package hardware;
+
+/**
+ * A straight-line run of instructions compiled to bytecode by the {@link BlockCompiler},
+ * which may end with the jump or skip leaving it.
+ *
+ * A class rather than an interface, as every block is another class and the machine
+ * calls them all from one place: a virtual call then costs a table load, where an
+ * interface call searches the interfaces of the class.
+ *
+ * @author Richard Yang
+ *
+ */
+abstract class CompiledBlock {
+	
+	/**
+	 * run the instructions of the block, every one unless the budget runs out first
+	 * @param core the machine owning the state
+	 * @param V the registers of the machine
+	 * @param memory the memory of the machine
+	 * @param indexRegister the index register before the block
+	 * @param budget the most instructions to run, at least 1
+	 * @return the address of the next instruction in the high 16 bits and the index
+	 * register after the block in the low 16 bits
+	 */
+	abstract int run(Chip8Core core, byte[] V, byte[] memory, int indexRegister, int budget);
+}
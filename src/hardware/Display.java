@@ -1,26 +1,32 @@
 package hardware;
 
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.imageio.ImageIO;
 import javax.swing.JComponent;
+import javax.swing.Timer;
 
 /**
  * 
  * @author Richard Yang
  *
  */
-public class Display extends JComponent{
-
+public class Display extends JComponent implements FrameSink, InputSource{
+	
 	/**
 	 * 
 	 */
@@ -33,23 +39,98 @@ public class Display extends JComponent{
 	public static final int PIXEL_WIDTH = 10;
 	public static final int PIXEL_HEIGHT = 10;
 	
-	public static final int SCREEN_WIDTH = 64;
-	public static final int SCREEN_HEIGHT = 32;
-
-	private char[][] myPixels;
+	public static final int SCREEN_WIDTH = Chip8Core.SCREEN_WIDTH;
+	public static final int SCREEN_HEIGHT = Chip8Core.SCREEN_HEIGHT;
+	
+	/**
+	 * interval between two repaints, in milliseconds, about 60 Hz
+	 */
+	private static final int REFRESH_INTERVAL = 16;
 	
-	private boolean[] keyPressed; 
+	private static final int BACKGROUND_COLOR = Color.WHITE.getRGB();
+	
+	/**
+	 * color of a pixel by the planes it is set in: none, the first, the second, both;
+	 * also the palette of the exported pictures
+	 */
+	static final int[] PLANE_COLORS = {
+		BACKGROUND_COLOR, Color.BLACK.getRGB(), new Color(0xC0, 0x40, 0x20).getRGB(), Color.GRAY.getRGB() };
+	
+	private static final Rectangle OVERLAY_BOUNDS = new Rectangle(0, 0, 280, 110);
+	private static final int OVERLAY_LINE_HEIGHT = 15;
+	private static final Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+	private static final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 160);
+	private static final Color OVERLAY_TEXT_COLOR = Color.GREEN;
+	/**
+	 * refreshes between two repaints of the overlay, four per second
+	 */
+	private static final int OVERLAY_REFRESH_TICKS = 15;
+	
+	/**
+	 * key stepping the machine backward while held
+	 */
+	public static final int REWIND_KEY = KeyEvent.VK_BACK_SPACE;
+	
+	//framebuffer shown in myImage, laid out as in Chip8Core
+	private long[] myPixels;
+	
+	//size of the screen shown in myImage
+	private int myWidth;
+	private int myHeight;
+	
+	//latest framebuffer and screen size from the emulation thread, guarded by pendingPixels
+	private final long[] pendingPixels;
+	private int pendingWidth;
+	private int pendingHeight;
+	
+	//whether pendingPixels changed since the last refresh
+	private boolean isDirty;
+	
+	//one image pixel per screen pixel, scaled when painted
+	private BufferedImage myImage;
+	
+	//the raster of myImage
+	private int[] imagePixels;
+	
+	//time spent in the last paint and the longest paint, in nanoseconds
+	private volatile long paintTime;
+	private volatile long maxPaintTime;
+	
+	//keys held down, bit k set when key k is pressed, written by the event dispatch thread only
+	private final AtomicInteger keyState;
+	
+	//press and release edges, from the event dispatch thread to the emulation thread
+	private final KeyEventQueue keyEvents;
 	
 	private final Map<Integer, Integer> keyMap;
 	
+	//turns the keys of the keyboard into keypad keys, for this display and other screens
+	private KeyListener myKeyListener;
+	
+	//whether the rewind key is held down
+	private volatile boolean isRewindHeld;
+	
+	//counts the paints and dropped key edges and is shown by the overlay, null for none
+	private Metrics myMetrics;
+	
+	//whether the overlay is shown, and refreshes since it was last repainted
+	private boolean isOverlayVisible;
+	private int overlayAge;
+	
 	public Display() {
 		super();
 		makeSettings();
-		myPixels = new char[SCREEN_HEIGHT][SCREEN_WIDTH];
-		keyPressed = new boolean[16];
+		myPixels = new long[Chip8Core.FRAME_BUFFER_SIZE];
+		pendingPixels = new long[Chip8Core.FRAME_BUFFER_SIZE];
+		pendingWidth = SCREEN_WIDTH;
+		pendingHeight = SCREEN_HEIGHT;
+		resetImage(SCREEN_WIDTH, SCREEN_HEIGHT);
+		keyState = new AtomicInteger();
+		keyEvents = new KeyEventQueue();
 		keyMap = new HashMap<Integer, Integer>();
-		initializeKeyMap();
+		initializeKeyMap(keyMap);
 		addKeyListener();
+		startRefreshTimer();
 	}
 	
 	private void makeSettings() {
@@ -60,122 +141,299 @@ public class Display extends JComponent{
 		setVisible(true);
 	}
 	
-	private void initializeKeyMap() {
-		keyMap.put(KeyEvent.VK_1, 0);
-		keyMap.put(KeyEvent.VK_2, 1);
-		keyMap.put(KeyEvent.VK_3, 2);
-		keyMap.put(KeyEvent.VK_4, 3);
-		keyMap.put(KeyEvent.VK_Q, 4);
-		keyMap.put(KeyEvent.VK_W, 5);
-		keyMap.put(KeyEvent.VK_E, 6);
-		keyMap.put(KeyEvent.VK_R, 7);
-		keyMap.put(KeyEvent.VK_A, 8);
-		keyMap.put(KeyEvent.VK_S, 9);
-		keyMap.put(KeyEvent.VK_D, 10);
-		keyMap.put(KeyEvent.VK_F, 11);
-		keyMap.put(KeyEvent.VK_Z, 12);
-		keyMap.put(KeyEvent.VK_X, 13);
-		keyMap.put(KeyEvent.VK_C, 14);
-		keyMap.put(KeyEvent.VK_V, 15);
-	}
-	
-	
-	public void clear() {
-	    for(int i=0 ; i<SCREEN_HEIGHT ; i++) {
-	    	for(int j = 0 ; j < SCREEN_WIDTH ; j++) {
-	    		myPixels[i][j] = '0';
-	    	}
-	    }	
-	}
-	
-	public void draw8Bit(int x, int y, char info, boolean isFlipped) {
-		System.out.println("X : " + x);
-		System.out.println("Y : " + y);
-		System.out.println("Information : " + Integer.toBinaryString(info));
-		int width = Math.min(8, 64 - x);
-		int realY = Math.min(y, 31);
-		for(int i =0 ; i<width ; i++) {
-			int input = getBit(info, 7-i);
-			char origin = myPixels[realY][x+i];
-			if(input == 1) {
-				if(origin == '1'){
-					isFlipped = true;
-					myPixels[realY][x+i] = '0';
-				}else {
-					myPixels[realY][x+i] = '1';
-				}
-			}
+	/**
+	 * map the keys of the left hand side of a keyboard to the keypad, the row 1 2 3 4
+	 * being 1 2 3 C; also used by the terminal display, whose characters are the key codes
+	 * of their keys
+	 */
+	static void initializeKeyMap(Map<Integer, Integer> keyMap) {
+		keyMap.put(KeyEvent.VK_1, 0x1);
+		keyMap.put(KeyEvent.VK_2, 0x2);
+		keyMap.put(KeyEvent.VK_3, 0x3);
+		keyMap.put(KeyEvent.VK_4, 0xC);
+		keyMap.put(KeyEvent.VK_Q, 0x4);
+		keyMap.put(KeyEvent.VK_W, 0x5);
+		keyMap.put(KeyEvent.VK_E, 0x6);
+		keyMap.put(KeyEvent.VK_R, 0xD);
+		keyMap.put(KeyEvent.VK_A, 0x7);
+		keyMap.put(KeyEvent.VK_S, 0x8);
+		keyMap.put(KeyEvent.VK_D, 0x9);
+		keyMap.put(KeyEvent.VK_F, 0xE);
+		keyMap.put(KeyEvent.VK_Z, 0xA);
+		keyMap.put(KeyEvent.VK_X, 0x0);
+		keyMap.put(KeyEvent.VK_C, 0xB);
+		keyMap.put(KeyEvent.VK_V, 0xF);
+	}
+	
+	/**
+	 * only copies the framebuffer, the refresh timer repaints at most once per interval
+	 */
+	@Override
+	public void frameUpdated(long[] frameBuffer, int width, int height) {
+		synchronized(pendingPixels) {
+			System.arraycopy(frameBuffer, 0, pendingPixels, 0, Chip8Core.FRAME_BUFFER_SIZE);
+			pendingWidth = width;
+			pendingHeight = height;
+			isDirty = true;
 		}
 	}
 	
-	private int getBit(char info, int position) {
-		return (info >> position) & 0x01;
+	/**
+	 * start over with a blank image of one pixel per screen pixel
+	 */
+	private void resetImage(int width, int height) {
+		myWidth = width;
+		myHeight = height;
+		Arrays.fill(myPixels, 0);
+		myImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		imagePixels = ((DataBufferInt)myImage.getRaster().getDataBuffer()).getData();
+		Arrays.fill(imagePixels, BACKGROUND_COLOR);
 	}
 	
-    private void printPixels() {
-    	for(int i = 0 ; i < SCREEN_HEIGHT ; i++) {
-    		for(int j = 0; j < SCREEN_WIDTH; j++) {
-    			System.out.print(myPixels[i][j]);
-    			System.out.print(" ");
-    		}
-    		System.out.println("\n");
-    	}
-    }
+	private void startRefreshTimer() {
+		ActionListener listener = new ActionListener() {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				refresh();
+			}
+		};
+		new Timer(REFRESH_INTERVAL, listener).start();
+	}
+	
+	/**
+	 * bring myImage up to date with the pending framebuffer and repaint the changed area,
+	 * runs on the event dispatch thread
+	 */
+	private void refresh() {
+		if(isOverlayVisible && ++overlayAge >= OVERLAY_REFRESH_TICKS) {
+			overlayAge = 0;
+			repaint(OVERLAY_BOUNDS);
+		}
+		
+		int top = Chip8Core.HIRES_SCREEN_HEIGHT;
+		int bottom = -1;
+		int left = Chip8Core.HIRES_SCREEN_WIDTH;
+		int right = 0;
+		boolean isResized = false;
+		
+		synchronized(pendingPixels) {
+			if(!isDirty) {
+				return;
+			}
+			isDirty = false;
+			if(pendingWidth != myWidth || pendingHeight != myHeight) {
+				resetImage(pendingWidth, pendingHeight);
+				isResized = true;
+			}
+			int words = myWidth / 64;
+			for(int i = 0 ; i < myHeight ; i++) {
+				for(int word = 0 ; word < words ; word++) {
+					int first = Chip8Core.rowIndex(0, i) + word;
+					int second = Chip8Core.rowIndex(1, i) + word;
+					long changed = (myPixels[first] ^ pendingPixels[first]) | (myPixels[second] ^ pendingPixels[second]);
+					if(changed == 0) {
+						continue;
+					}
+					myPixels[first] = pendingPixels[first];
+					myPixels[second] = pendingPixels[second];
+					top = Math.min(top, i);
+					bottom = i;
+					left = Math.min(left, word * 64 + Long.numberOfLeadingZeros(changed));
+					right = Math.max(right, word * 64 + 64 - Long.numberOfTrailingZeros(changed));
+					
+					int rowStart = i * myWidth + word * 64;
+					while(changed != 0) {
+						int column = Long.numberOfLeadingZeros(changed);
+						int color = (int)((myPixels[first] << column) >>> 63) | (int)((myPixels[second] << column) >>> 63) << 1;
+						imagePixels[rowStart + column] = PLANE_COLORS[color];
+						changed &= ~(Long.MIN_VALUE >>> column);
+					}
+				}
+			}
+		}
+		
+		if(isResized) {
+			repaint();
+		} else if(bottom >= 0) {
+			//one screen pixel is PIXEL_WIDTH wide at 64 columns, half of it at 128
+			int scale = SCREEN_WIDTH * PIXEL_WIDTH / myWidth;
+			repaint(left * scale, top * scale, (right - left) * scale, (bottom - top + 1) * scale);
+		}
+	}
 	
 	@Override
 	public void paint(Graphics g) {
+		long start = System.nanoTime();
 		
-		super.paint(g);
-		BufferedImage image = null;
-		try {
-			image = ImageIO.read(new File("./image/white.png"));
-		} catch (IOException e) {
-				e.printStackTrace();
+		g.drawImage(myImage, 0, 0, SCREEN_WIDTH * PIXEL_WIDTH, SCREEN_HEIGHT * PIXEL_HEIGHT, null);
+		if(isOverlayShown()) {
+			paintOverlay(g);
 		}
-		Graphics g2 = image.createGraphics();
-		this.paintComponents(g2);
-		g2.setColor(Color.BLACK);
 		
-		for(int i = 0 ; i < SCREEN_HEIGHT ; i++) {
-			for(int j =0 ; j < SCREEN_WIDTH ; j++) {
-				if(myPixels[i][j] == '1') {
-				    g2.fillRect(j * PIXEL_WIDTH, i * PIXEL_HEIGHT, PIXEL_WIDTH, PIXEL_HEIGHT);
-				}
+		paintTime = System.nanoTime() - start;
+		if(paintTime > maxPaintTime) {
+			maxPaintTime = paintTime;
+		}
+		if(myMetrics != null) {
+			myMetrics.framePainted(paintTime);
+		}
+	}
+	
+	/**
+	 * @return whether the metrics are to be drawn over the screen
+	 */
+	boolean isOverlayShown() {
+		return isOverlayVisible && myMetrics != null;
+	}
+	
+	/**
+	 * draw the metrics in the top left corner, for this display and other screens
+	 */
+	void paintOverlay(Graphics g) {
+		int busiest = 0;
+		for(int i = 1 ; i < Metrics.FAMILY_NAMES.length ; i++) {
+			if(myMetrics.getFamilyCount(i) > myMetrics.getFamilyCount(busiest)) {
+				busiest = i;
 			}
 		}
+		long instructions = Math.max(1, myMetrics.getInstructionCount());
+		String[] lines = {
+			String.format("%.0f instructions/s", myMetrics.getInstructionsPerSecond()),
+			String.format("%.1f frames/s  %.1f paints/s", myMetrics.getFramesPerSecond(), myMetrics.getPaintsPerSecond()),
+			String.format("%.0f DXYN/s  %d timer ticks", myMetrics.getDrawsPerSecond(), myMetrics.getTimerTicks()),
+			String.format("paint %d us, max %d us", myMetrics.getPaintTime() / 1000, myMetrics.getMaxPaintTime() / 1000),
+			String.format("busiest %s %.0f%%", Metrics.FAMILY_NAMES[busiest],
+					100.0 * myMetrics.getFamilyCount(busiest) / instructions),
+			myMetrics.getRunAheadFrames() == 0 ? "run-ahead off"
+					: String.format("run-ahead %d frames, %d us/frame", myMetrics.getRunAheadFrames(),
+							myMetrics.getRunAheadTime() / 1000),
+			myMetrics.getRewindSeconds() == 0 ? "rewind off"
+					: String.format("rewind %.1f s, %.0f bytes/frame", myMetrics.getRewindSeconds(),
+							myMetrics.getRewindBytesPerFrame()) };
 		
-		g.drawImage(image, 0, 0, this);
+		g.setColor(OVERLAY_BACKGROUND);
+		g.fillRect(OVERLAY_BOUNDS.x, OVERLAY_BOUNDS.y, OVERLAY_BOUNDS.width, OVERLAY_BOUNDS.height);
+		g.setColor(OVERLAY_TEXT_COLOR);
+		g.setFont(OVERLAY_FONT);
+		for(int i = 0 ; i < lines.length ; i++) {
+			g.drawString(lines[i], OVERLAY_BOUNDS.x + 4, OVERLAY_BOUNDS.y + (i + 1) * OVERLAY_LINE_HEIGHT);
+		}
+	}
+	
+	/**
+	 * @param metrics counts the paints and dropped key edges, and is shown by the overlay;
+	 * null for none
+	 */
+	public void setMetrics(Metrics metrics) {
+		myMetrics = metrics;
+	}
+	
+	/**
+	 * @param visible true to show the metrics over the screen
+	 */
+	public void setOverlayVisible(boolean visible) {
+		isOverlayVisible = visible;
+		repaint();
+	}
+	
+	/**
+	 * @return time spent in the last paint, in nanoseconds
+	 */
+	public long getPaintTime() {
+		return paintTime;
+	}
+	
+	/**
+	 * @return the longest time spent in a paint so far, in nanoseconds
+	 */
+	public long getMaxPaintTime() {
+		return maxPaintTime;
 	}
 	
 	private void addKeyListener() {
-		KeyListener listener = new KeyListener() {
-
+		myKeyListener = new KeyListener() {
+			
 			@Override
 			public void keyPressed(KeyEvent arg0) {
-				System.out.println("Key Pressed : " + arg0.getKeyChar());
-				if(keyMap.containsKey(arg0.getKeyCode())) {
-					keyPressed[keyMap.get(arg0.getKeyCode())] = true;
+				if(arg0.getKeyCode() == REWIND_KEY) {
+					isRewindHeld = true;
+				}
+				Integer key = keyMap.get(arg0.getKeyCode());
+				if(key != null) {
+					updateKey(key, true);
 				}
 			}
 
 			@Override
 			public void keyReleased(KeyEvent arg0) {
-				if(keyMap.containsKey(arg0.getKeyCode())) {
-					keyPressed[keyMap.get(arg0.getKeyCode())] = false;
+				if(arg0.getKeyCode() == REWIND_KEY) {
+					isRewindHeld = false;
+				}
+				Integer key = keyMap.get(arg0.getKeyCode());
+				if(key != null) {
+					updateKey(key, false);
 				}
 			}
 
 			@Override
 			public void keyTyped(KeyEvent arg0) {
-				
-			}
 			
+			}
+		
 		};
-		this.addKeyListener(listener);
+		this.addKeyListener(myKeyListener);
 	} 
 	
-	public boolean[] getPressedKeys() {
-		return keyPressed;
+	/**
+	 * take the keypad keys from another component, a screen shown instead of this display
+	 * @param component the component with the keyboard focus
+	 */
+	public void listenTo(Component component) {
+		component.addKeyListener(myKeyListener);
+	}
+	
+	/**
+	 * publish a key change, ignoring the repeated presses of a key held down; when the
+	 * emulation is too far behind to take the edge, the key state still holds it and only
+	 * the edge is dropped and counted
+	 */
+	private void updateKey(int key, boolean pressed) {
+		int state = keyState.get();
+		int newState = pressed ? state | (1 << key) : state & ~(1 << key);
+		if(newState != state) {
+			keyState.set(newState);
+			if(!keyEvents.offer(pressed ? KeyEventQueue.pressed(key) : KeyEventQueue.released(key))
+					&& myMetrics != null) {
+				myMetrics.keyEventDropped();
+			}
+		}
+	}
+	
+	@Override
+	public int getKeyState() {
+		return keyState.get();
+	}
+	
+	@Override
+	public int pollKeyEvent() {
+		return keyEvents.poll();
+	}
+	
+	/**
+	 * a key is typed at no particular instruction count and is only seen when the keypad
+	 * is polled, so a wait for a key may be counted to the end of the frame
+	 */
+	@Override
+	public long nextInputCount(long count) {
+		return Long.MAX_VALUE;
+	}
+	
+	/**
+	 * @return whether the rewind key is held down
+	 */
+	public boolean isRewindHeld() {
+		return isRewindHeld;
 	}
 
 }
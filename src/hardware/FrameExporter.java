@@ -0,0 +1,267 @@
+package hardware;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A {@link FrameSink} writing one picture of the screen per emulated frame to a file,
+ * for recording runs without a display.
+ *
+ * The emulation thread only copies the framebuffer: into a staging array whenever it
+ * changes, and into one of a fixed pool of frames at the end of every emulated frame,
+ * which {@link Scheduler#setFrameExporter(FrameExporter)} signals. The frames go through
+ * a bounded queue to a background thread that encodes them. A live exporter drops a
+ * frame rather than wait when the encoder is behind, so capturing never slows the
+ * machine down; a lossless one, for offline runs, waits for the encoder instead.
+ *
+ * Every frame carries its number, counted from 0 at the first frame, so the frames
+ * dropped or deduplicated never change the timing of the ones written.
+ *
+ * @author Richard Yang
+ *
+ */
+public abstract class FrameExporter implements FrameSink {
+	/**
+	 * number of frames waiting to be encoded at most, a second of emulation
+	 */
+	public static final int QUEUE_SIZE = Scheduler.TIMER_FREQUENCY;
+	/**
+	 * size of a screen pixel in the pictures written, which are always 128x64 screen
+	 * pixels so a change of resolution keeps the same picture size
+	 */
+	public static final int DEFAULT_SCALE = 4;
+	
+	/**
+	 * a framebuffer copied at the end of an emulated frame
+	 */
+	private static class Frame {
+		final long[] pixels = new long[Chip8Core.FRAME_BUFFER_SIZE];
+		int width;
+		int height;
+		long number;
+	}
+	
+	/**
+	 * put in the queue after the last frame, to stop the encoder
+	 */
+	private static final Frame END = new Frame();
+	
+	//the framebuffer as of the last change, emulation thread only
+	private final long[] latest;
+	private int latestWidth;
+	private int latestHeight;
+	
+	//frames ready to be filled and frames waiting to be encoded
+	private final BlockingQueue<Frame> freeFrames;
+	private final BlockingQueue<Frame> queuedFrames;
+	
+	private final boolean isLossless;
+	
+	//number of the next frame, emulation thread only
+	private long frameNumber;
+	
+	private volatile long droppedFrames;
+	private volatile long encodedFrames;
+	
+	//the first error of the encoder, thrown by close
+	private volatile IOException error;
+	
+	private final Thread encoderThread;
+	
+	/**
+	 * @param name what is written, to name the encoder thread
+	 * @param isLossless true to wait for the encoder rather than drop frames
+	 */
+	protected FrameExporter(String name, boolean isLossless) {
+		this.isLossless = isLossless;
+		latest = new long[Chip8Core.FRAME_BUFFER_SIZE];
+		latestWidth = Chip8Core.SCREEN_WIDTH;
+		latestHeight = Chip8Core.SCREEN_HEIGHT;
+		freeFrames = new ArrayBlockingQueue<Frame>(QUEUE_SIZE);
+		queuedFrames = new ArrayBlockingQueue<Frame>(QUEUE_SIZE + 1);
+		for(int i = 0 ; i < QUEUE_SIZE ; i++) {
+			freeFrames.add(new Frame());
+		}
+		encoderThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				encode();
+			}
+		}, "CHIP-8 export " + name);
+		encoderThread.setDaemon(true);
+	}
+	
+	/**
+	 * open an exporter chosen by the name of the target, and start its encoder
+	 * @param target a ".gif" file for an animated GIF, a ".raw" file for a raw frame
+	 *        stream, or anything else for a directory of PNG pictures
+	 * @param isLossless true to wait for the encoder rather than drop frames
+	 * @return the exporter, to set as the frame sink of the machine and the frame exporter
+	 *         of its scheduler
+	 * @throws IOException if the target cannot be created
+	 */
+	public static FrameExporter open(File target, boolean isLossless) throws IOException {
+		String name = target.getName().toLowerCase();
+		FrameExporter exporter;
+		if(name.endsWith(".gif")) {
+			exporter = new GifFrameExporter(target, DEFAULT_SCALE, isLossless);
+		} else if(name.endsWith(".raw")) {
+			exporter = new RawFrameExporter(target, isLossless);
+		} else {
+			exporter = new PngFrameExporter(target, DEFAULT_SCALE, isLossless);
+		}
+		exporter.encoderThread.start();
+		return exporter;
+	}
+	
+	/**
+	 * only copies the framebuffer, the frame is taken at the end of the emulated frame
+	 */
+	@Override
+	public void frameUpdated(long[] frameBuffer, int width, int height) {
+		System.arraycopy(frameBuffer, 0, latest, 0, Chip8Core.FRAME_BUFFER_SIZE);
+		latestWidth = width;
+		latestHeight = height;
+	}
+	
+	/**
+	 * hand the screen as of the end of an emulated frame to the encoder, on the emulation
+	 * thread
+	 */
+	public void endFrame() {
+		Frame frame = freeFrames.poll();
+		if(frame == null && isLossless) {
+			try {
+				frame = freeFrames.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		long number = frameNumber++;
+		if(frame == null) {
+			droppedFrames++;
+			return;
+		}
+		System.arraycopy(latest, 0, frame.pixels, 0, Chip8Core.FRAME_BUFFER_SIZE);
+		frame.width = latestWidth;
+		frame.height = latestHeight;
+		frame.number = number;
+		queuedFrames.add(frame);
+	}
+	
+	/**
+	 * encode the frames already taken, close the file and stop the encoder
+	 * @throws IOException if a frame or the end of the file could not be written
+	 */
+	public void close() throws IOException {
+		queuedFrames.add(END);
+		try {
+			encoderThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(error != null) {
+			throw error;
+		}
+	}
+	
+	/**
+	 * encode the queued frames until the end, on the encoder thread; after an error the
+	 * frames are still taken, so a lossless exporter never blocks the machine for good
+	 */
+	private void encode() {
+		while(true) {
+			Frame frame;
+			try {
+				frame = queuedFrames.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+			if(frame == END) {
+				break;
+			}
+			if(error == null) {
+				try {
+					writeFrame(frame.pixels, frame.width, frame.height, frame.number);
+					encodedFrames++;
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+			freeFrames.add(frame);
+		}
+		try {
+			finish(frameNumber);
+		} catch (IOException e) {
+			if(error == null) {
+				error = e;
+			}
+		}
+	}
+	
+	/**
+	 * write one frame, on the encoder thread
+	 * @param frame the framebuffer, laid out as in {@link Chip8Core}
+	 * @param width width of the screen, 64 or 128
+	 * @param height height of the screen, 32 or 64
+	 * @param number number of the frame
+	 * @throws IOException if the frame cannot be written
+	 */
+	protected abstract void writeFrame(long[] frame, int width, int height, long number) throws IOException;
+	
+	/**
+	 * write what is left and close the file, on the encoder thread
+	 * @param frames number of frames taken, written or not
+	 * @throws IOException if the file cannot be completed
+	 */
+	protected abstract void finish(long frames) throws IOException;
+	
+	/**
+	 * @param frame a framebuffer, laid out as in {@link Chip8Core}
+	 * @param x column of the pixel, below the screen width
+	 * @param y row of the pixel, below the screen height
+	 * @return the planes the pixel is set in, bit p for plane p, an index in the palette
+	 */
+	protected static int planesAt(long[] frame, int x, int y) {
+		int word = x >> 6;
+		int shift = x & 63;
+		return (int)((frame[Chip8Core.rowIndex(0, y) + word] << shift) >>> 63)
+				| (int)((frame[Chip8Core.rowIndex(1, y) + word] << shift) >>> 63) << 1;
+	}
+	
+	/**
+	 * draw a framebuffer as palette indices, one per picture pixel, scaling it to fill
+	 * the picture with the nearest screen pixel
+	 * @param frame a framebuffer, laid out as in {@link Chip8Core}
+	 * @param width width of the screen
+	 * @param height height of the screen
+	 * @param picture the palette indices, row after row
+	 * @param pictureWidth width of the picture
+	 * @param pictureHeight height of the picture
+	 */
+	protected static void render(long[] frame, int width, int height, byte[] picture, int pictureWidth, int pictureHeight) {
+		for(int row = 0 ; row < pictureHeight ; row++) {
+			int y = row * height / pictureHeight;
+			int rowStart = row * pictureWidth;
+			for(int column = 0 ; column < pictureWidth ; column++) {
+				picture[rowStart + column] = (byte)planesAt(frame, column * width / pictureWidth, y);
+			}
+		}
+	}
+	
+	/**
+	 * @return frames dropped because the encoder was behind
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+	
+	/**
+	 * @return frames the encoder has written, including the duplicates it merged
+	 */
+	public long getEncodedFrames() {
+		return encodedFrames;
+	}
+}
@@ -0,0 +1,22 @@
+package hardware;
+
+/**
+ * Receives the framebuffer of a {@link Chip8Core} whenever it changes.
+ *
+ * @author Richard Yang
+ *
+ */
+public interface FrameSink {
+	
+	/**
+	 * called on the emulation thread after the screen was drawn, cleared, scrolled or
+	 * changed resolution
+	 * @param frameBuffer the live framebuffer, {@link Chip8Core#PLANE_COUNT} planes of
+	 *        {@link Chip8Core#ROW_WORDS} longs per row, found with
+	 *        {@link Chip8Core#rowIndex(int, int)}, the leftmost pixel in the highest bit;
+	 *        copy it if it is needed after this call
+	 * @param width width of the screen, 64 or 128; only the first word of a row is used at 64
+	 * @param height height of the screen, 32 or 64
+	 */
+	void frameUpdated(long[] frameBuffer, int width, int height);
+}
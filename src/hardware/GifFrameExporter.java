@@ -0,0 +1,160 @@
+package hardware;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Writes the frames as an animated GIF that loops forever.
+ *
+ * A frame identical to the one before is not written: the picture waiting to be written
+ * is held until a different one comes, and its delay then covers every frame it was
+ * shown for. GIF delays are in hundredths of a second, so the delays are taken between
+ * the rounded times of the frames, and 60 Hz never drifts.
+ *
+ * Browsers show a frame with a delay under 2 hundredths for 10, so no frame is written
+ * for less than {@link #MIN_DELAY}: a picture that changes before then is dropped, and
+ * the next one takes its place from the time it was first shown. A rom flickering every
+ * frame thus plays at half the frames, at its own speed.
+ *
+ * @author Richard Yang
+ *
+ */
+public class GifFrameExporter extends FrameExporter {
+	
+	private static final String METADATA_FORMAT = "javax_imageio_gif_image_1.0";
+	
+	/**
+	 * shortest delay of a frame, in hundredths of a second
+	 */
+	static final int MIN_DELAY = 2;
+	
+	private final ImageOutputStream out;
+	private final ImageWriter writer;
+	
+	//the picture of the last frame, and the one waiting to be written with the frame
+	//its place in the animation starts at, -1 when there is none
+	private final BufferedImage image;
+	private final byte[] picture;
+	private final BufferedImage pendingImage;
+	private final byte[] pending;
+	private long pendingFrame;
+	
+	private boolean isFirst;
+	
+	/**
+	 * @param file the file to write
+	 * @param scale size of a high resolution screen pixel in the pictures
+	 * @param isLossless true to wait for the encoder rather than drop frames
+	 * @throws IOException if the file cannot be created
+	 */
+	GifFrameExporter(File file, int scale, boolean isLossless) throws IOException {
+		super(file.getName(), isLossless);
+		int width = Chip8Core.HIRES_SCREEN_WIDTH * scale;
+		int height = Chip8Core.HIRES_SCREEN_HEIGHT * scale;
+		image = PngFrameExporter.createImage(width, height);
+		picture = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+		pendingImage = PngFrameExporter.createImage(width, height);
+		pending = ((DataBufferByte)pendingImage.getRaster().getDataBuffer()).getData();
+		pendingFrame = -1;
+		isFirst = true;
+		
+		writer = ImageIO.getImageWritersByFormatName("gif").next();
+		if(file.exists() && !file.delete()) {
+			throw new IOException("cannot replace " + file);
+		}
+		out = ImageIO.createImageOutputStream(file);
+		if(out == null) {
+			throw new IOException("cannot create " + file);
+		}
+		writer.setOutput(out);
+		writer.prepareWriteSequence(null);
+	}
+	
+	@Override
+	protected void writeFrame(long[] frame, int width, int height, long number) throws IOException {
+		render(frame, width, height, picture, image.getWidth(), image.getHeight());
+		if(pendingFrame >= 0 && Arrays.equals(picture, pending)) {
+			return;
+		}
+		if(pendingFrame >= 0 && centiseconds(number) - centiseconds(pendingFrame) >= MIN_DELAY) {
+			writePending(number);
+			pendingFrame = -1;
+		}
+		// a pending picture shown too short to be written is replaced, keeping its start
+		System.arraycopy(picture, 0, pending, 0, picture.length);
+		if(pendingFrame < 0) {
+			pendingFrame = number;
+		}
+	}
+	
+	@Override
+	protected void finish(long frames) throws IOException {
+		try {
+			if(pendingFrame >= 0) {
+				writePending(Math.max(frames, pendingFrame + 1));
+			}
+			writer.endWriteSequence();
+		} finally {
+			writer.dispose();
+			out.close();
+		}
+	}
+	
+	/**
+	 * write the pending picture, shown until the given frame, or for the shortest delay
+	 */
+	private void writePending(long endFrame) throws IOException {
+		int delay = (int)Math.max(MIN_DELAY, centiseconds(endFrame) - centiseconds(pendingFrame));
+		IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(pendingImage), null);
+		IIOMetadataNode root = (IIOMetadataNode)metadata.getAsTree(METADATA_FORMAT);
+		
+		IIOMetadataNode control = child(root, "GraphicControlExtension");
+		control.setAttribute("disposalMethod", "none");
+		control.setAttribute("userInputFlag", "FALSE");
+		control.setAttribute("transparentColorFlag", "FALSE");
+		control.setAttribute("transparentColorIndex", "0");
+		control.setAttribute("delayTime", Integer.toString(Math.min(delay, 0xFFFF)));
+		
+		if(isFirst) {
+			// the NETSCAPE2.0 extension makes the animation loop forever
+			IIOMetadataNode application = new IIOMetadataNode("ApplicationExtension");
+			application.setAttribute("applicationID", "NETSCAPE");
+			application.setAttribute("authenticationCode", "2.0");
+			application.setUserObject(new byte[] { 1, 0, 0 });
+			child(root, "ApplicationExtensions").appendChild(application);
+			isFirst = false;
+		}
+		
+		metadata.setFromTree(METADATA_FORMAT, root);
+		writer.writeToSequence(new IIOImage(pendingImage, null, metadata), null);
+	}
+	
+	private static long centiseconds(long frame) {
+		return frame * 100 / Scheduler.TIMER_FREQUENCY;
+	}
+	
+	/**
+	 * @return the child of the node with the given name, added if there is none
+	 */
+	private static IIOMetadataNode child(IIOMetadataNode node, String name) {
+		for(int i = 0 ; i < node.getLength() ; i++) {
+			if(node.item(i).getNodeName().equals(name)) {
+				return (IIOMetadataNode)node.item(i);
+			}
+		}
+		IIOMetadataNode child = new IIOMetadataNode(name);
+		node.appendChild(child);
+		return child;
+	}
+}
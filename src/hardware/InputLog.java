@@ -0,0 +1,285 @@
+package hardware;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Everything needed to replay a run exactly: the random seed, the instruction rate,
+ * the quirks profile, every change of the keypad tagged with the instruction count it was first seen at,
+ * and every key edge tagged with the instruction count it was taken at.
+ *
+ * A log also ends with the number of instructions run and the state hash at the end of
+ * the recording, so a replay can check it reached the same machine.
+ *
+ * The file is a small header followed by one entry per key change: the instructions
+ * since the previous change as a varint, then the 16 bit key state; and then one entry
+ * per edge: the instructions since the previous edge as a varint, then the event.
+ *
+ * @author Richard Yang
+ *
+ */
+public class InputLog {
+	
+	/**
+	 * first bytes of an input log file
+	 */
+	private static final int FILE_MAGIC = 0x4338494C; // "C8IL"
+	private static final int FILE_VERSION = 3;
+	
+	private final long seed;
+	private final int instructionsPerSecond;
+	private final QuirksProfile quirks;
+	
+	//instruction count of each change, and the key state from then on
+	private long[] counts;
+	private int[] states;
+	private int stateCount;
+	
+	//instruction count of each key edge taken, and the edge
+	private long[] edgeCounts;
+	private int[] edges;
+	private int edgeCount;
+	
+	//length of the run and its final state, set when the recording ends
+	private long totalInstructions;
+	private long finalStateHash;
+	
+	/**
+	 * @param seed the seed of the random generator at the start of the run
+	 * @param instructionsPerSecond the instruction rate, which sets when the timers tick
+	 * @param quirks the quirks profile the rom runs with
+	 */
+	public InputLog(long seed, int instructionsPerSecond, QuirksProfile quirks) {
+		this.seed = seed;
+		this.instructionsPerSecond = instructionsPerSecond;
+		this.quirks = quirks;
+		counts = new long[64];
+		states = new int[64];
+		edgeCounts = new long[64];
+		edges = new int[64];
+	}
+	
+	/**
+	 * add a change of the keypad, counts must not decrease
+	 * @param count instruction count the new state was first seen at
+	 * @param state the key state from then on, bit k set when key k is pressed
+	 */
+	public void add(long count, int state) {
+		if(stateCount == counts.length) {
+			counts = Arrays.copyOf(counts, stateCount * 2);
+			states = Arrays.copyOf(states, stateCount * 2);
+		}
+		counts[stateCount] = count;
+		states[stateCount] = state;
+		stateCount++;
+	}
+	
+	/**
+	 * add a key edge taken by the machine, counts must not decrease
+	 * @param count instruction count the edge was taken at
+	 * @param event the {@link KeyEventQueue} event
+	 */
+	public void addKeyEvent(long count, int event) {
+		if(edgeCount == edgeCounts.length) {
+			edgeCounts = Arrays.copyOf(edgeCounts, edgeCount * 2);
+			edges = Arrays.copyOf(edges, edgeCount * 2);
+		}
+		edgeCounts[edgeCount] = count;
+		edges[edgeCount] = event;
+		edgeCount++;
+	}
+	
+	/**
+	 * mark the end of the recording
+	 * @param core the machine that was recorded
+	 */
+	public void finish(Chip8Core core) {
+		totalInstructions = core.getInstructionCount();
+		finalStateHash = core.stateHash();
+	}
+	
+	/**
+	 * @param count an instruction count
+	 * @return the key state at that count
+	 */
+	public int stateAt(long count) {
+		int index = indexAt(count);
+		return index < 0 ? 0 : states[index];
+	}
+	
+	/**
+	 * @param count an instruction count
+	 * @return index of the last change at or before the count, -1 if there is none
+	 */
+	int indexAt(long count) {
+		int low = 0;
+		int high = stateCount - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			if(counts[middle] <= count) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return high;
+	}
+	
+	long countAt(int index) {
+		return counts[index];
+	}
+	
+	int stateAtIndex(int index) {
+		return states[index];
+	}
+	
+	long edgeCountAt(int index) {
+		return edgeCounts[index];
+	}
+	
+	int edgeAt(int index) {
+		return edges[index];
+	}
+	
+	/**
+	 * @return number of key state changes
+	 */
+	public int getStateCount() {
+		return stateCount;
+	}
+	
+	/**
+	 * @return number of key edges taken
+	 */
+	public int getKeyEventCount() {
+		return edgeCount;
+	}
+	
+	public long getSeed() {
+		return seed;
+	}
+	
+	public int getInstructionsPerSecond() {
+		return instructionsPerSecond;
+	}
+	
+	public QuirksProfile getQuirks() {
+		return quirks;
+	}
+	
+	/**
+	 * @return number of instructions the recording ran
+	 */
+	public long getTotalInstructions() {
+		return totalInstructions;
+	}
+	
+	/**
+	 * @return {@link Chip8Core#stateHash()} at the end of the recording
+	 */
+	public long getFinalStateHash() {
+		return finalStateHash;
+	}
+	
+	/**
+	 * write the log to a file
+	 * @param file the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeByte(FILE_VERSION);
+			out.writeLong(seed);
+			out.writeInt(instructionsPerSecond);
+			out.writeUTF(quirks.getName());
+			out.writeLong(totalInstructions);
+			out.writeLong(finalStateHash);
+			out.writeInt(stateCount);
+			long previous = 0;
+			for(int i = 0 ; i < stateCount ; i++) {
+				writeVarLong(out, counts[i] - previous);
+				out.writeShort(states[i]);
+				previous = counts[i];
+			}
+			out.writeInt(edgeCount);
+			previous = 0;
+			for(int i = 0 ; i < edgeCount ; i++) {
+				writeVarLong(out, edgeCounts[i] - previous);
+				out.writeByte(edges[i]);
+				previous = edgeCounts[i];
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * read a log from a file
+	 * @param file the file to read
+	 * @return the log
+	 * @throws IOException if the file cannot be read or is not an input log
+	 */
+	public static InputLog read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(in.readInt() != FILE_MAGIC || in.readUnsignedByte() != FILE_VERSION) {
+				throw new IOException(file + " is not an input log of this emulator");
+			}
+			long seed = in.readLong();
+			int instructionsPerSecond = in.readInt();
+			QuirksProfile quirks;
+			try {
+				quirks = QuirksProfile.forName(in.readUTF());
+			} catch (IllegalArgumentException e) {
+				throw new IOException(file + " was recorded with an unknown quirks profile");
+			}
+			InputLog log = new InputLog(seed, instructionsPerSecond, quirks);
+			log.totalInstructions = in.readLong();
+			log.finalStateHash = in.readLong();
+			int changes = in.readInt();
+			long count = 0;
+			for(int i = 0 ; i < changes ; i++) {
+				count += readVarLong(in);
+				log.add(count, in.readUnsignedShort());
+			}
+			int events = in.readInt();
+			count = 0;
+			for(int i = 0 ; i < events ; i++) {
+				count += readVarLong(in);
+				log.addKeyEvent(count, in.readUnsignedByte());
+			}
+			return log;
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while(value >= 0x80) {
+			out.writeByte((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+	
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		} while(b >= 0x80);
+		return value;
+	}
+}
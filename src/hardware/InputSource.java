@@ -0,0 +1,35 @@
+package hardware;
+
+/**
+ * Provides the state of the 16 key keypad to a {@link Chip8Core}.
+ *
+ * @author Richard Yang
+ *
+ */
+public interface InputSource {
+	
+	/**
+	 * @return the keys currently held down, bit k set when key k (0x0 to 0xF) is pressed
+	 */
+	int getKeyState();
+	
+	/**
+	 * take the oldest press or release edge not taken yet, so no edge is ever missed
+	 * between two reads of the key state
+	 * @return a {@link KeyEventQueue} event, -1 when there is none
+	 */
+	int pollKeyEvent();
+	
+	/**
+	 * tell how long the machine may run without looking at the keypad, so that spinning
+	 * on FX0A can be counted rather than run; by default the keys may change at any count,
+	 * so nothing is counted
+	 * @param count the instruction count of the machine now
+	 * @return the lowest instruction count at which the key state or the key edges can
+	 * change, count when they may change now, {@link Long#MAX_VALUE} when they only
+	 * change while the machine is not running
+	 */
+	default long nextInputCount(long count) {
+		return count;
+	}
+}
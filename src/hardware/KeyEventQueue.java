@@ -0,0 +1,112 @@
+package hardware;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free queue of key press and release edges from exactly one producer thread,
+ * the event dispatch thread, to exactly one consumer thread, the emulation thread.
+ *
+ * Each side owns one index and only publishes it with an ordered write, so neither
+ * side ever blocks or retries, and an edge offered before a poll is always seen by it.
+ * An event is the key number, with {@link #PRESSED} set for a press.
+ *
+ * @author Richard Yang
+ *
+ */
+public class KeyEventQueue {
+	/**
+	 * flag of a press event, a release event has it clear
+	 */
+	public static final int PRESSED = 0x10;
+	
+	/**
+	 * number of events the queue holds, far more than can be typed between two frames
+	 */
+	private static final int CAPACITY = 256;
+	private static final int MASK = CAPACITY - 1;
+	
+	private final int[] events;
+	
+	//next slot the consumer reads, written by the consumer only
+	private final AtomicLong head;
+	
+	//next slot the producer writes, written by the producer only
+	private final AtomicLong tail;
+	
+	//cached copies of the other side's index, to avoid reading it on every call
+	private long cachedHead;
+	private long cachedTail;
+	
+	public KeyEventQueue() {
+		events = new int[CAPACITY];
+		head = new AtomicLong();
+		tail = new AtomicLong();
+	}
+	
+	/**
+	 * add an event, from the producer thread only
+	 * @param event the event
+	 * @return false if the queue is full and the event was dropped
+	 */
+	public boolean offer(int event) {
+		long position = tail.get();
+		if(position - cachedHead >= CAPACITY) {
+			cachedHead = head.get();
+			if(position - cachedHead >= CAPACITY) {
+				return false;
+			}
+		}
+		events[(int)position & MASK] = event;
+		tail.lazySet(position + 1);
+		return true;
+	}
+	
+	/**
+	 * take the oldest event, from the consumer thread only
+	 * @return the event, -1 when the queue is empty
+	 */
+	public int poll() {
+		long position = head.get();
+		if(position >= cachedTail) {
+			cachedTail = tail.get();
+			if(position >= cachedTail) {
+				return -1;
+			}
+		}
+		int event = events[(int)position & MASK];
+		head.lazySet(position + 1);
+		return event;
+	}
+	
+	/**
+	 * @param key the key pressed
+	 * @return the press event of the key
+	 */
+	public static int pressed(int key) {
+		return key | PRESSED;
+	}
+	
+	/**
+	 * @param key the key released
+	 * @return the release event of the key
+	 */
+	public static int released(int key) {
+		return key;
+	}
+	
+	/**
+	 * @param event an event
+	 * @return whether it is a press
+	 */
+	public static boolean isPress(int event) {
+		return (event & PRESSED) != 0;
+	}
+	
+	/**
+	 * @param event an event
+	 * @return the key of the event
+	 */
+	public static int keyOf(int event) {
+		return event & 0x0F;
+	}
+}
@@ -0,0 +1,384 @@
+package hardware;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Low overhead counters of a running emulator: instructions by opcode family, DXYN
+ * draws, timer ticks, paints, audio underruns, the idle instructions counted rather
+ * than run, the cost of running ahead and the memory the rewind history takes per frame,
+ * with their rates over the last second.
+ *
+ * The emulation thread counts in plain fields and publishes them once per frame, and
+ * the paint side only writes its own fields, so counting costs an array increment per
+ * instruction and readers on other threads never slow the machine down. The metrics
+ * are shown through JMX and as flight recorder events once {@link #register()}ed.
+ *
+ * @author Richard Yang
+ *
+ */
+public class Metrics implements MetricsMXBean {
+	/**
+	 * JMX name of the metrics
+	 */
+	public static final String OBJECT_NAME = "chip8:type=Metrics";
+	
+	/**
+	 * names of the opcode families, indexed by the highest nibble of the opcode
+	 */
+	public static final String[] FAMILY_NAMES = {
+		"0NNN SYS/CLS/RET", "1NNN JP", "2NNN CALL", "3XNN SE", "4XNN SNE", "5XY0 SE",
+		"6XNN LD", "7XNN ADD", "8XYN ALU", "9XY0 SNE", "ANNN LD I", "BNNN JP V0",
+		"CXNN RND", "DXYN DRW", "EXNN SKP/SKNP", "FXNN misc" };
+	
+	private static final int DRAW_FAMILY = 0xD;
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	
+	//counted by the emulation thread
+	private final long[] familyCounts;
+	private long instructionCount;
+	private long idleInstructions;
+	private long timerTicks;
+	
+	//the counts as of the end of the last frame, for the other threads
+	private final AtomicLongArray publishedFamilyCounts;
+	private volatile long publishedInstructionCount;
+	private volatile long publishedIdleInstructions;
+	private volatile long publishedTimerTicks;
+	
+	//counted by the event dispatch thread
+	private volatile long paintCount;
+	private volatile long paintTime;
+	private volatile long maxPaintTime;
+	
+	//counted by the audio thread and the emulation thread respectively
+	private volatile long audioUnderruns;
+	private volatile long audioFramesDropped;
+	
+	//counted by the thread reading the keyboard
+	private volatile long keyEventsDropped;
+	
+	//frames run ahead and the time the last run ahead took, set by the emulation thread
+	private volatile int runAheadFrames;
+	private volatile long runAheadTime;
+	
+	//seconds that can be rewound and the bytes the history takes per frame, set by the emulation thread
+	private volatile double rewindSeconds;
+	private volatile double rewindBytesPerFrame;
+	
+	//counts at the start of the current one second window
+	private long windowStart;
+	private long windowInstructions;
+	private long windowTicks;
+	private long windowDraws;
+	private long windowPaints;
+	
+	//rates over the last complete window
+	private volatile double instructionsPerSecond;
+	private volatile double framesPerSecond;
+	private volatile double drawsPerSecond;
+	private volatile double paintsPerSecond;
+	
+	//emits the flight recorder events while registered
+	private Runnable recorderHook;
+	
+	public Metrics() {
+		familyCounts = new long[FAMILY_NAMES.length];
+		publishedFamilyCounts = new AtomicLongArray(FAMILY_NAMES.length);
+		windowStart = System.nanoTime();
+	}
+	
+	/**
+	 * count instructions run one after the other, on the emulation thread
+	 * @param memory the memory of the machine
+	 * @param address address of the first instruction
+	 * @param count number of instructions
+	 */
+	void instructionsRun(byte[] memory, int address, int count) {
+		int mask = memory.length - 1;
+		for(int i = 0 ; i < count ; i++) {
+			familyCounts[(memory[(address + (i << 1)) & mask] >> 4) & 0x0F]++;
+		}
+		instructionCount += count;
+	}
+	
+	/**
+	 * count the passes of a spin in place the machine skipped, on the emulation thread
+	 * @param memory the memory of the machine
+	 * @param address address of the first instruction of the spin
+	 * @param length number of instructions of one pass
+	 * @param passes number of passes
+	 */
+	void idleInstructionsSkipped(byte[] memory, int address, int length, int passes) {
+		int mask = memory.length - 1;
+		for(int i = 0 ; i < length ; i++) {
+			familyCounts[(memory[(address + (i << 1)) & mask] >> 4) & 0x0F] += passes;
+		}
+		instructionCount += (long)length * passes;
+		idleInstructions += (long)length * passes;
+	}
+	
+	/**
+	 * count a timer tick, which ends an emulated frame, on the emulation thread
+	 */
+	void timerTicked() {
+		timerTicks++;
+		for(int i = 0 ; i < familyCounts.length ; i++) {
+			publishedFamilyCounts.lazySet(i, familyCounts[i]);
+		}
+		publishedInstructionCount = instructionCount;
+		publishedIdleInstructions = idleInstructions;
+		publishedTimerTicks = timerTicks;
+		
+		long now = System.nanoTime();
+		long elapsed = now - windowStart;
+		if(elapsed >= NANOS_PER_SECOND) {
+			double seconds = elapsed / (double)NANOS_PER_SECOND;
+			long draws = familyCounts[DRAW_FAMILY];
+			long paints = paintCount;
+			instructionsPerSecond = (instructionCount - windowInstructions) / seconds;
+			framesPerSecond = (timerTicks - windowTicks) / seconds;
+			drawsPerSecond = (draws - windowDraws) / seconds;
+			paintsPerSecond = (paints - windowPaints) / seconds;
+			windowStart = now;
+			windowInstructions = instructionCount;
+			windowTicks = timerTicks;
+			windowDraws = draws;
+			windowPaints = paints;
+		}
+	}
+	
+	/**
+	 * count a paint of the screen, on the event dispatch thread
+	 * @param time time the paint took, in nanoseconds
+	 */
+	public void framePainted(long time) {
+		paintCount++;
+		paintTime = time;
+		if(time > maxPaintTime) {
+			maxPaintTime = time;
+		}
+	}
+	
+	/**
+	 * count the audio ring running dry, on the audio thread
+	 */
+	void audioUnderrun() {
+		audioUnderruns++;
+	}
+	
+	/**
+	 * count a frame of sound dropped for running ahead of real time, on the emulation thread
+	 */
+	void audioFrameDropped() {
+		audioFramesDropped++;
+	}
+	
+	/**
+	 * count a key edge dropped for a full key event queue, on the thread reading the
+	 * keyboard
+	 */
+	void keyEventDropped() {
+		keyEventsDropped++;
+	}
+	
+	/**
+	 * report the frames run ahead of the last frame and the time it took, on the
+	 * emulation thread
+	 * @param frames frames run ahead, 0 when not running ahead
+	 * @param time time the run ahead took, in nanoseconds
+	 */
+	void runAhead(int frames, long time) {
+		runAheadFrames = frames;
+		runAheadTime = time;
+	}
+	
+	/**
+	 * report how much history the rewind buffer holds, on the emulation thread
+	 * @param seconds seconds that can be rewound, 0 when not rewinding
+	 * @param bytesPerFrame average bytes recorded per frame, keyframes included
+	 */
+	void rewindRecorded(double seconds, double bytesPerFrame) {
+		rewindSeconds = seconds;
+		rewindBytesPerFrame = bytesPerFrame;
+	}
+	
+	/**
+	 * show the metrics through JMX and start emitting flight recorder events
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+		
+		if(recorderHook == null) {
+			recorderHook = new Runnable() {
+				@Override
+				public void run() {
+					emitEvents();
+				}
+			};
+			// the opcode family events go out with every metrics event
+			FlightRecorder.addPeriodicEvent(MetricsEvent.class, recorderHook);
+		}
+	}
+	
+	/**
+	 * stop showing the metrics through JMX and emitting flight recorder events
+	 */
+	public void unregister() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+		if(recorderHook != null) {
+			FlightRecorder.removePeriodicEvent(recorderHook);
+			recorderHook = null;
+		}
+	}
+	
+	private void emitEvents() {
+		MetricsEvent event = new MetricsEvent();
+		if(event.shouldCommit()) {
+			event.instructionsPerSecond = instructionsPerSecond;
+			event.framesPerSecond = framesPerSecond;
+			event.paintsPerSecond = paintsPerSecond;
+			event.drawsPerSecond = drawsPerSecond;
+			event.instructions = publishedInstructionCount;
+			event.draws = publishedFamilyCounts.get(DRAW_FAMILY);
+			event.timerTicks = publishedTimerTicks;
+			event.paintTime = paintTime;
+			event.commit();
+		}
+		for(int i = 0 ; i < FAMILY_NAMES.length ; i++) {
+			OpcodeFamilyEvent familyEvent = new OpcodeFamilyEvent();
+			if(familyEvent.shouldCommit()) {
+				familyEvent.family = FAMILY_NAMES[i];
+				familyEvent.instructions = publishedFamilyCounts.get(i);
+				familyEvent.commit();
+			}
+		}
+	}
+	
+	@Override
+	public double getInstructionsPerSecond() {
+		return instructionsPerSecond;
+	}
+	
+	@Override
+	public double getFramesPerSecond() {
+		return framesPerSecond;
+	}
+	
+	@Override
+	public double getPaintsPerSecond() {
+		return paintsPerSecond;
+	}
+	
+	@Override
+	public double getDrawsPerSecond() {
+		return drawsPerSecond;
+	}
+	
+	@Override
+	public long getInstructionCount() {
+		return publishedInstructionCount;
+	}
+	
+	@Override
+	public long getDrawCount() {
+		return publishedFamilyCounts.get(DRAW_FAMILY);
+	}
+	
+	@Override
+	public long getTimerTicks() {
+		return publishedTimerTicks;
+	}
+	
+	@Override
+	public long getPaintTime() {
+		return paintTime;
+	}
+	
+	@Override
+	public long getMaxPaintTime() {
+		return maxPaintTime;
+	}
+	
+	@Override
+	public long getIdleInstructions() {
+		return publishedIdleInstructions;
+	}
+	
+	@Override
+	public int getRunAheadFrames() {
+		return runAheadFrames;
+	}
+	
+	@Override
+	public long getRunAheadTime() {
+		return runAheadTime;
+	}
+	
+	@Override
+	public double getRewindSeconds() {
+		return rewindSeconds;
+	}
+	
+	@Override
+	public double getRewindBytesPerFrame() {
+		return rewindBytesPerFrame;
+	}
+	
+	@Override
+	public long getAudioUnderruns() {
+		return audioUnderruns;
+	}
+	
+	@Override
+	public long getAudioFramesDropped() {
+		return audioFramesDropped;
+	}
+	
+	@Override
+	public long getKeyEventsDropped() {
+		return keyEventsDropped;
+	}
+	
+	/**
+	 * @param family highest nibble of the opcodes
+	 * @return instructions of the family run since the metrics were created
+	 */
+	public long getFamilyCount(int family) {
+		return publishedFamilyCounts.get(family);
+	}
+	
+	@Override
+	public Map<String, Long> getOpcodeHistogram() {
+		Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+		for(int i = 0 ; i < FAMILY_NAMES.length ; i++) {
+			histogram.put(FAMILY_NAMES[i], publishedFamilyCounts.get(i));
+		}
+		return histogram;
+	}
+}
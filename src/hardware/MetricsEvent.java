@@ -0,0 +1,48 @@
+package hardware;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event with the {@link Metrics} of the last second, emitted once per
+ * second while a recording is running.
+ *
+ * @author Richard Yang
+ *
+ */
+@Name("chip8.Metrics")
+@Label("CHIP-8 Metrics")
+@Category("CHIP-8")
+@Description("Speed of the emulator over the last second")
+@Period("1 s")
+class MetricsEvent extends jdk.jfr.Event {
+	
+	@Label("Instructions per Second")
+	double instructionsPerSecond;
+	
+	@Label("Frames per Second")
+	double framesPerSecond;
+	
+	@Label("Paints per Second")
+	double paintsPerSecond;
+	
+	@Label("Draws per Second")
+	double drawsPerSecond;
+	
+	@Label("Instructions")
+	long instructions;
+	
+	@Label("Draws")
+	long draws;
+	
+	@Label("Timer Ticks")
+	long timerTicks;
+	
+	@Label("Paint Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long paintTime;
+}
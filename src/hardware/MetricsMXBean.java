@@ -0,0 +1,107 @@
+package hardware;
+
+import java.util.Map;
+
+/**
+ * The {@link Metrics} of a running emulator as seen through JMX, under
+ * {@link Metrics#OBJECT_NAME}.
+ *
+ * @author Richard Yang
+ *
+ */
+public interface MetricsMXBean {
+	
+	/**
+	 * @return instructions run per second over the last second
+	 */
+	double getInstructionsPerSecond();
+	
+	/**
+	 * @return emulated frames, which are timer ticks, per second over the last second
+	 */
+	double getFramesPerSecond();
+	
+	/**
+	 * @return frames painted on screen per second over the last second
+	 */
+	double getPaintsPerSecond();
+	
+	/**
+	 * @return DXYN instructions run per second over the last second
+	 */
+	double getDrawsPerSecond();
+	
+	/**
+	 * @return instructions run since the metrics were created
+	 */
+	long getInstructionCount();
+	
+	/**
+	 * @return DXYN instructions run since the metrics were created
+	 */
+	long getDrawCount();
+	
+	/**
+	 * @return timer ticks since the metrics were created
+	 */
+	long getTimerTicks();
+	
+	/**
+	 * @return time the last paint took, in nanoseconds
+	 */
+	long getPaintTime();
+	
+	/**
+	 * @return time the longest paint took, in nanoseconds
+	 */
+	long getMaxPaintTime();
+	
+	/**
+	 * @return instructions of spins in place, such as FX0A waiting for a key, that were
+	 * counted without being run
+	 */
+	long getIdleInstructions();
+	
+	/**
+	 * @return frames run ahead of every frame, 0 when not running ahead
+	 */
+	int getRunAheadFrames();
+	
+	/**
+	 * @return time the last run ahead took, the extra work of a frame, in nanoseconds
+	 */
+	long getRunAheadTime();
+	
+	/**
+	 * @return seconds of history that can be rewound, 0 when rewinding is off
+	 */
+	double getRewindSeconds();
+	
+	/**
+	 * @return average bytes the rewind history takes per frame, keyframes included, to
+	 * size the rewind budget
+	 */
+	double getRewindBytesPerFrame();
+	
+	/**
+	 * @return times the audio output ran out of samples and had to wait for more
+	 */
+	long getAudioUnderruns();
+	
+	/**
+	 * @return frames of sound dropped because the emulation ran ahead of real time
+	 */
+	long getAudioFramesDropped();
+	
+	/**
+	 * @return key presses and releases dropped because the emulation did not take them
+	 * fast enough; the key state still follows them
+	 */
+	long getKeyEventsDropped();
+	
+	/**
+	 * @return instructions run since the metrics were created by opcode family, such as
+	 * "8XYN ALU", in opcode order
+	 */
+	Map<String, Long> getOpcodeHistogram();
+}
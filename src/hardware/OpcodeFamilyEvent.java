@@ -0,0 +1,26 @@
+package hardware;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event with the instructions run by one opcode family, one event per
+ * family emitted along with every {@link MetricsEvent}.
+ *
+ * @author Richard Yang
+ *
+ */
+@Name("chip8.OpcodeFamily")
+@Label("CHIP-8 Opcode Family")
+@Category("CHIP-8")
+@Description("Instructions run by an opcode family since the emulator started")
+class OpcodeFamilyEvent extends jdk.jfr.Event {
+	
+	@Label("Family")
+	String family;
+	
+	@Label("Instructions")
+	long instructions;
+}
@@ -0,0 +1,80 @@
+package hardware;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Writes the frames as PNG pictures in a directory, named after their frame number,
+ * skipping the frames identical to the one before.
+ *
+ * @author Richard Yang
+ *
+ */
+public class PngFrameExporter extends FrameExporter {
+	
+	private final File directory;
+	
+	//the picture being written and the one written last
+	private final BufferedImage image;
+	private final byte[] picture;
+	private final byte[] previous;
+	private boolean hasPrevious;
+	
+	/**
+	 * @param directory the directory to write the pictures in, created if needed
+	 * @param scale size of a high resolution screen pixel in the pictures
+	 * @param isLossless true to wait for the encoder rather than drop frames
+	 * @throws IOException if the directory cannot be created
+	 */
+	PngFrameExporter(File directory, int scale, boolean isLossless) throws IOException {
+		super(directory.getName(), isLossless);
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("cannot create " + directory);
+		}
+		this.directory = directory;
+		image = createImage(Chip8Core.HIRES_SCREEN_WIDTH * scale, Chip8Core.HIRES_SCREEN_HEIGHT * scale);
+		picture = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+		previous = new byte[picture.length];
+	}
+	
+	/**
+	 * @return an image of palette indices with the colors of the {@link Display}
+	 */
+	static BufferedImage createImage(int width, int height) {
+		int[] colors = Display.PLANE_COLORS;
+		byte[] red = new byte[colors.length];
+		byte[] green = new byte[colors.length];
+		byte[] blue = new byte[colors.length];
+		for(int i = 0 ; i < colors.length ; i++) {
+			red[i] = (byte)(colors[i] >> 16);
+			green[i] = (byte)(colors[i] >> 8);
+			blue[i] = (byte)colors[i];
+		}
+		IndexColorModel palette = new IndexColorModel(8, colors.length, red, green, blue);
+		return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, palette);
+	}
+	
+	@Override
+	protected void writeFrame(long[] frame, int width, int height, long number) throws IOException {
+		render(frame, width, height, picture, image.getWidth(), image.getHeight());
+		if(hasPrevious && Arrays.equals(picture, previous)) {
+			return;
+		}
+		System.arraycopy(picture, 0, previous, 0, picture.length);
+		hasPrevious = true;
+		File file = new File(directory, String.format("frame-%06d.png", number));
+		if(!ImageIO.write(image, "png", file)) {
+			throw new IOException("no PNG writer for " + file);
+		}
+	}
+	
+	@Override
+	protected void finish(long frames) {
+	}
+}
@@ -0,0 +1,25 @@
+package hardware;
+
+/**
+ * An {@link InputSource} that only knows the key state, such as a script or a replay:
+ * its edges are found by comparing the key state with the one last reported.
+ *
+ * @author Richard Yang
+ *
+ */
+public abstract class PolledInputSource implements InputSource {
+	
+	//the key state as far as the edges reported so far go
+	private int reportedState;
+	
+	@Override
+	public int pollKeyEvent() {
+		int changed = getKeyState() ^ reportedState;
+		if(changed == 0) {
+			return -1;
+		}
+		int key = Integer.numberOfTrailingZeros(changed);
+		reportedState ^= 1 << key;
+		return (reportedState & (1 << key)) != 0 ? KeyEventQueue.pressed(key) : KeyEventQueue.released(key);
+	}
+}
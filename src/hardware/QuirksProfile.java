@@ -0,0 +1,125 @@
+package hardware;
+
+/**
+ * The behaviors that differ between the interpreters a rom may have been written for.
+ *
+ * A profile is applied when an instruction is decoded into the cache of the
+ * {@link Chip8Core}, by choosing its operands, so running an instruction never checks it.
+ *
+ * @author Richard Yang
+ *
+ */
+public enum QuirksProfile {
+	/**
+	 * the COSMAC VIP interpreter: 8XY6 and 8XYE shift VY into VX, FX55 and FX65 leave I
+	 * after the last register, BNNN jumps to NNN + V0
+	 */
+	CHIP8("CHIP-8", true, 1, false, false, false),
+	/**
+	 * the HP48 interpreter: shifts work on VX, FX55 and FX65 leave I on the last register,
+	 * BXNN jumps to XNN + VX
+	 */
+	CHIP48("CHIP-48", false, 0, true, false, false),
+	/**
+	 * SUPER-CHIP 1.1: shifts work on VX, FX55 and FX65 leave I unchanged, BXNN jumps to
+	 * XNN + VX; adds the 128x64 mode, scrolling, 16x16 sprites, the big font and the
+	 * RPL flags
+	 */
+	SUPER_CHIP("SUPER-CHIP", false, -1, true, true, false),
+	/**
+	 * XO-CHIP: the CHIP-8 behaviors with the SUPER-CHIP instructions, plus 64 KB of memory,
+	 * two bitplanes, scrolling up, register ranges and the audio pattern buffer
+	 */
+	XO_CHIP("XO-CHIP", true, 1, false, true, true);
+	
+	private final String name;
+	private final boolean isShiftingVY;
+	private final int indexOffset;
+	private final boolean isJumpingWithVX;
+	private final boolean isSuperChip;
+	private final boolean isXoChip;
+	
+	/**
+	 * @param name the name shown and stored in the rom catalog
+	 * @param isShiftingVY whether 8XY6 and 8XYE shift VY rather than VX
+	 * @param indexOffset FX55 and FX65 add X plus this to I, or leave I when negative
+	 * @param isJumpingWithVX whether BXNN adds VX rather than V0
+	 * @param isSuperChip whether the SUPER-CHIP instructions are decoded
+	 * @param isXoChip whether the XO-CHIP instructions are decoded and the whole memory used
+	 */
+	private QuirksProfile(String name, boolean isShiftingVY, int indexOffset, boolean isJumpingWithVX,
+			boolean isSuperChip, boolean isXoChip) {
+		this.name = name;
+		this.isShiftingVY = isShiftingVY;
+		this.indexOffset = indexOffset;
+		this.isJumpingWithVX = isJumpingWithVX;
+		this.isSuperChip = isSuperChip;
+		this.isXoChip = isXoChip;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return whether 8XY6 and 8XYE shift VY into VX, rather than VX in place
+	 */
+	public boolean isShiftingVY() {
+		return isShiftingVY;
+	}
+	
+	/**
+	 * @param x the last register stored or loaded by FX55 or FX65
+	 * @return how far I moves after it
+	 */
+	public int indexAdvance(int x) {
+		return indexOffset < 0 ? 0 : x + indexOffset;
+	}
+	
+	/**
+	 * @return whether BXNN jumps to XNN + VX, rather than BNNN to NNN + V0
+	 */
+	public boolean isJumpingWithVX() {
+		return isJumpingWithVX;
+	}
+	
+	/**
+	 * @return whether 00CN, 00FB to 00FF, DXY0, FX30, FX75 and FX85 are decoded
+	 */
+	public boolean isSuperChip() {
+		return isSuperChip;
+	}
+	
+	/**
+	 * @return whether 00DN, 5XY2, 5XY3, F000 NNNN, FN01, F002 and FX3A are decoded
+	 */
+	public boolean isXoChip() {
+		return isXoChip;
+	}
+	
+	/**
+	 * @return bytes of memory the rom can address, 4 KB or 64 KB for XO-CHIP
+	 */
+	public int getMemorySize() {
+		return isXoChip ? Chip8Core.MEMORY_SIZE : 0x1000;
+	}
+	
+	/**
+	 * @param name a name returned by {@link #getName()}
+	 * @return the profile of that name
+	 * @throws IllegalArgumentException if no profile has that name
+	 */
+	public static QuirksProfile forName(String name) {
+		for(QuirksProfile profile : values()) {
+			if(profile.name.equals(name)) {
+				return profile;
+			}
+		}
+		throw new IllegalArgumentException("no quirks profile named " + name);
+	}
+	
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,61 @@
+package hardware;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes every frame as the packed framebuffer, for tools that read the pixels back.
+ *
+ * The stream is a small header followed by one record per frame: the frame number as
+ * a long, the width and height as shorts, then the rows of the first plane and then of
+ * the second, each row as width / 64 big endian longs with the leftmost pixel in the
+ * highest bit. A low resolution frame is 512 bytes of pixels.
+ *
+ * @author Richard Yang
+ *
+ */
+public class RawFrameExporter extends FrameExporter {
+	/**
+	 * first bytes of a raw frame stream
+	 */
+	public static final int FILE_MAGIC = 0x43384652; // "C8FR"
+	public static final int FILE_VERSION = 1;
+	
+	private final DataOutputStream out;
+	
+	/**
+	 * @param file the file to write
+	 * @param isLossless true to wait for the encoder rather than drop frames
+	 * @throws IOException if the file cannot be created
+	 */
+	RawFrameExporter(File file, boolean isLossless) throws IOException {
+		super(file.getName(), isLossless);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.writeInt(FILE_MAGIC);
+		out.writeByte(FILE_VERSION);
+	}
+	
+	@Override
+	protected void writeFrame(long[] frame, int width, int height, long number) throws IOException {
+		out.writeLong(number);
+		out.writeShort(width);
+		out.writeShort(height);
+		int words = width / 64;
+		for(int plane = 0 ; plane < Chip8Core.PLANE_COUNT ; plane++) {
+			for(int row = 0 ; row < height ; row++) {
+				int index = Chip8Core.rowIndex(plane, row);
+				for(int word = 0 ; word < words ; word++) {
+					out.writeLong(frame[index + word]);
+				}
+			}
+		}
+	}
+	
+	@Override
+	protected void finish(long frames) throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,74 @@
+package hardware;
+
+/**
+ * Passes the keypad of another input source through to the machine while logging every
+ * change and every key edge the machine takes into an {@link InputLog}.
+ *
+ * The keypad is sampled at most once per instruction count and held until the count
+ * moves on, so every read at a given count sees the same state and a replay, which only
+ * knows the count, can give the exact same answers.
+ *
+ * @author Richard Yang
+ *
+ */
+public class RecordingInputSource implements InputSource {
+	
+	private final InputSource mySource;
+	private final Chip8Core myCore;
+	private final InputLog myLog;
+	
+	//instruction count of the last sample, and the state sampled
+	private long sampledCount;
+	private int sampledState;
+	
+	/**
+	 * @param source the live keypad
+	 * @param core the machine being recorded, just reset
+	 * @param log the log to fill
+	 */
+	public RecordingInputSource(InputSource source, Chip8Core core, InputLog log) {
+		mySource = source;
+		myCore = core;
+		myLog = log;
+		sampledCount = -1;
+	}
+	
+	@Override
+	public int getKeyState() {
+		long count = myCore.getInstructionCount();
+		if(count != sampledCount) {
+			sampledCount = count;
+			int state = mySource.getKeyState() & 0xFFFF;
+			if(state != sampledState) {
+				sampledState = state;
+				myLog.add(count, state);
+			}
+		}
+		return sampledState;
+	}
+	
+	@Override
+	public int pollKeyEvent() {
+		int event = mySource.pollKeyEvent();
+		if(event >= 0) {
+			myLog.addKeyEvent(myCore.getInstructionCount(), event);
+		}
+		return event;
+	}
+	
+	/**
+	 * the log keeps the counts the machine took the keys at, whatever they are, so the
+	 * machine may skip as far as the live keypad allows
+	 */
+	@Override
+	public long nextInputCount(long count) {
+		return mySource.nextInputCount(count);
+	}
+	
+	/**
+	 * @return the log being filled
+	 */
+	public InputLog getLog() {
+		return myLog;
+	}
+}
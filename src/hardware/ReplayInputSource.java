@@ -0,0 +1,93 @@
+package hardware;
+
+/**
+ * Feeds the keypad changes and key edges of an {@link InputLog} back to the machine at
+ * the instruction counts they were recorded at, then hands over to another input source once the
+ * recording is over.
+ *
+ * @author Richard Yang
+ *
+ */
+public class ReplayInputSource implements InputSource {
+	
+	private final InputLog myLog;
+	private final Chip8Core myCore;
+	private final InputSource myNextSource;
+	
+	//index of the last change at or before the last count read, -1 before the first one
+	private int eventIndex;
+	private long lastCount;
+	
+	//index of the next key edge to hand out
+	private int edgeIndex;
+	
+	/**
+	 * @param log the recording
+	 * @param core the machine replaying it, reset and seeded like the recording
+	 * @param next the input source used after the end of the recording, null for none
+	 */
+	public ReplayInputSource(InputLog log, Chip8Core core, InputSource next) {
+		myLog = log;
+		myCore = core;
+		myNextSource = next;
+		eventIndex = -1;
+	}
+	
+	@Override
+	public int getKeyState() {
+		long count = myCore.getInstructionCount();
+		if(count >= myLog.getTotalInstructions()) {
+			return myNextSource != null ? myNextSource.getKeyState() : 0;
+		}
+		if(count < lastCount) {
+			// the machine went back in time, find the change again
+			eventIndex = myLog.indexAt(count);
+		} else {
+			while(eventIndex + 1 < myLog.getStateCount() && myLog.countAt(eventIndex + 1) <= count) {
+				eventIndex++;
+			}
+		}
+		lastCount = count;
+		return eventIndex < 0 ? 0 : myLog.stateAtIndex(eventIndex);
+	}
+	
+	@Override
+	public int pollKeyEvent() {
+		long count = myCore.getInstructionCount();
+		if(count >= myLog.getTotalInstructions()) {
+			return myNextSource != null ? myNextSource.pollKeyEvent() : -1;
+		}
+		if(edgeIndex < myLog.getKeyEventCount() && myLog.edgeCountAt(edgeIndex) <= count) {
+			return myLog.edgeAt(edgeIndex++);
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return the instruction count of the next key change or edge of the recording, or
+	 * the end of the recording after which the next source answers
+	 */
+	@Override
+	public long nextInputCount(long count) {
+		long end = myLog.getTotalInstructions();
+		if(count >= end) {
+			return myNextSource != null ? myNextSource.nextInputCount(count) : Long.MAX_VALUE;
+		}
+		long next = end;
+		if(edgeIndex < myLog.getKeyEventCount()) {
+			next = Math.min(next, myLog.edgeCountAt(edgeIndex));
+		}
+		int change = myLog.indexAt(count) + 1;
+		if(change < myLog.getStateCount()) {
+			next = Math.min(next, myLog.countAt(change));
+		}
+		return next;
+	}
+	
+	/**
+	 * @return whether the whole recording has been replayed
+	 */
+	public boolean isFinished() {
+		return myCore.getInstructionCount() >= myLog.getTotalInstructions();
+	}
+}
@@ -0,0 +1,241 @@
+package hardware;
+
+/**
+ * A bounded history of the machine for rewinding, one entry per frame.
+ *
+ * Every entry holds the XOR delta between its frame and the one before, so stepping
+ * back only XORs a few bytes into the current state. Every keyframeInterval frames
+ * the entry also holds the whole frame, so a long rewind starts from the closest
+ * keyframe instead of undoing every frame since the newest one. A keyframe is encoded
+ * as a delta against a zeroed snapshot, since most of the memory is unused.
+ *
+ * Entries are packed one after the other in a single byte array of the memory budget
+ * and the oldest are overwritten when it is full, so recording never allocates.
+ *
+ * @author Richard Yang
+ *
+ */
+public class RewindBuffer {
+	/**
+	 * default number of frames between two keyframes, five seconds
+	 */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 5 * Scheduler.TIMER_FREQUENCY;
+	
+	private final int keyframeInterval;
+	
+	//the entries, packed one after the other and wrapping around
+	private final byte[] arena;
+	private int writePosition;
+	
+	//per entry, from oldest to newest in a ring: where it starts, its delta length, and
+	//the length of the keyframe following the delta, 0 if there is none
+	private final int[] entryOffsets;
+	private final int[] deltaLengths;
+	private final int[] keyframeLengths;
+	private int oldestEntry;
+	private int entryCount;
+	
+	//number of the newest frame recorded since the last clear
+	private long newestFrame;
+	
+	//the newest frame recorded, the state every rewind starts from
+	private final Snapshot newest;
+	private boolean hasNewest;
+	
+	//scratch state being recorded
+	private final Snapshot current;
+	
+	//all zeros, the base keyframes are encoded against
+	private final Snapshot empty;
+	
+	//entries recorded and their bytes since the last clear, for the bytes per frame report
+	private long recordedFrames;
+	private long recordedBytes;
+	
+	/**
+	 * @param budget number of bytes kept for the history
+	 * @param keyframeInterval number of frames between two full snapshots
+	 */
+	public RewindBuffer(int budget, int keyframeInterval) {
+		if(budget < 2 * Snapshot.MAX_DELTA_SIZE) {
+			throw new IllegalArgumentException("rewind budget too small : " + budget);
+		}
+		if(keyframeInterval <= 0) {
+			throw new IllegalArgumentException("keyframe interval must be positive : " + keyframeInterval);
+		}
+		this.keyframeInterval = keyframeInterval;
+		arena = new byte[budget];
+		// an unchanged frame costs no bytes, so the entries are also limited in number
+		int maxEntries = Math.max(keyframeInterval, budget / 16);
+		entryOffsets = new int[maxEntries];
+		deltaLengths = new int[maxEntries];
+		keyframeLengths = new int[maxEntries];
+		newest = new Snapshot();
+		current = new Snapshot();
+		empty = new Snapshot();
+	}
+	
+	/**
+	 * forget the whole history, call it when another rom is loaded
+	 */
+	public void clear() {
+		writePosition = 0;
+		oldestEntry = 0;
+		entryCount = 0;
+		newestFrame = 0;
+		hasNewest = false;
+		recordedFrames = 0;
+		recordedBytes = 0;
+	}
+	
+	/**
+	 * record the state of the machine at the end of a frame
+	 * @param core the machine
+	 */
+	public void record(Chip8Core core) {
+		core.saveState(current);
+		if(!hasNewest) {
+			newest.copyFrom(current);
+			hasNewest = true;
+			return;
+		}
+		newestFrame++;
+		boolean keyframe = newestFrame % keyframeInterval == 0;
+		
+		int maxLength = Snapshot.maxDeltaSize(Math.max(current.getSize(), newest.getSize()))
+				+ (keyframe ? Snapshot.maxDeltaSize(current.getSize()) : 0);
+		if(writePosition + maxLength > arena.length) {
+			// the tail of the array is too short, the entries in it are the oldest ones
+			while(entryCount > 0 && entryOffsets[oldestEntry] >= writePosition) {
+				evictOldest();
+			}
+			writePosition = 0;
+		}
+		if(entryCount == entryOffsets.length) {
+			evictOldest();
+		}
+		
+		int deltaLength = current.encodeDelta(newest, arena, writePosition);
+		int keyframeLength = keyframe ? current.encodeDelta(empty, arena, writePosition + deltaLength) : 0;
+		int length = deltaLength + keyframeLength;
+		// the new entry may have overwritten the start of the oldest ones
+		while(entryCount > 0 && entryOffsets[oldestEntry] >= writePosition
+				&& entryOffsets[oldestEntry] < writePosition + length) {
+			evictOldest();
+		}
+		
+		int entry = (oldestEntry + entryCount) % entryOffsets.length;
+		entryOffsets[entry] = writePosition;
+		deltaLengths[entry] = deltaLength;
+		keyframeLengths[entry] = keyframeLength;
+		entryCount++;
+		writePosition += length;
+		
+		newest.copyFrom(current);
+		recordedFrames++;
+		recordedBytes += length;
+	}
+	
+	/**
+	 * put the machine back one frame
+	 * @param core the machine
+	 * @return false when there is no history left
+	 */
+	public boolean stepBack(Chip8Core core) {
+		return rewind(core, 1) == 1;
+	}
+	
+	/**
+	 * put the machine back the given number of frames, or as far as the history goes;
+	 * the frames rewound over are dropped from the history
+	 * @param core the machine
+	 * @param frames number of frames to go back
+	 * @return number of frames actually rewound
+	 */
+	public int rewind(Chip8Core core, int frames) {
+		int count = Math.min(frames, entryCount);
+		if(count <= 0) {
+			return 0;
+		}
+		
+		// the closest keyframe at or after the target saves undoing the frames after it
+		int start = entryCount - 1;
+		for(int i = entryCount - count ; i < entryCount - 1 ; i++) {
+			if(keyframeLengths[entryAt(i)] > 0) {
+				newest.copyFrom(snapshotAt(i));
+				start = i;
+				break;
+			}
+		}
+		for(int i = start ; i >= entryCount - count ; i--) {
+			int entry = entryAt(i);
+			newest.applyDelta(arena, entryOffsets[entry], deltaLengths[entry]);
+		}
+		
+		entryCount -= count;
+		newestFrame -= count;
+		writePosition = entryCount == 0 ? 0 : endOf(entryAt(entryCount - 1));
+		core.restoreState(newest);
+		return count;
+	}
+	
+	private Snapshot snapshotAt(int index) {
+		int entry = entryAt(index);
+		current.copyFrom(empty);
+		current.applyDelta(arena, entryOffsets[entry] + deltaLengths[entry], keyframeLengths[entry]);
+		return current;
+	}
+	
+	private int entryAt(int index) {
+		return (oldestEntry + index) % entryOffsets.length;
+	}
+	
+	private int endOf(int entry) {
+		return entryOffsets[entry] + deltaLengths[entry] + keyframeLengths[entry];
+	}
+	
+	private void evictOldest() {
+		oldestEntry = (oldestEntry + 1) % entryOffsets.length;
+		entryCount--;
+	}
+	
+	/**
+	 * @return number of frames that can be rewound
+	 */
+	public int getFrameCount() {
+		return entryCount;
+	}
+	
+	/**
+	 * @return number of seconds that can be rewound
+	 */
+	public double getSeconds() {
+		return entryCount / (double)Scheduler.TIMER_FREQUENCY;
+	}
+	
+	/**
+	 * @return number of bytes kept for the history
+	 */
+	public int getBudget() {
+		return arena.length;
+	}
+	
+	/**
+	 * @return average number of bytes recorded per frame, keyframes included
+	 */
+	public double getBytesPerFrame() {
+		return recordedFrames == 0 ? 0 : recordedBytes / (double)recordedFrames;
+	}
+	
+	/**
+	 * @return how the history is used, to size the budget for long sessions
+	 */
+	@Override
+	public String toString() {
+		double bytesPerFrame = getBytesPerFrame();
+		double secondsPerMegabyte = bytesPerFrame == 0 ? 0
+				: (1 << 20) / bytesPerFrame / Scheduler.TIMER_FREQUENCY;
+		return String.format("rewind %d frames (%.1f s) in %d KB, %.1f bytes/frame, %.0f s per MB",
+				entryCount, getSeconds(), arena.length >> 10, bytesPerFrame, secondsPerMegabyte);
+	}
+}
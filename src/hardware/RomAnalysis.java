@@ -0,0 +1,301 @@
+package hardware;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * What {@link RomAnalyzer} found in a rom without running it: which bytes are
+ * instructions and which are sprites or other data, the basic blocks of the control
+ * flow graph and the instructions no interpreter knows.
+ *
+ * An analysis never changes once made, so one cached analysis serves every machine
+ * running the same rom. It also keeps the blocks the first of them compiles in
+ * {@link Chip8Core#prepare(RomAnalysis)}, which the others take instead of compiling
+ * their own.
+ *
+ * @author Richard Yang
+ *
+ */
+public class RomAnalysis {
+	/**
+	 * flag of the first byte of an instruction reached from the entry point
+	 */
+	public static final int CODE = 0x01;
+	/**
+	 * flag of a byte drawn as a sprite by DXYN after an ANNN in the same block
+	 */
+	public static final int SPRITE = 0x02;
+	/**
+	 * flag of a byte read or written as data by FX33, FX55, FX65 and the like
+	 */
+	public static final int DATA = 0x04;
+	/**
+	 * flag of the first byte of a 4 byte XO-CHIP F000 NNNN
+	 */
+	public static final int LONG_INSTRUCTION = 0x08;
+	
+	/**
+	 * a straight run of instructions entered only at its start
+	 */
+	public static class Block {
+		
+		private final int start;
+		private final int end;
+		private final int[] successors;
+		private final boolean isIndirect;
+		private boolean isHot;
+		
+		Block(int start, int end, int[] successors, boolean isIndirect) {
+			this.start = start;
+			this.end = end;
+			this.successors = successors;
+			this.isIndirect = isIndirect;
+		}
+		
+		/**
+		 * @return address of the first instruction
+		 */
+		public int getStart() {
+			return start;
+		}
+		
+		/**
+		 * @return address right after the last instruction
+		 */
+		public int getEnd() {
+			return end;
+		}
+		
+		/**
+		 * @return start addresses of the blocks that can run next, a call having both the
+		 * subroutine and the return address; a successor outside the rom has no block
+		 */
+		public int[] getSuccessors() {
+			return successors.clone();
+		}
+		
+		int successorCount() {
+			return successors.length;
+		}
+		
+		int successorAt(int index) {
+			return successors[index];
+		}
+		
+		/**
+		 * @return whether the block ends with a BNNN, whose targets are only guessed
+		 */
+		public boolean isIndirect() {
+			return isIndirect;
+		}
+		
+		/**
+		 * @return whether the block is in a loop, or in a subroutine called from one
+		 */
+		public boolean isHot() {
+			return isHot;
+		}
+		
+		void setHot() {
+			isHot = true;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder(String.format("%03X-%03X", start, end - 1));
+			builder.append(isHot ? " hot" : "").append(isIndirect ? " indirect" : "").append(" ->");
+			for(int successor : successors) {
+				builder.append(String.format(" %03X", successor));
+			}
+			return builder.toString();
+		}
+	}
+	
+	private final String sha1;
+	private final QuirksProfile quirks;
+	private final int end;
+	
+	//the rom, to check that a machine holds it before sharing blocks with it
+	private final byte[] image;
+	
+	//flags of each byte of the rom, from MEMORY_START
+	private final byte[] flags;
+	
+	private final List<Block> blocks;
+	
+	//addresses of the instructions reached that no profile decodes
+	private final int[] unknownOpcodes;
+	
+	//blocks compiled from the rom by address from MEMORY_START, and their lengths; a
+	//length is written before its block is published, so it is seen with the block
+	private final AtomicReferenceArray<CompiledBlock> compiledBlocks;
+	private final int[] compiledLengths;
+	
+	RomAnalysis(String sha1, QuirksProfile quirks, byte[] image, byte[] flags, List<Block> blocks, int[] unknownOpcodes) {
+		this.sha1 = sha1;
+		this.quirks = quirks;
+		this.end = Chip8Core.MEMORY_START + flags.length;
+		this.image = image;
+		this.flags = flags;
+		this.blocks = Collections.unmodifiableList(blocks);
+		this.unknownOpcodes = unknownOpcodes;
+		compiledBlocks = new AtomicReferenceArray<CompiledBlock>(flags.length);
+		compiledLengths = new int[flags.length];
+	}
+	
+	/**
+	 * @return hex SHA-1 of the rom
+	 */
+	public String getSha1() {
+		return sha1;
+	}
+	
+	/**
+	 * @return the profile the rom was decoded with
+	 */
+	public QuirksProfile getQuirks() {
+		return quirks;
+	}
+	
+	/**
+	 * @return address of the first byte of the rom
+	 */
+	public int getStart() {
+		return Chip8Core.MEMORY_START;
+	}
+	
+	/**
+	 * @return address right after the last byte of the rom
+	 */
+	public int getEnd() {
+		return end;
+	}
+	
+	/**
+	 * @param address an address of memory
+	 * @return the flags of the byte, 0 outside the rom or for a byte never reached
+	 */
+	public int flagsAt(int address) {
+		if(address < Chip8Core.MEMORY_START || address >= end) {
+			return 0;
+		}
+		return flags[address - Chip8Core.MEMORY_START];
+	}
+	
+	/**
+	 * @param address an address of memory
+	 * @return whether an instruction reached from the entry point starts there
+	 */
+	public boolean isCode(int address) {
+		return (flagsAt(address) & CODE) != 0;
+	}
+	
+	/**
+	 * @param address the address of an instruction
+	 * @return its length in bytes
+	 */
+	public int instructionLength(int address) {
+		return (flagsAt(address) & LONG_INSTRUCTION) != 0 ? 4 : 2;
+	}
+	
+	/**
+	 * @return the basic blocks, by address
+	 */
+	public List<Block> getBlocks() {
+		return blocks;
+	}
+	
+	/**
+	 * @return addresses of the instructions reached that the quirks profile does not
+	 * decode, which the interpreter would stop at
+	 */
+	public int[] getUnknownOpcodes() {
+		return unknownOpcodes.clone();
+	}
+	
+	/**
+	 * @param flag {@link #CODE}, {@link #SPRITE} or {@link #DATA}
+	 * @return number of bytes of the rom with the flag, two per instruction for code
+	 */
+	public int countBytes(int flag) {
+		int count = 0;
+		for(int i = 0 ; i < flags.length ; i++) {
+			if((flags[i] & flag) != 0) {
+				count += flag == CODE ? instructionLength(Chip8Core.MEMORY_START + i) : 1;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return number of hot blocks
+	 */
+	public int countHotBlocks() {
+		int count = 0;
+		for(Block block : blocks) {
+			if(block.isHot()) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @param memory the memory of a machine
+	 * @return whether the rom is in the memory at {@link Chip8Core#MEMORY_START}
+	 */
+	boolean isLoadedIn(byte[] memory) {
+		return holds(memory, Chip8Core.MEMORY_START, end);
+	}
+	
+	/**
+	 * @param memory the memory of a machine
+	 * @param from the first address, within the rom
+	 * @param to the address right after the last, within the rom
+	 * @return whether the memory still holds the bytes of the rom between the addresses
+	 */
+	boolean holds(byte[] memory, int from, int to) {
+		return to <= memory.length && Arrays.equals(image, from - Chip8Core.MEMORY_START,
+				to - Chip8Core.MEMORY_START, memory, from, to);
+	}
+	
+	/**
+	 * @param address the address of the first instruction
+	 * @return the block compiled there from the rom, null if none is shared yet
+	 */
+	CompiledBlock compiledBlockAt(int address) {
+		return compiledBlocks.get(address - Chip8Core.MEMORY_START);
+	}
+	
+	/**
+	 * @param address the address of the first instruction
+	 * @return the number of instructions of the block compiled there from the rom
+	 */
+	int compiledLengthAt(int address) {
+		return compiledLengths[address - Chip8Core.MEMORY_START];
+	}
+	
+	/**
+	 * share a block compiled from the rom with the other machines, unless one was shared
+	 * first; the block has to lie within the rom
+	 * @param address the address of the first instruction
+	 * @param block the compiled block
+	 * @param length its number of instructions
+	 */
+	void shareCompiledBlock(int address, CompiledBlock block, int length) {
+		int offset = address - Chip8Core.MEMORY_START;
+		if(compiledBlocks.get(offset) == null) {
+			compiledLengths[offset] = length;
+			compiledBlocks.compareAndSet(offset, null, block);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d bytes: %d code, %d sprite, %d data, %d blocks (%d hot), %d unknown opcodes",
+				flags.length, countBytes(CODE), countBytes(SPRITE), countBytes(DATA), blocks.size(),
+				countHotBlocks(), unknownOpcodes.length);
+	}
+}
@@ -0,0 +1,453 @@
+package hardware;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the code of a rom before it runs, by following every path from
+ * {@link Chip8Core#MEMORY_START}: 1NNN jumps, 2NNN calls and the return after them,
+ * both ways of every skip, and the jump tables of BNNN. The instructions are decoded by
+ * a {@link Chip8Core} with the quirks profile of the rom, so the analysis sees exactly
+ * what the interpreter will run.
+ *
+ * Within a block the value of I is known after an ANNN, so the sprites DXYN draws and
+ * the bytes FX33, FX55 and FX65 touch are told from code. The blocks in a loop, and the
+ * subroutines they call, are marked hot: they are the ones worth compiling on their
+ * first run.
+ *
+ * The analyses are kept by rom hash and profile, so the many machines of a batch run
+ * analyze a rom, and compile its hot blocks, only once.
+ *
+ * @author Richard Yang
+ *
+ */
+public class RomAnalyzer {
+	/**
+	 * most entries followed in a BNNN jump table
+	 */
+	static final int MAX_JUMP_TABLE_LENGTH = 128;
+	
+	//the analyses done so far, by rom hash and profile
+	private static final ConcurrentHashMap<String, RomAnalysis> CACHE = new ConcurrentHashMap<String, RomAnalysis>();
+	
+	private final Chip8Core core;
+	private final ByteBuffer rom;
+	private final int end;
+	
+	//flags of each byte of the rom
+	private final byte[] flags;
+	
+	//first bytes of the blocks
+	private final BitSet leaders;
+	
+	private final List<Integer> unknownOpcodes;
+	
+	private RomAnalyzer(ByteBuffer rom, QuirksProfile quirks) {
+		this.rom = rom.duplicate();
+		core = new Chip8Core();
+		core.setQuirks(quirks);
+		core.load(rom);
+		end = Chip8Core.MEMORY_START + rom.remaining();
+		flags = new byte[rom.remaining()];
+		leaders = new BitSet();
+		unknownOpcodes = new ArrayList<Integer>();
+	}
+	
+	/**
+	 * analyze a rom, or get the analysis already done for the same rom and profile
+	 * @param rom the rom image, its position is left unchanged
+	 * @param quirks the profile the rom runs with
+	 * @return the analysis
+	 * @throws IllegalArgumentException if the rom does not fit in the memory of the profile
+	 */
+	public static RomAnalysis analyze(ByteBuffer rom, QuirksProfile quirks) {
+		String sha1 = RomCatalog.sha1(rom);
+		String key = sha1 + " " + quirks.name();
+		RomAnalysis analysis = CACHE.get(key);
+		if(analysis == null) {
+			analysis = new RomAnalyzer(rom, quirks).analyze(sha1);
+			RomAnalysis existing = CACHE.putIfAbsent(key, analysis);
+			if(existing != null) {
+				analysis = existing;
+			}
+		}
+		return analysis;
+	}
+	
+	/**
+	 * @see #analyze(ByteBuffer, QuirksProfile)
+	 */
+	public static RomAnalysis analyze(byte[] rom, QuirksProfile quirks) {
+		return analyze(ByteBuffer.wrap(rom), quirks);
+	}
+	
+	/**
+	 * forget every analysis done so far
+	 */
+	public static void clearCache() {
+		CACHE.clear();
+	}
+	
+	private RomAnalysis analyze(String sha1) {
+		traverse();
+		List<RomAnalysis.Block> blocks = buildBlocks();
+		markHotBlocks(blocks);
+		markData(blocks);
+		
+		int[] unknown = new int[unknownOpcodes.size()];
+		for(int i = 0 ; i < unknown.length ; i++) {
+			unknown[i] = unknownOpcodes.get(i);
+		}
+		Arrays.sort(unknown);
+		byte[] image = new byte[flags.length];
+		rom.duplicate().get(image);
+		return new RomAnalysis(sha1, core.getQuirks(), image, flags, blocks, unknown);
+	}
+	
+	/**
+	 * flag every instruction reached from the entry point and every leader of a block
+	 */
+	private void traverse() {
+		Deque<Integer> pending = new ArrayDeque<Integer>();
+		pending.push(Chip8Core.MEMORY_START);
+		leaders.set(Chip8Core.MEMORY_START);
+		while(!pending.isEmpty()) {
+			int address = pending.pop();
+			if(!isInRom(address) || isCode(address)) {
+				continue;
+			}
+			int handler = core.handlerAt(address);
+			flags[address - Chip8Core.MEMORY_START] |= RomAnalysis.CODE;
+			if(handler == Chip8Core.OP_LD_I_LONG) {
+				flags[address - Chip8Core.MEMORY_START] |= RomAnalysis.LONG_INSTRUCTION;
+			} else if(handler == Chip8Core.OP_UNKNOWN) {
+				unknownOpcodes.add(address);
+			}
+			int[] successors = successors(address, handler);
+			for(int successor : successors) {
+				pending.push(successor);
+			}
+			if(isBranch(handler)) {
+				for(int successor : successors) {
+					leaders.set(successor);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return whether the instruction ends a block
+	 */
+	private static boolean isBranch(int handler) {
+		switch(handler) {
+		case Chip8Core.OP_UNKNOWN:
+		case Chip8Core.OP_RET:
+		case Chip8Core.OP_JP:
+		case Chip8Core.OP_CALL:
+		case Chip8Core.OP_JP_OFFSET:
+		case Chip8Core.OP_EXIT:
+		case Chip8Core.OP_SE_BYTE:
+		case Chip8Core.OP_SNE_BYTE:
+		case Chip8Core.OP_SE_REG:
+		case Chip8Core.OP_SNE_REG:
+		case Chip8Core.OP_SKP:
+		case Chip8Core.OP_SKNP:
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * @return the addresses that can run after the instruction; a return has none since
+	 * the return address is a successor of the call
+	 */
+	private int[] successors(int address, int handler) {
+		int next = address + instructionLength(address);
+		switch(handler) {
+		case Chip8Core.OP_UNKNOWN:
+		case Chip8Core.OP_RET:
+		case Chip8Core.OP_EXIT:
+			return new int[0];
+		case Chip8Core.OP_JP:
+			return new int[] { core.operandImmediate[address] };
+		case Chip8Core.OP_CALL:
+			return new int[] { core.operandImmediate[address], next };
+		case Chip8Core.OP_JP_OFFSET:
+			return jumpTable(core.operandImmediate[address]);
+		case Chip8Core.OP_SE_BYTE:
+		case Chip8Core.OP_SNE_BYTE:
+		case Chip8Core.OP_SE_REG:
+		case Chip8Core.OP_SNE_REG:
+		case Chip8Core.OP_SKP:
+		case Chip8Core.OP_SKNP:
+			return new int[] { next, next + instructionLength(next) };
+		default:
+			return new int[] { next };
+		}
+	}
+	
+	/**
+	 * the offset of a BNNN is only known at run time, but it usually picks one of a row of
+	 * jumps at NNN
+	 * @return the addresses of the jumps of the table
+	 */
+	private int[] jumpTable(int table) {
+		int length = 0;
+		while(length < MAX_JUMP_TABLE_LENGTH && isInRom(table + 2 * length + 1)
+				&& (byteAt(table + 2 * length) & 0xF0) == 0x10) {
+			length++;
+		}
+		int[] entries = new int[length];
+		for(int i = 0 ; i < length ; i++) {
+			entries[i] = table + 2 * i;
+		}
+		return entries;
+	}
+	
+	/**
+	 * split the instructions reached into blocks, ending a block at a branch, before a
+	 * leader or where the next instruction was never reached
+	 * @return the blocks, by address
+	 */
+	private List<RomAnalysis.Block> buildBlocks() {
+		List<RomAnalysis.Block> blocks = new ArrayList<RomAnalysis.Block>();
+		for(int address = Chip8Core.MEMORY_START ; address < end ; address++) {
+			if(!isCode(address) || !isBlockStart(address)) {
+				continue;
+			}
+			int start = address;
+			int last = address;
+			int next = address + instructionLength(address);
+			while(!isBranch(core.handlerAt(last)) && isCode(next) && !leaders.get(next)) {
+				last = next;
+				next += instructionLength(next);
+			}
+			int handler = core.handlerAt(last);
+			int[] successors = successors(last, handler);
+			blocks.add(new RomAnalysis.Block(start, next, successors, handler == Chip8Core.OP_JP_OFFSET));
+			for(int successor : successors) {
+				leaders.set(successor);
+			}
+		}
+		return blocks;
+	}
+	
+	/**
+	 * @return whether a block starts at the instruction: it is a leader, or no block
+	 * runs into it
+	 */
+	private boolean isBlockStart(int address) {
+		if(leaders.get(address)) {
+			return true;
+		}
+		for(int length = 2 ; length <= 4 ; length += 2) {
+			int previous = address - length;
+			if(isCode(previous) && instructionLength(previous) == length && !isBranch(core.handlerAt(previous))) {
+				return false;
+			}
+		}
+		leaders.set(address);
+		return true;
+	}
+	
+	/**
+	 * mark the blocks of the loops, found as the strongly connected components of the
+	 * graph, then the blocks reached from the subroutines they call
+	 */
+	private void markHotBlocks(List<RomAnalysis.Block> blocks) {
+		Map<Integer, Integer> indices = new HashMap<Integer, Integer>();
+		for(int i = 0 ; i < blocks.size() ; i++) {
+			indices.put(blocks.get(i).getStart(), i);
+		}
+		int[][] edges = new int[blocks.size()][];
+		for(int i = 0 ; i < edges.length ; i++) {
+			RomAnalysis.Block block = blocks.get(i);
+			int[] targets = new int[block.successorCount()];
+			int count = 0;
+			for(int j = 0 ; j < targets.length ; j++) {
+				Integer target = indices.get(block.successorAt(j));
+				if(target != null) {
+					targets[count++] = target;
+				}
+			}
+			edges[i] = Arrays.copyOf(targets, count);
+		}
+		
+		int[] components = stronglyConnectedComponents(edges);
+		int[] sizes = new int[edges.length];
+		for(int component : components) {
+			sizes[component]++;
+		}
+		Deque<Integer> pending = new ArrayDeque<Integer>();
+		for(int i = 0 ; i < edges.length ; i++) {
+			boolean isLoop = sizes[components[i]] > 1;
+			for(int target : edges[i]) {
+				isLoop |= target == i;
+			}
+			if(isLoop) {
+				blocks.get(i).setHot();
+			}
+		}
+		for(RomAnalysis.Block block : blocks) {
+			int last = block.getEnd() - 2;
+			if(block.isHot() && isCode(last) && core.handlerAt(last) == Chip8Core.OP_CALL) {
+				Integer callee = indices.get((int)core.operandImmediate[last]);
+				if(callee != null) {
+					pending.push(callee);
+				}
+			}
+		}
+		
+		// everything a subroutine called from a loop reaches is hot too
+		while(!pending.isEmpty()) {
+			int i = pending.pop();
+			blocks.get(i).setHot();
+			for(int target : edges[i]) {
+				if(!blocks.get(target).isHot()) {
+					pending.push(target);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tarjan's algorithm, without recursion so a long chain of blocks cannot overflow the
+	 * stack
+	 * @param edges the successors of every node
+	 * @return the component of every node
+	 */
+	private static int[] stronglyConnectedComponents(int[][] edges) {
+		int count = edges.length;
+		int[] index = new int[count];
+		int[] lowLink = new int[count];
+		int[] components = new int[count];
+		boolean[] isOnStack = new boolean[count];
+		Arrays.fill(index, -1);
+		int[] stack = new int[count];
+		int stackSize = 0;
+		int[] callNode = new int[count];
+		int[] callEdge = new int[count];
+		int nextIndex = 0;
+		int nextComponent = 0;
+		
+		for(int root = 0 ; root < count ; root++) {
+			if(index[root] >= 0) {
+				continue;
+			}
+			int depth = 0;
+			callNode[0] = root;
+			callEdge[0] = 0;
+			index[root] = lowLink[root] = nextIndex++;
+			stack[stackSize++] = root;
+			isOnStack[root] = true;
+			while(depth >= 0) {
+				int node = callNode[depth];
+				if(callEdge[depth] < edges[node].length) {
+					int target = edges[node][callEdge[depth]++];
+					if(index[target] < 0) {
+						index[target] = lowLink[target] = nextIndex++;
+						stack[stackSize++] = target;
+						isOnStack[target] = true;
+						depth++;
+						callNode[depth] = target;
+						callEdge[depth] = 0;
+					} else if(isOnStack[target]) {
+						lowLink[node] = Math.min(lowLink[node], index[target]);
+					}
+					continue;
+				}
+				if(lowLink[node] == index[node]) {
+					int member;
+					do {
+						member = stack[--stackSize];
+						isOnStack[member] = false;
+						components[member] = nextComponent;
+					} while(member != node);
+					nextComponent++;
+				}
+				depth--;
+				if(depth >= 0) {
+					int parent = callNode[depth];
+					lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+				}
+			}
+		}
+		return components;
+	}
+	
+	/**
+	 * follow I through every block from the ANNN or F000 NNNN setting it, and flag the
+	 * bytes read or written through it
+	 */
+	private void markData(List<RomAnalysis.Block> blocks) {
+		for(RomAnalysis.Block block : blocks) {
+			int index = -1;
+			int planes = 1;
+			for(int address = block.getStart() ; address < block.getEnd() ; address += instructionLength(address)) {
+				int handler = core.handlerAt(address);
+				int x = core.operandX[address];
+				int y = core.operandY[address];
+				int immediate = core.operandImmediate[address];
+				switch(handler) {
+				case Chip8Core.OP_LD_I: index = immediate; break;
+				case Chip8Core.OP_LD_I_LONG: index = (byteAt(address + 2) & 0xFF) << 8 | (byteAt(address + 3) & 0xFF); break;
+				case Chip8Core.OP_ADD_I:
+				case Chip8Core.OP_LD_FONT:
+				case Chip8Core.OP_LD_BIG_FONT: index = -1; break;
+				case Chip8Core.OP_PLANE: planes = Integer.bitCount(x & 0x3); break;
+				case Chip8Core.OP_DRW: mark(index, immediate * planes, RomAnalysis.SPRITE); break;
+				case Chip8Core.OP_DRW_WIDE: mark(index, 32 * planes, RomAnalysis.SPRITE); break;
+				case Chip8Core.OP_LD_BCD: mark(index, 3, RomAnalysis.DATA); break;
+				case Chip8Core.OP_STORE:
+				case Chip8Core.OP_LOAD: {
+					mark(index, x + 1, RomAnalysis.DATA);
+					index = index < 0 ? -1 : index + immediate;
+					break;
+				}
+				case Chip8Core.OP_SAVE_RANGE:
+				case Chip8Core.OP_LOAD_RANGE: mark(index, Math.abs(x - y) + 1, RomAnalysis.DATA); break;
+				case Chip8Core.OP_LD_PATTERN: mark(index, Chip8Core.AUDIO_PATTERN_SIZE, RomAnalysis.DATA); break;
+				}
+			}
+		}
+	}
+	
+	private void mark(int index, int length, int flag) {
+		if(index < 0) {
+			return;
+		}
+		for(int address = index ; address < index + length ; address++) {
+			if(isInRom(address)) {
+				flags[address - Chip8Core.MEMORY_START] |= flag;
+			}
+		}
+	}
+	
+	private boolean isInRom(int address) {
+		return address >= Chip8Core.MEMORY_START && address < end;
+	}
+	
+	private boolean isCode(int address) {
+		return isInRom(address) && (flags[address - Chip8Core.MEMORY_START] & RomAnalysis.CODE) != 0;
+	}
+	
+	private int instructionLength(int address) {
+		if(!isInRom(address + 3) || !core.getQuirks().isXoChip()) {
+			return 2;
+		}
+		return byteAt(address) == (byte)0xF0 && byteAt(address + 1) == 0 ? 4 : 2;
+	}
+	
+	private byte byteAt(int address) {
+		return rom.get(rom.position() + address - Chip8Core.MEMORY_START);
+	}
+}
@@ -0,0 +1,454 @@
+package hardware;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An index of the roms of a directory kept on disk next to them, so that starting the
+ * emulator or opening the file chooser does not read every rom again.
+ *
+ * Each rom has a {@link RomEntry}. A refresh only looks at the size and modification
+ * time of each file and reads a file again only when they changed; the zip archive next
+ * to a rom is read directly, each rom inside it getting its own entry.
+ *
+ * The catalog file is text, one tab separated line per rom: the name, size, modification
+ * time, SHA-1, quirks profile and time last played.
+ *
+ * Roms are mapped from their file rather than streamed, and copied straight into memory
+ * by {@link Chip8Core#load(java.nio.ByteBuffer)}.
+ *
+ * @author Richard Yang
+ *
+ */
+public class RomCatalog {
+	/**
+	 * name of the catalog file in the rom directory
+	 */
+	public static final String CATALOG_FILE_NAME = ".catalog";
+	
+	/**
+	 * first line of a catalog file
+	 */
+	private static final String FILE_HEADER = "# chip8 rom catalog 1";
+	private static final String ZIP_EXTENSION = ".zip";
+	private static final String[] ROM_EXTENSIONS = { ".rom", ".ch8", ".c8" };
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	private final File directory;
+	private final File catalogFile;
+	
+	//entries by name, sorted for a stable catalog file
+	private Map<String, RomEntry> entries;
+	
+	//whether the entries differ from the catalog file
+	private boolean isDirty;
+	
+	/**
+	 * read the catalog of a directory, without scanning the directory
+	 * @param directory the rom directory
+	 */
+	public RomCatalog(File directory) {
+		this.directory = directory;
+		catalogFile = new File(directory, CATALOG_FILE_NAME);
+		entries = new TreeMap<String, RomEntry>();
+		if(catalogFile.isFile()) {
+			try {
+				readCatalog();
+			} catch (IOException e) {
+				e.printStackTrace();
+				entries.clear();
+			}
+		}
+	}
+	
+	/**
+	 * bring the catalog up to date with the directory, reading only the roms that are
+	 * new or whose size or modification time changed
+	 */
+	public synchronized void refresh() {
+		File[] files = directory.listFiles();
+		if(files == null) {
+			files = new File[0];
+		}
+		Arrays.sort(files);
+		Map<String, RomEntry> previous = entries;
+		entries = new TreeMap<String, RomEntry>();
+		for(File file : files) {
+			if(!file.isFile()) {
+				continue;
+			}
+			try {
+				if(isRom(file.getName())) {
+					refreshRom(file, previous);
+				} else if(file.getName().toLowerCase().endsWith(ZIP_EXTENSION)) {
+					refreshArchive(file, previous);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if(!entries.keySet().equals(previous.keySet())) {
+			isDirty = true;
+		}
+	}
+	
+	private void refreshRom(File file, Map<String, RomEntry> previous) throws IOException {
+		RomEntry old = previous.get(file.getName());
+		if(old != null && old.getSize() == file.length() && old.getLastModified() == file.lastModified()) {
+			entries.put(old.getName(), old);
+			return;
+		}
+		long lastModified = file.lastModified();
+		add(file.getName(), lastModified, map(file), old);
+	}
+	
+	private void refreshArchive(File file, Map<String, RomEntry> previous) throws IOException {
+		String prefix = file.getName() + RomEntry.ARCHIVE_SEPARATOR;
+		List<RomEntry> old = new ArrayList<RomEntry>();
+		boolean isCurrent = true;
+		for(RomEntry entry : previous.values()) {
+			if(entry.getName().startsWith(prefix)) {
+				old.add(entry);
+				isCurrent &= entry.getLastModified() == file.lastModified();
+			}
+		}
+		if(isCurrent && !old.isEmpty()) {
+			for(RomEntry entry : old) {
+				entries.put(entry.getName(), entry);
+			}
+			return;
+		}
+		long lastModified = file.lastModified();
+		ZipFile zip = new ZipFile(file);
+		try {
+			Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+			while(zipEntries.hasMoreElements()) {
+				ZipEntry zipEntry = zipEntries.nextElement();
+				if(!zipEntry.isDirectory() && isRom(zipEntry.getName())) {
+					String name = prefix + zipEntry.getName();
+					add(name, lastModified, readEntry(zip, zipEntry), previous.get(name));
+				}
+			}
+		} finally {
+			zip.close();
+		}
+	}
+	
+	/**
+	 * add the entry of a rom that was read, keeping when it was last played
+	 */
+	private void add(String name, long lastModified, ByteBuffer rom, RomEntry old) {
+		RomEntry entry = new RomEntry(name, rom.remaining(), lastModified, sha1(rom), detectQuirks(rom),
+				old == null ? 0 : old.getLastPlayed());
+		entries.put(name, entry);
+		isDirty = true;
+	}
+	
+	/**
+	 * @return all the entries, sorted by name
+	 */
+	public synchronized List<RomEntry> getEntries() {
+		return new ArrayList<RomEntry>(entries.values());
+	}
+	
+	/**
+	 * @param name a rom file name, or archive and entry names
+	 * @return its entry, null if it is not in the catalog
+	 */
+	public synchronized RomEntry getEntry(String name) {
+		return entries.get(name);
+	}
+	
+	/**
+	 * @param file a rom file or archive
+	 * @return the entry of the rom {@link #read(File)} loads from it, null if the file is not
+	 * in the catalog
+	 */
+	public synchronized RomEntry find(File file) {
+		if(!directory.getAbsoluteFile().equals(file.getAbsoluteFile().getParentFile())) {
+			return null;
+		}
+		RomEntry entry = entries.get(file.getName());
+		if(entry != null) {
+			return entry;
+		}
+		for(RomEntry candidate : entries.values()) {
+			if(candidate.getFileName().equals(file.getName())) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @param entry an entry of this catalog
+	 * @return the rom
+	 * @throws IOException if it cannot be read or is too large
+	 */
+	public ByteBuffer read(RomEntry entry) throws IOException {
+		File file = new File(directory, entry.getFileName());
+		if(!entry.isZipped()) {
+			return map(file);
+		}
+		ZipFile zip = new ZipFile(file);
+		try {
+			ZipEntry zipEntry = zip.getEntry(entry.getEntryName());
+			if(zipEntry == null) {
+				throw new IOException(entry.getName() + " is no longer in its archive");
+			}
+			return readEntry(zip, zipEntry);
+		} finally {
+			zip.close();
+		}
+	}
+	
+	/**
+	 * choose the quirks profile of a rom, overriding the one detected
+	 * @param entry an entry of this catalog
+	 * @param quirks the profile to run it with
+	 */
+	public synchronized void setQuirks(RomEntry entry, QuirksProfile quirks) {
+		entry.setQuirks(quirks);
+		isDirty = true;
+	}
+	
+	/**
+	 * record that a rom was loaded
+	 * @param entry an entry of this catalog
+	 * @param time the time it was loaded
+	 */
+	public synchronized void markPlayed(RomEntry entry, long time) {
+		entry.setLastPlayed(time);
+		isDirty = true;
+	}
+	
+	/**
+	 * write the catalog file, if anything changed since it was read or written
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void save() throws IOException {
+		if(!isDirty) {
+			return;
+		}
+		BufferedWriter writer = new BufferedWriter(new FileWriter(catalogFile));
+		try {
+			writer.write(FILE_HEADER);
+			writer.newLine();
+			for(RomEntry entry : entries.values()) {
+				writer.write(entry.getName() + '\t' + entry.getSize() + '\t' + entry.getLastModified() + '\t'
+						+ entry.getSha1() + '\t' + entry.getQuirks().getName() + '\t' + entry.getLastPlayed());
+				writer.newLine();
+			}
+		} finally {
+			writer.close();
+		}
+		isDirty = false;
+	}
+	
+	private void readCatalog() throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(catalogFile));
+		try {
+			if(!FILE_HEADER.equals(reader.readLine())) {
+				throw new IOException(catalogFile + " is not a rom catalog of this emulator");
+			}
+			String line;
+			while((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if(fields.length != 6) {
+					throw new IOException("bad line in " + catalogFile + " : " + line);
+				}
+				try {
+					entries.put(fields[0], new RomEntry(fields[0], Long.parseLong(fields[1]),
+							Long.parseLong(fields[2]), fields[3], QuirksProfile.forName(fields[4]),
+							Long.parseLong(fields[5])));
+				} catch (IllegalArgumentException e) {
+					throw new IOException("bad line in " + catalogFile + " : " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * read a rom from a file, or from the first rom of a zip archive
+	 * @param file the rom or archive
+	 * @return the rom
+	 * @throws IOException if it cannot be read, holds no rom or is too large
+	 */
+	public static ByteBuffer read(File file) throws IOException {
+		if(!file.getName().toLowerCase().endsWith(ZIP_EXTENSION)) {
+			return map(file);
+		}
+		ZipFile zip = new ZipFile(file);
+		try {
+			Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+			while(zipEntries.hasMoreElements()) {
+				ZipEntry zipEntry = zipEntries.nextElement();
+				if(!zipEntry.isDirectory() && isRom(zipEntry.getName())) {
+					return readEntry(zip, zipEntry);
+				}
+			}
+			throw new IOException(file + " holds no rom");
+		} finally {
+			zip.close();
+		}
+	}
+	
+	/**
+	 * map a rom file into memory, the mapping outlives the channel
+	 * @param file the rom
+	 * @return the rom, read only
+	 * @throws IOException if it cannot be read or does not fit in the memory of the machine
+	 */
+	public static ByteBuffer map(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			checkSize(file.getName(), size);
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			channel.close();
+		}
+	}
+	
+	private static ByteBuffer readEntry(ZipFile zip, ZipEntry zipEntry) throws IOException {
+		checkSize(zipEntry.getName(), zipEntry.getSize());
+		// the size in the archive may be missing or wrong, read one byte too many to tell
+		byte[] rom = new byte[Chip8Core.MAX_ROM_SIZE + 1];
+		int length = 0;
+		InputStream in = zip.getInputStream(zipEntry);
+		try {
+			int count;
+			while(length < rom.length && (count = in.read(rom, length, rom.length - length)) > 0) {
+				length += count;
+			}
+		} finally {
+			in.close();
+		}
+		checkSize(zipEntry.getName(), length);
+		return ByteBuffer.wrap(Arrays.copyOf(rom, length));
+	}
+	
+	private static void checkSize(String name, long size) throws IOException {
+		if(size > Chip8Core.MAX_ROM_SIZE) {
+			throw new IOException(name + " has " + size + " bytes, more than the "
+					+ Chip8Core.MAX_ROM_SIZE + " that fit in memory");
+		}
+	}
+	
+	private static boolean isRom(String name) {
+		String lowerName = name.toLowerCase();
+		for(String extension : ROM_EXTENSIONS) {
+			if(lowerName.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @param rom a rom, its position is left unchanged
+	 * @return the hex SHA-1 of the remaining bytes
+	 */
+	public static String sha1(ByteBuffer rom) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		digest.update(rom.duplicate());
+		byte[] hash = digest.digest();
+		char[] hex = new char[hash.length * 2];
+		for(int i = 0 ; i < hash.length ; i++) {
+			hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0x0F];
+			hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0x0F];
+		}
+		return new String(hex);
+	}
+	
+	/**
+	 * guess the quirks profile of a rom from the instructions it holds; data can look like
+	 * an instruction, so it takes two different SUPER-CHIP or XO-CHIP instructions to pick
+	 * that profile, and only XO-CHIP roms are larger than the 4 KB memory
+	 * @param rom a rom, its position is left unchanged
+	 * @return {@link QuirksProfile#XO_CHIP}, {@link QuirksProfile#SUPER_CHIP} or
+	 * {@link QuirksProfile#CHIP8}, CHIP-48 roms cannot be told apart and have to be chosen
+	 * by hand
+	 */
+	public static QuirksProfile detectQuirks(ByteBuffer rom) {
+		int start = rom.position();
+		if(rom.remaining() > QuirksProfile.CHIP8.getMemorySize() - Chip8Core.MEMORY_START) {
+			return QuirksProfile.XO_CHIP;
+		}
+		int firstSuperChip = -1;
+		int firstXoChip = -1;
+		boolean isSuperChip = false;
+		for(int i = start ; i + 1 < rom.limit() ; i += 2) {
+			int opcode = (rom.get(i) & 0xFF) << 8 | (rom.get(i + 1) & 0xFF);
+			if(isXoChipOpcode(opcode)) {
+				if(firstXoChip < 0) {
+					firstXoChip = opcode;
+				} else if(opcode != firstXoChip) {
+					return QuirksProfile.XO_CHIP;
+				}
+			} else if(isSuperChipOpcode(opcode)) {
+				if(firstSuperChip < 0) {
+					firstSuperChip = opcode;
+				} else if(opcode != firstSuperChip) {
+					isSuperChip = true;
+				}
+			}
+		}
+		return isSuperChip ? QuirksProfile.SUPER_CHIP : QuirksProfile.CHIP8;
+	}
+	
+	private static boolean isXoChipOpcode(int opcode) {
+		if(opcode == 0xF000 || opcode == 0xF002) {	// long index, audio pattern
+			return true;
+		}
+		if((opcode & 0xFFF0) == 0x00D0) {
+			return true;	// scroll up
+		}
+		if((opcode & 0xF00F) == 0x5002 || (opcode & 0xF00F) == 0x5003) {
+			return true;	// register ranges
+		}
+		int low = opcode & 0xF0FF;
+		return low == 0xF001 || low == 0xF03A;	// plane, pitch
+	}
+	
+	private static boolean isSuperChipOpcode(int opcode) {
+		switch(opcode) {
+		case 0x00FB:	// scroll right
+		case 0x00FC:	// scroll left
+		case 0x00FD:	// exit
+		case 0x00FE:	// low resolution
+		case 0x00FF:	// high resolution
+			return true;
+		}
+		if((opcode & 0xFFF0) == 0x00C0) {
+			return (opcode & 0x000F) != 0;	// scroll down
+		}
+		int low = opcode & 0xF0FF;
+		return low == 0xF030 || low == 0xF075 || low == 0xF085;	// big font, RPL flags
+	}
+}
@@ -0,0 +1,109 @@
+package hardware;
+
+/**
+ * What the {@link RomCatalog} knows about one rom without reading it again: where it
+ * is, the size and modification time it was scanned at, its SHA-1, the quirks profile
+ * detected for it and when it was last played.
+ *
+ * A rom is either a file of the rom directory, named by the file name, or an entry of
+ * a zip archive of the directory, named "archive.zip!entry".
+ *
+ * @author Richard Yang
+ *
+ */
+public class RomEntry {
+	/**
+	 * separator between an archive and an entry in the name of a zipped rom
+	 */
+	public static final char ARCHIVE_SEPARATOR = '!';
+	
+	private final String name;
+	private final long size;
+	private final long lastModified;
+	private final String sha1;
+	private QuirksProfile quirks;
+	private long lastPlayed;
+	
+	/**
+	 * @param name the file name, or archive and entry names
+	 * @param size the size of the rom, in bytes
+	 * @param lastModified modification time of the file or archive when it was scanned
+	 * @param sha1 hex SHA-1 of the rom
+	 * @param quirks quirks profile of the rom
+	 * @param lastPlayed time it was last loaded, 0 if never
+	 */
+	public RomEntry(String name, long size, long lastModified, String sha1, QuirksProfile quirks, long lastPlayed) {
+		this.name = name;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.sha1 = sha1;
+		this.quirks = quirks;
+		this.lastPlayed = lastPlayed;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return whether the rom is an entry of a zip archive
+	 */
+	public boolean isZipped() {
+		return name.indexOf(ARCHIVE_SEPARATOR) >= 0;
+	}
+	
+	/**
+	 * @return the file the rom is read from, the archive for a zipped rom
+	 */
+	public String getFileName() {
+		int separator = name.indexOf(ARCHIVE_SEPARATOR);
+		return separator < 0 ? name : name.substring(0, separator);
+	}
+	
+	/**
+	 * @return the entry of the archive holding the rom, null if it is not zipped
+	 */
+	public String getEntryName() {
+		int separator = name.indexOf(ARCHIVE_SEPARATOR);
+		return separator < 0 ? null : name.substring(separator + 1);
+	}
+	
+	public long getSize() {
+		return size;
+	}
+	
+	public long getLastModified() {
+		return lastModified;
+	}
+	
+	public String getSha1() {
+		return sha1;
+	}
+	
+	public QuirksProfile getQuirks() {
+		return quirks;
+	}
+	
+	/**
+	 * @param quirks quirks profile to run the rom with
+	 */
+	public void setQuirks(QuirksProfile quirks) {
+		this.quirks = quirks;
+	}
+	
+	public long getLastPlayed() {
+		return lastPlayed;
+	}
+	
+	/**
+	 * @param lastPlayed time the rom was loaded
+	 */
+	public void setLastPlayed(long lastPlayed) {
+		this.lastPlayed = lastPlayed;
+	}
+	
+	@Override
+	public String toString() {
+		return name + " (" + size + " bytes, " + quirks + ")";
+	}
+}
@@ -0,0 +1,121 @@
+package hardware;
+
+/**
+ * Hides the input lag built into a game by showing, every frame, the screen the machine
+ * will have a few frames from now if the keys stay as they are.
+ *
+ * At the end of each frame, signalled by {@link Scheduler#setRunAhead(RunAhead)} before
+ * the wait for the next one, the state of the machine goes into a snapshot, which is
+ * restored into a second machine that runs the frames ahead as fast as it can, on the
+ * interpreter or the block compiler as the real one does, and its screen is shown. The next frame starts the second machine
+ * over from the real one, so the future it ran is thrown away. The real machine is
+ * never rolled back: its sound, instruction count and input logs are exactly as
+ * without running ahead. The snapshot, the second machine and its scheduler are made
+ * once, so running ahead allocates nothing.
+ *
+ * @author Richard Yang
+ *
+ */
+public class RunAhead {
+	/**
+	 * most frames run ahead, already more than the lag of most games
+	 */
+	public static final int MAX_FRAMES = 4;
+	
+	private final Snapshot snapshot;
+	private final Chip8Core shadow;
+	private final Scheduler shadowScheduler;
+	
+	//the live keypad, only its key state is read so no edge is taken from the real machine
+	private final InputSource keypad;
+	
+	//shows the screen of the future frame
+	private final FrameSink sink;
+	
+	//the keys held at the start of the run ahead, as the second machine sees them
+	private int keyState;
+	private final PolledInputSource input;
+	
+	private int frames;
+	
+	//time the last run ahead took, and the longest one, in nanoseconds
+	private long lastTime;
+	private long maxTime;
+	
+	/**
+	 * @param frames number of frames to run ahead, 1 to {@link #MAX_FRAMES}
+	 * @param keypad the live keypad, only its key state is read
+	 * @param sink shows the screen of the future frame
+	 */
+	public RunAhead(int frames, InputSource keypad, FrameSink sink) {
+		setFrames(frames);
+		this.keypad = keypad;
+		this.sink = sink;
+		snapshot = new Snapshot();
+		shadow = new Chip8Core();
+		input = new PolledInputSource() {
+			@Override
+			public int getKeyState() {
+				return keyState;
+			}
+		};
+		shadow.setInputSource(input);
+		shadowScheduler = new Scheduler(shadow);
+	}
+	
+	/**
+	 * @param frames number of frames to run ahead, 1 to {@link #MAX_FRAMES}
+	 */
+	public void setFrames(int frames) {
+		if(frames < 1 || frames > MAX_FRAMES) {
+			throw new IllegalArgumentException("run ahead frames must be 1 to " + MAX_FRAMES + " : " + frames);
+		}
+		this.frames = frames;
+	}
+	
+	public int getFrames() {
+		return frames;
+	}
+	
+	/**
+	 * run ahead of a machine and show the screen it will have
+	 * @param core the real machine, left untouched
+	 * @param scheduler the scheduler of the real machine, whose pace is followed from
+	 *        wherever it is in its frame
+	 */
+	public void run(Chip8Core core, Scheduler scheduler) {
+		long start = System.nanoTime();
+		if(shadow.getQuirks() != core.getQuirks()) {
+			shadow.setQuirks(core.getQuirks());
+		}
+		if(shadow.isCompilingBlocks() != core.isCompilingBlocks()) {
+			shadow.setBlockCompilation(core.isCompilingBlocks());
+		}
+		core.saveState(snapshot);
+		shadow.restoreState(snapshot);
+		shadowScheduler.copyPacing(scheduler);
+		keyState = keypad.getKeyState();
+		
+		shadowScheduler.advanceFrames(frames);
+		sink.frameUpdated(shadow.getFrameBuffer(), shadow.getScreenWidth(), shadow.getScreenHeight());
+		
+		lastTime = System.nanoTime() - start;
+		if(lastTime > maxTime) {
+			maxTime = lastTime;
+		}
+	}
+	
+	/**
+	 * @return time the last run ahead took, the extra work of a frame, in nanoseconds
+	 */
+	public long getLastTime() {
+		return lastTime;
+	}
+	
+	/**
+	 * @return the longest time a run ahead took, in nanoseconds
+	 */
+	public long getMaxTime() {
+		return maxTime;
+	}
+}
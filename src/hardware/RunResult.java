@@ -0,0 +1,70 @@
+package hardware;
+
+/**
+ * What a batch run of the {@link Scheduler} executed, and the state it ended in.
+ *
+ * @author Richard Yang
+ *
+ */
+public class RunResult {
+	
+	private final long instructions;
+	
+	private final long frames;
+	
+	private final long wallTime;
+	
+	private final long stateHash;
+	
+	private final long stackFaults;
+	
+	public RunResult(long instructions, long frames, long wallTime, long stateHash, long stackFaults) {
+		this.instructions = instructions;
+		this.frames = frames;
+		this.wallTime = wallTime;
+		this.stateHash = stateHash;
+		this.stackFaults = stackFaults;
+	}
+	
+	/**
+	 * @return number of instructions executed
+	 */
+	public long getInstructions() {
+		return instructions;
+	}
+	
+	/**
+	 * @return number of frames completed, each ticking the timers once
+	 */
+	public long getFrames() {
+		return frames;
+	}
+	
+	/**
+	 * @return wall time of the run, in nanoseconds
+	 */
+	public long getWallTime() {
+		return wallTime;
+	}
+	
+	/**
+	 * @return hash of the machine state at the end of the run, see {@link Chip8Core#stateHash()}
+	 */
+	public long getStateHash() {
+		return stateHash;
+	}
+	
+	/**
+	 * @return number of times the stack wrapped around memory during the run, see
+	 * {@link Chip8Core#getStackFaults()}
+	 */
+	public long getStackFaults() {
+		return stackFaults;
+	}
+	
+	@Override
+	public String toString() {
+		return instructions + " instructions, " + frames + " frames in " + wallTime / 1000000 + " ms, state "
+				+ Long.toHexString(stateHash) + (stackFaults > 0 ? ", " + stackFaults + " stack faults" : "");
+	}
+}
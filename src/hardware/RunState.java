@@ -0,0 +1,26 @@
+package hardware;
+
+/**
+ * What the CPU thread is doing, checked by its loop at every frame boundary.
+ *
+ * @author Richard Yang
+ *
+ */
+public enum RunState {
+	/**
+	 * running frames in real time
+	 */
+	RUNNING,
+	/**
+	 * parked between two frames until resumed, stepped or stopped
+	 */
+	PAUSED,
+	/**
+	 * running one instruction or one frame, then back to PAUSED
+	 */
+	STEPPING,
+	/**
+	 * no thread, or the thread is about to end
+	 */
+	STOPPED
+}
@@ -0,0 +1,92 @@
+package hardware;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free ring of 16 bit PCM samples from exactly one producer thread, the
+ * emulation thread, to exactly one consumer thread, the audio thread.
+ *
+ * Like the {@link KeyEventQueue}, each side owns one index and only publishes it with an
+ * ordered write. The producer writes a whole frame of samples before publishing them
+ * at once, and the consumer takes them straight into the byte buffer of the audio line,
+ * so neither side allocates or blocks.
+ *
+ * @author Richard Yang
+ *
+ */
+public class SampleRingBuffer {
+	
+	private final short[] samples;
+	private final int mask;
+	
+	//next sample the consumer reads, written by the consumer only
+	private final AtomicLong head;
+	
+	//next sample the producer writes, written by the producer only
+	private final AtomicLong tail;
+	
+	/**
+	 * @param capacity number of samples the ring holds, a power of two
+	 */
+	public SampleRingBuffer(int capacity) {
+		if(capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+			throw new IllegalArgumentException("ring capacity must be a power of two : " + capacity);
+		}
+		samples = new short[capacity];
+		mask = capacity - 1;
+		head = new AtomicLong();
+		tail = new AtomicLong();
+	}
+	
+	/**
+	 * @return number of samples the ring holds
+	 */
+	public int getCapacity() {
+		return samples.length;
+	}
+	
+	/**
+	 * @return number of samples written and not read yet, from either thread
+	 */
+	public int size() {
+		return (int)(tail.get() - head.get());
+	}
+	
+	/**
+	 * write a sample after the ones not published yet, from the producer thread only;
+	 * check first that {@link #size()} plus the pending samples leaves room for it
+	 * @param pending number of samples written since the last {@link #publish(int)}
+	 * @param sample the sample
+	 */
+	public void put(int pending, short sample) {
+		samples[(int)(tail.get() + pending) & mask] = sample;
+	}
+	
+	/**
+	 * make the samples written with {@link #put(int, short)} visible to the consumer
+	 * @param count number of samples written
+	 */
+	public void publish(int count) {
+		tail.lazySet(tail.get() + count);
+	}
+	
+	/**
+	 * take up to the given number of samples as 16 bit signed little endian bytes, from
+	 * the consumer thread only
+	 * @param out where to write the bytes
+	 * @param offset where to start in out
+	 * @param count largest number of samples to take
+	 * @return number of samples taken
+	 */
+	public int read(byte[] out, int offset, int count) {
+		long position = head.get();
+		int taken = (int)Math.min(count, tail.get() - position);
+		for(int i = 0 ; i < taken ; i++) {
+			short sample = samples[(int)(position + i) & mask];
+			out[offset++] = (byte)sample;
+			out[offset++] = (byte)(sample >> 8);
+		}
+		head.lazySet(position + taken);
+		return taken;
+	}
+}
@@ -0,0 +1,344 @@
+package hardware;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a {@link Chip8Core} in real time: a configurable number of instructions per
+ * second, and the delay and sound timers ticking at exactly 60 Hz.
+ *
+ * Frames are scheduled against absolute System.nanoTime deadlines, so sleep jitter
+ * does not accumulate into drift. A frame that starts late is caught up by skipping
+ * the wait, and when the emulator falls too far behind the backlog is dropped.
+ *
+ * @author Richard Yang
+ *
+ */
+public class Scheduler {
+	/**
+	 * rate of the delay and sound timers, and of the frames
+	 */
+	public static final int TIMER_FREQUENCY = 60;
+	/**
+	 * default number of instructions run per second
+	 */
+	public static final int DEFAULT_INSTRUCTIONS_PER_SECOND = 700;
+	
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	/**
+	 * falling behind by more frames than this drops the backlog instead of catching up
+	 */
+	private static final int MAX_CATCH_UP_FRAMES = 5;
+	
+	private final Chip8Core myCore;
+	
+	private int instructionsPerSecond;
+	
+	//instructions owed to the next frames when the rate is not a multiple of 60, times 60
+	private int instructionCredit;
+	
+	//instructions left to run in the current frame, -1 between frames
+	private int frameInstructionsLeft;
+	
+	//frames completed since the scheduler was created
+	private long completedFrames;
+	
+	//whether runFrame skips the wait for the deadline
+	private boolean isTurbo;
+	
+	//takes a picture of the screen at the end of every frame, null for none
+	private FrameExporter frameExporter;
+	
+	//shows the future screen at the end of every frame, null for none
+	private RunAhead runAhead;
+	
+	//deadlines are baseTime plus frameCount frames
+	private long baseTime;
+	private long frameCount;
+	private boolean isStarted;
+	
+	//measured rate, updated about once a second
+	private long windowStart;
+	private long windowInstructions;
+	private volatile double measuredInstructionsPerSecond;
+	
+	//how late the last frame started, the worst lateness and the frames dropped, in nanoseconds
+	private volatile long lateness;
+	private volatile long maxLateness;
+	private volatile long droppedFrames;
+	
+	public Scheduler(Chip8Core core) {
+		myCore = core;
+		instructionsPerSecond = DEFAULT_INSTRUCTIONS_PER_SECOND;
+		frameInstructionsLeft = -1;
+	}
+	
+	/**
+	 * @param rate number of instructions to run per second
+	 */
+	public void setInstructionsPerSecond(int rate) {
+		if(rate <= 0) {
+			throw new IllegalArgumentException("instructions per second must be positive : " + rate);
+		}
+		instructionsPerSecond = rate;
+	}
+	
+	public int getInstructionsPerSecond() {
+		return instructionsPerSecond;
+	}
+	
+	/**
+	 * @param turbo true to run frames back to back instead of at 60 Hz
+	 */
+	public void setTurbo(boolean turbo) {
+		isTurbo = turbo;
+	}
+	
+	public boolean isTurbo() {
+		return isTurbo;
+	}
+	
+	/**
+	 * @param exporter takes a picture of the screen at the end of every frame, null for none
+	 */
+	public void setFrameExporter(FrameExporter exporter) {
+		frameExporter = exporter;
+	}
+	
+	/**
+	 * @param runAhead runs ahead of the machine at the end of every frame, before the wait
+	 *        for the next one, null for none
+	 */
+	public void setRunAhead(RunAhead runAhead) {
+		this.runAhead = runAhead;
+	}
+	
+	/**
+	 * forget the deadlines and the frame in progress, the next frame starts right away
+	 */
+	public void reset() {
+		isStarted = false;
+		instructionCredit = 0;
+		frameInstructionsLeft = -1;
+	}
+	
+	/**
+	 * forget the deadlines but keep the frame in progress, call it after a pause during
+	 * which the machine may have been stepped
+	 */
+	public void restartClock() {
+		isStarted = false;
+	}
+	
+	/**
+	 * run one 60 Hz frame: its share of instructions, one timer tick, then wait for the
+	 * deadline of the next frame unless in turbo mode
+	 */
+	public void runFrame() {
+		if(isTurbo) {
+			finishFrame();
+			return;
+		}
+		paceFrame(true);
+	}
+	
+	/**
+	 * let one 60 Hz frame go by without running the machine, to keep the pace while the
+	 * machine is driven some other way, such as rewinding
+	 */
+	public void idleFrame() {
+		if(!isTurbo) {
+			paceFrame(false);
+		}
+	}
+	
+	private void paceFrame(boolean isRunning) {
+		long now = System.nanoTime();
+		if(!isStarted) {
+			isStarted = true;
+			baseTime = now;
+			frameCount = 0;
+			windowStart = now;
+			windowInstructions = 0;
+		}
+		
+		long deadline = frameDeadline(frameCount);
+		lateness = Math.max(0, now - deadline);
+		if(lateness > maxLateness) {
+			maxLateness = lateness;
+		}
+		if(lateness > MAX_CATCH_UP_FRAMES * NANOS_PER_SECOND / TIMER_FREQUENCY) {
+			droppedFrames += lateness * TIMER_FREQUENCY / NANOS_PER_SECOND;
+			baseTime = now;
+			frameCount = 0;
+		}
+		
+		long count = isRunning ? finishFrame() : 0;
+		
+		frameCount++;
+		windowInstructions += count;
+		now = System.nanoTime();
+		if(now - windowStart >= NANOS_PER_SECOND) {
+			measuredInstructionsPerSecond = windowInstructions * (double)NANOS_PER_SECOND / (now - windowStart);
+			windowStart = now;
+			windowInstructions = 0;
+		}
+		
+		waitUntil(frameDeadline(frameCount));
+	}
+	
+	/**
+	 * run as fast as possible until the given number of instructions has run, ticking the
+	 * timers once every frame's worth of instructions
+	 * @param budget number of instructions to run
+	 * @return what was run and the final state of the machine
+	 */
+	public RunResult runInstructions(long budget) {
+		long start = System.nanoTime();
+		long firstFrame = completedFrames;
+		long firstStackFaults = myCore.getStackFaults();
+		long executed = 0;
+		while(executed < budget) {
+			executed += runInFrame(budget - executed);
+		}
+		return new RunResult(executed, completedFrames - firstFrame, System.nanoTime() - start, myCore.stateHash(),
+				myCore.getStackFaults() - firstStackFaults);
+	}
+	
+	/**
+	 * run the given number of frames as fast as possible
+	 * @param frames number of frames to run
+	 * @return what was run and the final state of the machine
+	 */
+	public RunResult runFrames(long frames) {
+		long start = System.nanoTime();
+		long firstFrame = completedFrames;
+		long firstStackFaults = myCore.getStackFaults();
+		long executed = 0;
+		while(completedFrames - firstFrame < frames) {
+			executed += finishFrame();
+		}
+		return new RunResult(executed, completedFrames - firstFrame, System.nanoTime() - start, myCore.stateHash(),
+				myCore.getStackFaults() - firstStackFaults);
+	}
+	
+	/**
+	 * run the given number of frames as fast as possible without hashing the state at the
+	 * end, for running ahead every frame
+	 * @param frames number of frames to run
+	 * @return number of instructions run
+	 */
+	long advanceFrames(long frames) {
+		long firstFrame = completedFrames;
+		long executed = 0;
+		while(completedFrames - firstFrame < frames) {
+			executed += finishFrame();
+		}
+		return executed;
+	}
+	
+	/**
+	 * take the rate of another scheduler and where it is in its frame, so this one runs
+	 * the same instructions in the same frames from there
+	 * @param other the scheduler to follow
+	 */
+	void copyPacing(Scheduler other) {
+		instructionsPerSecond = other.instructionsPerSecond;
+		instructionCredit = other.instructionCredit;
+		frameInstructionsLeft = other.frameInstructionsLeft;
+	}
+	
+	/**
+	 * run the rest of the current frame, or a whole frame between frames
+	 * @return number of instructions run
+	 */
+	private long finishFrame() {
+		long frame = completedFrames;
+		long executed = 0;
+		while(completedFrames == frame) {
+			executed += runInFrame(Long.MAX_VALUE);
+		}
+		return executed;
+	}
+	
+	/**
+	 * run up to the given number of instructions without going past the current frame,
+	 * ticking the timers when the frame is complete
+	 * @return number of instructions run
+	 */
+	private int runInFrame(long max) {
+		if(frameInstructionsLeft < 0) {
+			instructionCredit += instructionsPerSecond;
+			frameInstructionsLeft = instructionCredit / TIMER_FREQUENCY;
+			instructionCredit -= frameInstructionsLeft * TIMER_FREQUENCY;
+		}
+		
+		int limit = (int)Math.min(frameInstructionsLeft, max);
+		int executed = 0;
+		while(executed < limit) {
+			// a spin in place is counted rather than run, and a compiled block never runs
+			// past the frame, so DT reads match the interpreter
+			int skipped = myCore.skipIdle(limit - executed);
+			executed += skipped > 0 ? skipped : myCore.execute(limit - executed);
+		}
+		frameInstructionsLeft -= executed;
+		
+		if(frameInstructionsLeft == 0) {
+			myCore.tickTimers();
+			frameInstructionsLeft = -1;
+			completedFrames++;
+			if(frameExporter != null) {
+				frameExporter.endFrame();
+			}
+			if(runAhead != null) {
+				runAhead.run(myCore, this);
+			}
+		}
+		return executed;
+	}
+	
+	private long frameDeadline(long frame) {
+		return baseTime + frame * NANOS_PER_SECOND / TIMER_FREQUENCY;
+	}
+	
+	private void waitUntil(long deadline) {
+		long wait;
+		while((wait = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+			LockSupport.parkNanos(wait);
+		}
+	}
+	
+	/**
+	 * @return number of frames completed since the scheduler was created
+	 */
+	public long getCompletedFrames() {
+		return completedFrames;
+	}
+	
+	/**
+	 * @return instructions per second measured over the last second
+	 */
+	public double getMeasuredInstructionsPerSecond() {
+		return measuredInstructionsPerSecond;
+	}
+	
+	/**
+	 * @return how late the last frame started, in nanoseconds
+	 */
+	public long getLateness() {
+		return lateness;
+	}
+	
+	/**
+	 * @return the latest any frame started so far, in nanoseconds
+	 */
+	public long getMaxLateness() {
+		return maxLateness;
+	}
+	
+	/**
+	 * @return number of frames dropped because the emulator fell too far behind
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+}
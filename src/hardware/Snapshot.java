@@ -0,0 +1,320 @@
+package hardware;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The complete state of a {@link Chip8Core} in a binary layout: registers, timers, the
+ * FX0A key wait, random generator, screen mode, selected planes, audio pattern and
+ * pitch, RPL flags, the quirks profile and instruction count the state was reached
+ * with, then the memory and the framebuffer.
+ *
+ * The memory section is only as large as the quirks profile addresses, 4 KB except on
+ * XO-CHIP, and the framebuffer section only holds the planes the profile draws at the
+ * current resolution, 256 bytes for a CHIP-8 screen. What lies outside is zero in the
+ * machine, so a CHIP-8 snapshot is a little over 4 KB.
+ *
+ * A snapshot is filled and applied with {@link Chip8Core#saveState(Snapshot)} and
+ * {@link Chip8Core#restoreState(Snapshot)}, which only copy arrays, so one snapshot
+ * can be reused millions of times without allocating. Its array has room for the
+ * largest layout, and the bytes past the current size are kept zero, so that deltas
+ * between snapshots of different sizes need no special case.
+ *
+ * @author Richard Yang
+ *
+ */
+public class Snapshot {
+	
+	static final int REGISTERS_OFFSET = 0;
+	static final int INDEX_OFFSET = REGISTERS_OFFSET + 16;
+	static final int PC_OFFSET = INDEX_OFFSET + 2;
+	static final int SP_OFFSET = PC_OFFSET + 2;
+	static final int DELAY_TIMER_OFFSET = SP_OFFSET + 2;
+	static final int SOUND_TIMER_OFFSET = DELAY_TIMER_OFFSET + 1;
+	static final int KEY_OFFSET = SOUND_TIMER_OFFSET + 1;
+	static final int RANDOM_OFFSET = KEY_OFFSET + 1;
+	static final int SCREEN_MODE_OFFSET = RANDOM_OFFSET + 8;
+	static final int PLANE_OFFSET = SCREEN_MODE_OFFSET + 1;
+	static final int PITCH_OFFSET = PLANE_OFFSET + 1;
+	static final int FLAGS_OFFSET = PITCH_OFFSET + 1;
+	static final int AUDIO_PATTERN_OFFSET = FLAGS_OFFSET + Chip8Core.FLAG_COUNT;
+	static final int QUIRKS_OFFSET = AUDIO_PATTERN_OFFSET + Chip8Core.AUDIO_PATTERN_SIZE;
+	static final int INSTRUCTION_COUNT_OFFSET = QUIRKS_OFFSET + 1;
+	static final int MEMORY_OFFSET = INSTRUCTION_COUNT_OFFSET + 8;
+	
+	/**
+	 * size of the largest snapshot, an XO-CHIP machine in high resolution, in bytes
+	 */
+	public static final int MAX_SIZE = MEMORY_OFFSET + Chip8Core.MEMORY_SIZE + Chip8Core.FRAME_BUFFER_SIZE * 8;
+	
+	/**
+	 * longest possible encoded delta between two snapshots
+	 */
+	public static final int MAX_DELTA_SIZE = maxDeltaSize(MAX_SIZE);
+	
+	/**
+	 * first bytes of a save state file
+	 */
+	private static final int FILE_MAGIC = 0x43385353; // "C8SS"
+	private static final int FILE_VERSION = 5;
+	
+	final byte[] data;
+	
+	//number of bytes in use, from the quirks profile and the screen mode in the header
+	private int size;
+	
+	//where the framebuffer starts, and its planes, rows and words per row
+	private int frameBufferOffset;
+	private int planeCount;
+	private int rowCount;
+	private int rowWords;
+	
+	public Snapshot() {
+		data = new byte[MAX_SIZE];
+		updateLayout();
+	}
+	
+	/**
+	 * @param size size of the larger of two snapshots, in bytes
+	 * @return longest possible encoded delta between them: every other byte differing,
+	 * each in its own run
+	 */
+	public static int maxDeltaSize(int size) {
+		return size / 2 * 5 + 8;
+	}
+	
+	/**
+	 * work out the size of the snapshot from its header, and zero the bytes it no longer
+	 * uses; call it whenever the header may have changed
+	 */
+	void updateLayout() {
+		QuirksProfile quirks = getQuirks();
+		boolean isHigh = data[SCREEN_MODE_OFFSET] == 1;
+		planeCount = quirks.isXoChip() ? Chip8Core.PLANE_COUNT : 1;
+		rowCount = isHigh ? Chip8Core.HIRES_SCREEN_HEIGHT : Chip8Core.SCREEN_HEIGHT;
+		rowWords = isHigh ? Chip8Core.ROW_WORDS : 1;
+		frameBufferOffset = MEMORY_OFFSET + quirks.getMemorySize();
+		int oldSize = size;
+		size = frameBufferOffset + planeCount * rowCount * rowWords * 8;
+		if(size < oldSize) {
+			Arrays.fill(data, size, oldSize, (byte)0);
+		}
+	}
+	
+	/**
+	 * @return number of bytes the snapshot holds, and writes to a save state file
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * @return offset of the first framebuffer word, each plane being rows of whole words
+	 * of the resolution of the snapshot
+	 */
+	int getFrameBufferOffset() {
+		return frameBufferOffset;
+	}
+	
+	/**
+	 * @return number of planes in the framebuffer section
+	 */
+	int getPlaneCount() {
+		return planeCount;
+	}
+	
+	/**
+	 * @param other the snapshot to copy into this one
+	 */
+	public void copyFrom(Snapshot other) {
+		System.arraycopy(other.data, 0, data, 0, Math.max(size, other.size));
+		updateLayout();
+	}
+	
+	/**
+	 * @return the quirks profile of the machine the snapshot was taken from
+	 */
+	public QuirksProfile getQuirks() {
+		return QuirksProfile.values()[data[QUIRKS_OFFSET] & 0xFF];
+	}
+	
+	/**
+	 * @return the instruction count of the machine, which input logs are indexed by
+	 */
+	public long getInstructionCount() {
+		return getLong(INSTRUCTION_COUNT_OFFSET);
+	}
+	
+	/**
+	 * @param index index of a word of the framebuffer, see {@link Chip8Core#rowIndex(int, int)}
+	 * @return the framebuffer word of the snapshot, leftmost pixel in the highest bit
+	 */
+	public long getFrameWord(int index) {
+		int plane = index / (Chip8Core.HIRES_SCREEN_HEIGHT * Chip8Core.ROW_WORDS);
+		int row = index / Chip8Core.ROW_WORDS % Chip8Core.HIRES_SCREEN_HEIGHT;
+		int word = index % Chip8Core.ROW_WORDS;
+		// outside the planes and the resolution of the snapshot the screen is blank
+		if(plane >= planeCount || row >= rowCount || word >= rowWords) {
+			return 0;
+		}
+		return getLong(frameBufferOffset + ((plane * rowCount + row) * rowWords + word) * 8);
+	}
+	
+	/**
+	 * encode this snapshot as a delta against a base into a buffer, without allocating:
+	 * runs of bytes that differ, stored XORed with the base, between runs of equal bytes
+	 * that are skipped; the buffer is the caller's, so that it is reused across deltas
+	 * @param base the snapshot to compare with
+	 * @param out the buffer, with at least {@link #maxDeltaSize(int)} of the larger size
+	 *        of the two snapshots after offset
+	 * @param offset where to write the delta in the buffer
+	 * @return the length of the delta, a few bytes when little changed
+	 */
+	public int encodeDelta(Snapshot base, byte[] out, int offset) {
+		// past its size each snapshot is zero, so the larger size covers both
+		int end = Math.max(size, base.size);
+		int position = offset;
+		int i = 0;
+		while(i < end) {
+			int start = i;
+			while(i < end && data[i] == base.data[i]) {
+				i++;
+			}
+			if(i == end) {
+				break;
+			}
+			int skip = i - start;
+			start = i;
+			while(i < end && data[i] != base.data[i]) {
+				i++;
+			}
+			position = writeVarInt(out, position, skip);
+			position = writeVarInt(out, position, i - start);
+			for(int j = start ; j < i ; j++) {
+				out[position++] = (byte)(data[j] ^ base.data[j]);
+			}
+		}
+		return position - offset;
+	}
+	
+	/**
+	 * XOR an encoded delta into this snapshot; applied to the base it gives the encoded
+	 * snapshot, and applied to the encoded snapshot it gives the base back
+	 * @param delta a delta from {@link #encodeDelta(Snapshot, byte[], int)}
+	 */
+	public void applyDelta(byte[] delta) {
+		applyDelta(delta, 0, delta.length);
+	}
+	
+	/**
+	 * XOR an encoded delta held in part of a buffer into this snapshot
+	 * @param buffer the buffer holding the delta
+	 * @param offset where the delta starts in the buffer
+	 * @param length the length of the delta
+	 */
+	public void applyDelta(byte[] buffer, int offset, int length) {
+		int position = offset;
+		int end = offset + length;
+		int i = 0;
+		while(position < end) {
+			int value = 0;
+			int shift = 0;
+			int b;
+			do {
+				b = buffer[position++] & 0xFF;
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while(b >= 0x80);
+			i += value;
+			
+			value = 0;
+			shift = 0;
+			do {
+				b = buffer[position++] & 0xFF;
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while(b >= 0x80);
+			for(int runEnd = i + value ; i < runEnd ; i++) {
+				data[i] ^= buffer[position++];
+			}
+		}
+		updateLayout();
+	}
+	
+	private static int writeVarInt(byte[] out, int position, int value) {
+		while(value >= 0x80) {
+			out[position++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out[position++] = (byte)value;
+		return position;
+	}
+	
+	/**
+	 * write the snapshot to a save state file
+	 * @param file the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeByte(FILE_VERSION);
+			out.write(data, 0, size);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * read a save state file into the snapshot
+	 * @param file the file to read
+	 * @throws IOException if the file cannot be read or is not a save state
+	 */
+	public void read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			if(in.readInt() != FILE_MAGIC || in.readUnsignedByte() != FILE_VERSION) {
+				throw new IOException(file + " is not a save state of this emulator");
+			}
+			// the header gives the size of the rest
+			in.readFully(data, 0, MEMORY_OFFSET);
+			if((data[QUIRKS_OFFSET] & 0xFF) >= QuirksProfile.values().length) {
+				throw new IOException(file + " has an unknown quirks profile");
+			}
+			updateLayout();
+			in.readFully(data, MEMORY_OFFSET, size - MEMORY_OFFSET);
+		} finally {
+			in.close();
+		}
+	}
+	
+	void putShort(int offset, int value) {
+		data[offset] = (byte)(value >> 8);
+		data[offset + 1] = (byte)value;
+	}
+	
+	int getShort(int offset) {
+		return (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+	}
+	
+	void putLong(int offset, long value) {
+		for(int i = 7 ; i >= 0 ; i--) {
+			data[offset + i] = (byte)value;
+			value >>>= 8;
+		}
+	}
+	
+	long getLong(int offset) {
+		long value = 0;
+		for(int i = 0 ; i < 8 ; i++) {
+			value = (value << 8) | (data[offset + i] & 0xFF);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,466 @@
+package hardware;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shows the screen on an ANSI terminal and takes the keys from it, for machines without
+ * a window system, such as over SSH.
+ *
+ * A character cell holds two pixel rows, drawn with the upper half block in the color of
+ * the top pixel on the color of the bottom one, so a low resolution screen is 64 by 16
+ * cells. Up to 60 times a second only the cells that changed since the last write are
+ * sent, each after a cursor move unless it follows the previous one, and the colors
+ * only when they change; the whole frame goes out in a single write. A slow link that
+ * cannot take a frame in time skips to the latest one rather than falling behind.
+ *
+ * The terminal has to be in raw mode, without echo. A terminal sends keys as characters,
+ * with no release, so a key is held until {@link #KEY_HOLD_TIME} after its last
+ * character; the auto repeat of the terminal keeps a key held down. Ctrl-C asks to quit.
+ *
+ * @author Richard Yang
+ *
+ */
+public class TerminalDisplay implements FrameSink, InputSource {
+	/**
+	 * most frames written per second
+	 */
+	public static final int FRAMES_PER_SECOND = 60;
+	/**
+	 * time a key stays held after its last character, in milliseconds, longer than the
+	 * interval of auto repeat
+	 */
+	public static final int KEY_HOLD_TIME = 150;
+	
+	/**
+	 * time between two looks at the input when nothing was typed, in nanoseconds
+	 */
+	private static final long READ_INTERVAL = 5000000L;
+	
+	private static final int CTRL_C = 0x03;
+	private static final int ESCAPE = 0x1B;
+	
+	private static final byte[] UPPER_HALF_BLOCK = "\u2580".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] LOWER_HALF_BLOCK = "\u2584".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] FULL_BLOCK = "\u2588".getBytes(StandardCharsets.UTF_8);
+	
+	/**
+	 * xterm 256 color index of a pixel by the planes it is set in, closest to the colors
+	 * of the window display
+	 */
+	private static final int[] CELL_COLORS = new int[Display.PLANE_COLORS.length];
+	static {
+		for(int i = 0 ; i < CELL_COLORS.length ; i++) {
+			CELL_COLORS[i] = toXtermColor(Display.PLANE_COLORS[i]);
+		}
+	}
+	
+	private final InputStream in;
+	private final OutputStream out;
+	
+	//latest framebuffer and screen size from the emulation thread, guarded by pendingPixels
+	private final long[] pendingPixels;
+	private int pendingWidth;
+	private int pendingHeight;
+	private volatile boolean isDirty;
+	
+	//framebuffer being written, and its screen size
+	private final long[] myPixels;
+	private int myWidth;
+	private int myHeight;
+	
+	//planes of the two pixels of each cell on the terminal, top pixel in bits 2 and 3,
+	//-1 for a cell to write whatever it holds
+	private final int[] shownCells;
+	
+	//colors the terminal draws with, -1 when not known
+	private int foreground;
+	private int background;
+	
+	//the bytes of one frame, sent in one write
+	private final ByteArrayOutputStream frameBytes;
+	
+	//keys held down, bit k set when key k is pressed, written by the reading thread only
+	private final AtomicInteger keyState;
+	
+	//press and release edges, from the reading thread to the emulation thread
+	private final KeyEventQueue keyEvents;
+	
+	private final Map<Integer, Integer> keyMap;
+	
+	//when each key held down is released, in nanoseconds
+	private final long[] releaseTimes;
+	
+	//counts the dropped key edges, null for none
+	private Metrics myMetrics;
+	
+	//0 between escape sequences, 1 after an escape, 2 inside a control sequence
+	private int escapeState;
+	
+	private volatile boolean isQuitRequested;
+	
+	//write the frames and read the keys, null when stopped
+	private volatile Thread writeThread;
+	private volatile Thread readThread;
+	
+	/**
+	 * @param in the keys typed on the terminal, in raw mode
+	 * @param out the terminal, written once per frame
+	 */
+	public TerminalDisplay(InputStream in, OutputStream out) {
+		this.in = in;
+		this.out = out;
+		pendingPixels = new long[Chip8Core.FRAME_BUFFER_SIZE];
+		pendingWidth = Chip8Core.SCREEN_WIDTH;
+		pendingHeight = Chip8Core.SCREEN_HEIGHT;
+		isDirty = true;
+		myPixels = new long[Chip8Core.FRAME_BUFFER_SIZE];
+		shownCells = new int[Chip8Core.HIRES_SCREEN_WIDTH * Chip8Core.HIRES_SCREEN_HEIGHT / 2];
+		frameBytes = new ByteArrayOutputStream(4096);
+		keyState = new AtomicInteger();
+		keyEvents = new KeyEventQueue();
+		keyMap = new HashMap<Integer, Integer>();
+		Display.initializeKeyMap(keyMap);
+		releaseTimes = new long[16];
+	}
+	
+	/**
+	 * clear the terminal and start writing the frames and reading the keys
+	 */
+	public void start() {
+		writeThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "CHIP-8 Terminal Output");
+		readThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readLoop();
+			}
+		}, "CHIP-8 Terminal Input");
+		writeThread.setDaemon(true);
+		readThread.setDaemon(true);
+		writeThread.start();
+		readThread.start();
+	}
+	
+	/**
+	 * stop writing and reading, and give the terminal back with its cursor below the screen
+	 */
+	public void close() {
+		Thread thread = writeThread;
+		writeThread = null;
+		readThread = null;
+		if(thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			out.write(("\033[0m\033[" + (myHeight / 2 + 1) + ";1H\033[?25h\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * @return whether Ctrl-C was typed, or the terminal failed
+	 */
+	public boolean isQuitRequested() {
+		return isQuitRequested;
+	}
+	
+	/**
+	 * @param metrics counts the key edges dropped for a full event queue, null for none;
+	 * set it before {@link #start()}
+	 */
+	public void setMetrics(Metrics metrics) {
+		myMetrics = metrics;
+	}
+	
+	/**
+	 * only copies the framebuffer, the writing thread sends it at the next frame
+	 */
+	@Override
+	public void frameUpdated(long[] frameBuffer, int width, int height) {
+		synchronized(pendingPixels) {
+			System.arraycopy(frameBuffer, 0, pendingPixels, 0, Chip8Core.FRAME_BUFFER_SIZE);
+			pendingWidth = width;
+			pendingHeight = height;
+			isDirty = true;
+		}
+	}
+	
+	private void writeLoop() {
+		Thread self = Thread.currentThread();
+		long period = 1000000000L / FRAMES_PER_SECOND;
+		long nextFrame = System.nanoTime();
+		while(writeThread == self) {
+			long now = System.nanoTime();
+			if(now - nextFrame < 0) {
+				LockSupport.parkNanos(this, nextFrame - now);
+				continue;
+			}
+			try {
+				writeFrame();
+			} catch (IOException e) {
+				e.printStackTrace();
+				isQuitRequested = true;
+				return;
+			}
+			// a write slower than a frame goes on with the latest frame
+			nextFrame = Math.max(nextFrame + period, System.nanoTime());
+		}
+	}
+	
+	/**
+	 * send the cells changed since the last frame in one write
+	 */
+	private void writeFrame() throws IOException {
+		if(!isDirty) {
+			return;
+		}
+		frameBytes.reset();
+		synchronized(pendingPixels) {
+			isDirty = false;
+			System.arraycopy(pendingPixels, 0, myPixels, 0, Chip8Core.FRAME_BUFFER_SIZE);
+			if(pendingWidth != myWidth || pendingHeight != myHeight) {
+				myWidth = pendingWidth;
+				myHeight = pendingHeight;
+				// start over on a clear terminal, every cell is written
+				Arrays.fill(shownCells, -1);
+				foreground = -1;
+				background = -1;
+				append("\033[?25l\033[0m\033[2J");
+			}
+		}
+		
+		int rows = myHeight / 2;
+		int cursorRow = -1;
+		int cursorColumn = -1;
+		for(int row = 0 ; row < rows ; row++) {
+			for(int column = 0 ; column < myWidth ; column++) {
+				int cell = planesAt(row * 2, column) << 2 | planesAt(row * 2 + 1, column);
+				int index = row * myWidth + column;
+				if(shownCells[index] == cell) {
+					continue;
+				}
+				shownCells[index] = cell;
+				if(row != cursorRow || column != cursorColumn) {
+					append("\033[");
+					appendNumber(row + 1);
+					append(";");
+					appendNumber(column + 1);
+					append("H");
+				}
+				appendCell(CELL_COLORS[cell >> 2], CELL_COLORS[cell & 3]);
+				cursorRow = row;
+				cursorColumn = column + 1;
+			}
+		}
+		if(frameBytes.size() > 0) {
+			frameBytes.writeTo(out);
+			out.flush();
+		}
+	}
+	
+	/**
+	 * @return the planes the pixel is set in, bit 0 for the first and bit 1 for the second
+	 */
+	private int planesAt(int row, int column) {
+		int word = column >> 6;
+		int shift = 63 - (column & 63);
+		return (int)(myPixels[Chip8Core.rowIndex(0, row) + word] >>> shift) & 1
+				| ((int)(myPixels[Chip8Core.rowIndex(1, row) + word] >>> shift) & 1) << 1;
+	}
+	
+	/**
+	 * one cell with the character and the colors needing the fewest changes of color
+	 */
+	private void appendCell(int top, int bottom) {
+		if(top == bottom) {
+			if(foreground == top) {
+				frameBytes.write(FULL_BLOCK, 0, FULL_BLOCK.length);
+			} else {
+				setColors(foreground, top);
+				frameBytes.write(' ');
+			}
+		} else if(foreground == bottom && background == top) {
+			frameBytes.write(LOWER_HALF_BLOCK, 0, LOWER_HALF_BLOCK.length);
+		} else {
+			setColors(top, bottom);
+			frameBytes.write(UPPER_HALF_BLOCK, 0, UPPER_HALF_BLOCK.length);
+		}
+	}
+	
+	/**
+	 * select the colors with one escape sequence, only those that change
+	 */
+	private void setColors(int newForeground, int newBackground) {
+		boolean isForeground = newForeground != foreground;
+		boolean isBackground = newBackground != background;
+		if(!isForeground && !isBackground) {
+			return;
+		}
+		append("\033[");
+		if(isForeground) {
+			append("38;5;");
+			appendNumber(newForeground);
+		}
+		if(isBackground) {
+			append(isForeground ? ";48;5;" : "48;5;");
+			appendNumber(newBackground);
+		}
+		append("m");
+		foreground = newForeground;
+		background = newBackground;
+	}
+	
+	private void append(String ascii) {
+		for(int i = 0 ; i < ascii.length() ; i++) {
+			frameBytes.write(ascii.charAt(i));
+		}
+	}
+	
+	private void appendNumber(int number) {
+		if(number >= 10) {
+			appendNumber(number / 10);
+		}
+		frameBytes.write('0' + number % 10);
+	}
+	
+	/**
+	 * @return the xterm 256 color closest to an RGB color, from the 6x6x6 cube or the
+	 * gray ramp
+	 */
+	static int toXtermColor(int rgb) {
+		int red = (rgb >> 16) & 0xFF;
+		int green = (rgb >> 8) & 0xFF;
+		int blue = rgb & 0xFF;
+		int cube = 16 + 36 * toCubeLevel(red) + 6 * toCubeLevel(green) + toCubeLevel(blue);
+		if(red != green || green != blue) {
+			return cube;
+		}
+		// pure white and black are in the cube, the other grays on the ramp
+		if(red < 4 || red > 246) {
+			return cube;
+		}
+		return 232 + Math.min(23, (red - 3) / 10);
+	}
+	
+	private static int toCubeLevel(int value) {
+		return value < 48 ? 0 : value < 115 ? 1 : (value - 35) / 40;
+	}
+	
+	/**
+	 * take the typed characters and release the keys not typed for a while
+	 */
+	private void readLoop() {
+		Thread self = Thread.currentThread();
+		while(readThread == self) {
+			try {
+				if(in.available() > 0) {
+					int c = in.read();
+					if(c < 0 || c == CTRL_C) {
+						isQuitRequested = true;
+						return;
+					}
+					typed(c);
+					continue;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				isQuitRequested = true;
+				return;
+			}
+			releaseKeys(System.nanoTime());
+			LockSupport.parkNanos(this, READ_INTERVAL);
+		}
+	}
+	
+	/**
+	 * press the key of a character, skipping the escape sequences of arrows and function keys
+	 */
+	private void typed(int c) {
+		if(escapeState == 1) {
+			escapeState = c == '[' || c == 'O' ? 2 : 0;
+			return;
+		}
+		if(escapeState == 2) {
+			// a control sequence ends with a letter or one of @[\]^_`{|}~
+			if(c >= 0x40 && c <= 0x7E) {
+				escapeState = 0;
+			}
+			return;
+		}
+		if(c == ESCAPE) {
+			escapeState = 1;
+			return;
+		}
+		Integer key = keyMap.get(Character.toUpperCase(c));
+		if(key == null) {
+			return;
+		}
+		releaseTimes[key] = System.nanoTime() + KEY_HOLD_TIME * 1000000L;
+		updateKey(key, true);
+	}
+	
+	private void releaseKeys(long now) {
+		int state = keyState.get();
+		for(int key = 0 ; key < releaseTimes.length ; key++) {
+			if((state & (1 << key)) != 0 && now - releaseTimes[key] >= 0) {
+				updateKey(key, false);
+			}
+		}
+	}
+	
+	/**
+	 * publish a key change, ignoring the repeated presses of a key held down; when the
+	 * emulation is too far behind to take the edge, the key state still holds it and only
+	 * the edge is dropped and counted
+	 */
+	private void updateKey(int key, boolean pressed) {
+		int state = keyState.get();
+		int newState = pressed ? state | (1 << key) : state & ~(1 << key);
+		if(newState != state) {
+			keyState.set(newState);
+			if(!keyEvents.offer(pressed ? KeyEventQueue.pressed(key) : KeyEventQueue.released(key))
+					&& myMetrics != null) {
+				myMetrics.keyEventDropped();
+			}
+		}
+	}
+	
+	@Override
+	public int getKeyState() {
+		return keyState.get();
+	}
+	
+	@Override
+	public int pollKeyEvent() {
+		return keyEvents.poll();
+	}
+	
+	/**
+	 * a key is typed at no particular instruction count and is only seen when the keypad
+	 * is polled, so a wait for a key may be counted to the end of the frame
+	 */
+	@Override
+	public long nextInputCount(long count) {
+		return Long.MAX_VALUE;
+	}
+}
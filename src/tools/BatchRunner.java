@@ -0,0 +1,247 @@
+package tools;
+
+import hardware.CPU;
+import hardware.Chip8Core;
+import hardware.PolledInputSource;
+import hardware.QuirksProfile;
+import hardware.RomAnalysis;
+import hardware.RomAnalyzer;
+import hardware.RomCatalog;
+import hardware.RunResult;
+import hardware.Scheduler;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many independent headless emulators at once: every rom of a directory, with
+ * every input script and every seed, each run on its own {@link Chip8Core} in a
+ * fork-join pool sized to the machine, and prints a summary report. Each rom is analyzed
+ * once, with the quirks profile guessed from its instructions as the rom catalog does, and
+ * every run decodes it before the first frame and compiles its loops on their first run.
+ * 
+ * usage : BatchRunner [rom directory] [frames] [seeds] [script directory] [threads]
+ *
+ * @author Richard Yang
+ *
+ */
+public class BatchRunner {
+	
+	public static final String ROM_EXTENSION = ".rom";
+	public static final String SCRIPT_EXTENSION = ".keys";
+	
+	private static final int DEFAULT_FRAMES = 6000;
+	private static final int DEFAULT_SEEDS = 1;
+	
+	private final List<Task> tasks;
+	
+	private int instructionsPerSecond;
+	
+	private boolean useBlockCompiler;
+	
+	public BatchRunner() {
+		tasks = new ArrayList<Task>();
+		instructionsPerSecond = Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND;
+	}
+	
+	/**
+	 * @param rate instructions per emulated second, which sets how many run per frame
+	 */
+	public void setInstructionsPerSecond(int rate) {
+		instructionsPerSecond = rate;
+	}
+	
+	/**
+	 * @param enabled true to run the tasks with the block compiler
+	 */
+	public void setBlockCompilation(boolean enabled) {
+		useBlockCompiler = enabled;
+	}
+	
+	/**
+	 * add one run of every rom with every script and every seed
+	 * @param roms the roms
+	 * @param scripts the input scripts
+	 * @param seeds number of seeds, 0 to seeds - 1
+	 * @param frames number of frames of each run
+	 * @throws IOException if a rom cannot be read
+	 */
+	public void addMatrix(File[] roms, List<InputScript> scripts, int seeds, long frames) throws IOException {
+		for(File rom : roms) {
+			byte[] image = Files.readAllBytes(rom.toPath());
+			QuirksProfile quirks = RomCatalog.detectQuirks(ByteBuffer.wrap(image));
+			RomAnalysis analysis = RomAnalyzer.analyze(image, quirks);
+			for(InputScript script : scripts) {
+				for(int seed = 0 ; seed < seeds ; seed++) {
+					tasks.add(new Task(rom.getName(), image, quirks, analysis, script, seed, frames));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * run every task added so far
+	 * @param threads size of the pool
+	 * @return the results, in the order the tasks were added
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public List<TaskResult> run(int threads) throws InterruptedException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<Future<TaskResult>> futures = pool.invokeAll(tasks);
+			List<TaskResult> results = new ArrayList<TaskResult>();
+			for(int i = 0 ; i < futures.size() ; i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					results.add(new TaskResult(tasks.get(i), null, e.getCause()));
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * one emulator run
+	 */
+	private class Task implements Callable<TaskResult> {
+		
+		private final String romName;
+		private final byte[] image;
+		private final QuirksProfile quirks;
+		private final RomAnalysis analysis;
+		private final InputScript script;
+		private final long seed;
+		private final long frames;
+		
+		Task(String romName, byte[] image, QuirksProfile quirks, RomAnalysis analysis, InputScript script, long seed,
+				long frames) {
+			this.romName = romName;
+			this.image = image;
+			this.quirks = quirks;
+			this.analysis = analysis;
+			this.script = script;
+			this.seed = seed;
+			this.frames = frames;
+		}
+		
+		@Override
+		public TaskResult call() {
+			Chip8Core core = new Chip8Core();
+			core.setQuirks(quirks);
+			core.setBlockCompilation(useBlockCompiler);
+			core.setSeed(seed);
+			core.load(image, image.length);
+			core.prepare(analysis);
+			
+			final Scheduler scheduler = new Scheduler(core);
+			scheduler.setInstructionsPerSecond(instructionsPerSecond);
+			core.setInputSource(new PolledInputSource() {
+				@Override
+				public int getKeyState() {
+					return script.keysAt(scheduler.getCompletedFrames());
+				}
+				
+				// the script only changes the keys between frames, and no skip runs past
+				// the end of a frame
+				@Override
+				public long nextInputCount(long count) {
+					return Long.MAX_VALUE;
+				}
+			});
+			return new TaskResult(this, scheduler.runFrames(frames), null);
+		}
+	}
+	
+	/**
+	 * the outcome of one task, either a run result or the error that stopped it
+	 */
+	public static class TaskResult {
+		
+		private final Task task;
+		private final RunResult result;
+		private final Throwable error;
+		
+		private TaskResult(Task task, RunResult result, Throwable error) {
+			this.task = task;
+			this.result = result;
+			this.error = error;
+		}
+		
+		public RunResult getResult() {
+			return result;
+		}
+		
+		public Throwable getError() {
+			return error;
+		}
+		
+		@Override
+		public String toString() {
+			String name = task.romName + " " + task.script.getName() + " seed " + task.seed + " : ";
+			return name + (error == null ? result.toString() : "FAILED " + error);
+		}
+	}
+	
+	private static File[] listFiles(File directory, final String extension) {
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(extension);
+			}
+		});
+		if(files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files);
+		return files;
+	}
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File romDirectory = new File(args.length > 0 ? args[0] : CPU.DEFAULT_PATH);
+		long frames = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_FRAMES;
+		int seeds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SEEDS;
+		List<InputScript> scripts = new ArrayList<InputScript>();
+		scripts.add(InputScript.NONE);
+		if(args.length > 3) {
+			for(File file : listFiles(new File(args[3]), SCRIPT_EXTENSION)) {
+				scripts.add(InputScript.read(file));
+			}
+		}
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		
+		BatchRunner runner = new BatchRunner();
+		runner.setBlockCompilation(Boolean.getBoolean(CPU.BLOCK_COMPILER_PROPERTY));
+		runner.addMatrix(listFiles(romDirectory, ROM_EXTENSION), scripts, seeds, frames);
+		
+		long start = System.nanoTime();
+		List<TaskResult> results = runner.run(threads);
+		long wallTime = System.nanoTime() - start;
+		
+		long instructions = 0;
+		int failures = 0;
+		for(TaskResult result : results) {
+			System.out.println(result);
+			if(result.getError() != null) {
+				failures++;
+			} else {
+				instructions += result.getResult().getInstructions();
+			}
+		}
+		System.out.println(results.size() + " runs, " + failures + " failed, " + instructions + " instructions in "
+				+ wallTime / 1000000 + " ms on " + threads + " threads, "
+				+ (long)(instructions * 1e9 / Math.max(1, wallTime)) + " instructions/s");
+	}
+}
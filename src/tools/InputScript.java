@@ -0,0 +1,101 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keypad states scheduled by frame, read from a text file where each line holds a
+ * frame number and the hexadecimal key mask held from that frame on, for example
+ * "120 0010" holds key 4 from frame 120. Blank lines and lines starting with # are skipped.
+ * 
+ * A script never changes once read, so one instance is shared by every run using it.
+ *
+ * @author Richard Yang
+ *
+ */
+public class InputScript {
+	
+	/**
+	 * the script holding no key at all
+	 */
+	public static final InputScript NONE = new InputScript("none", new long[0], new int[0]);
+	
+	private final String name;
+	
+	//frames at which the key state changes, ascending
+	private final long[] frames;
+	
+	//key state from the matching frame on
+	private final int[] keys;
+	
+	private InputScript(String name, long[] frames, int[] keys) {
+		this.name = name;
+		this.frames = frames;
+		this.keys = keys;
+	}
+	
+	/**
+	 * read a script from a file
+	 * @param file the script file
+	 * @return the script
+	 * @throws IOException if the file cannot be read or a line is malformed
+	 */
+	public static InputScript read(File file) throws IOException {
+		List<long[]> entries = new ArrayList<long[]>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			int number = 0;
+			while((line = reader.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if(line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				try {
+					entries.add(new long[] {Long.parseLong(fields[0]), Integer.parseInt(fields[1], 16) & 0xFFFF});
+				} catch (RuntimeException e) {
+					throw new IOException(file + ":" + number + " : expected a frame and a hex key mask", e);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		
+		long[] frames = new long[entries.size()];
+		int[] keys = new int[entries.size()];
+		for(int i = 0 ; i < frames.length ; i++) {
+			frames[i] = entries.get(i)[0];
+			keys[i] = (int)entries.get(i)[1];
+			if(i > 0 && frames[i] < frames[i - 1]) {
+				throw new IOException(file + " : frames must be in ascending order");
+			}
+		}
+		return new InputScript(file.getName(), frames, keys);
+	}
+	
+	/**
+	 * @param frame the frame number
+	 * @return the keys held during the frame, bit k set when key k is pressed
+	 */
+	public int keysAt(long frame) {
+		int index = Arrays.binarySearch(frames, frame);
+		if(index < 0) {
+			index = -index - 2;
+		}
+		while(index + 1 < frames.length && frames[index + 1] == frame) {
+			index++;
+		}
+		return index >= 0 ? keys[index] : 0;
+	}
+	
+	public String getName() {
+		return name;
+	}
+}
@@ -0,0 +1,97 @@
+package tools;
+
+import hardware.CPU;
+import hardware.Chip8Core;
+import hardware.FrameExporter;
+import hardware.InputLog;
+import hardware.ReplayInputSource;
+import hardware.RunResult;
+import hardware.Scheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Replays recorded input logs against a rom as fast as possible and checks that every
+ * replay ends in the exact state the recording ended in, for regression tests.
+ *
+ * usage : ReplayRunner [rom] [input log]...
+ *
+ * With -Dchip8.export=gif, raw or png, every replay is also recorded next to its log,
+ * as log.gif, log.raw or a log-frames directory of PNG pictures.
+ *
+ * @author Richard Yang
+ *
+ */
+public class ReplayRunner {
+	/**
+	 * system property choosing the format the replays are recorded in
+	 */
+	public static final String EXPORT_PROPERTY = "chip8.export";
+	
+	/**
+	 * replay one log from the start of the rom
+	 * @param rom the rom image
+	 * @param log the recording
+	 * @param useBlockCompiler true to replay with the block compiler
+	 * @return what was run and the final state of the machine
+	 */
+	public static RunResult replay(byte[] rom, InputLog log, boolean useBlockCompiler) {
+		return replay(rom, log, useBlockCompiler, null);
+	}
+	
+	/**
+	 * replay one log from the start of the rom, recording its frames
+	 * @param rom the rom image
+	 * @param log the recording
+	 * @param useBlockCompiler true to replay with the block compiler
+	 * @param exporter takes a picture of every frame, null for none
+	 * @return what was run and the final state of the machine
+	 */
+	public static RunResult replay(byte[] rom, InputLog log, boolean useBlockCompiler, FrameExporter exporter) {
+		Chip8Core core = new Chip8Core();
+		core.setFrameSink(exporter);
+		core.setBlockCompilation(useBlockCompiler);
+		core.setSeed(log.getSeed());
+		core.setQuirks(log.getQuirks());
+		core.load(rom, rom.length);
+		core.setInputSource(new ReplayInputSource(log, core, null));
+		
+		Scheduler scheduler = new Scheduler(core);
+		scheduler.setInstructionsPerSecond(log.getInstructionsPerSecond());
+		scheduler.setFrameExporter(exporter);
+		return scheduler.runInstructions(log.getTotalInstructions());
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.err.println("usage : ReplayRunner [rom] [input log]...");
+			System.exit(2);
+		}
+		byte[] rom = Files.readAllBytes(new File(args[0]).toPath());
+		boolean useBlockCompiler = Boolean.getBoolean(CPU.BLOCK_COMPILER_PROPERTY);
+		String format = System.getProperty(EXPORT_PROPERTY);
+		
+		int failures = 0;
+		for(int i = 1 ; i < args.length ; i++) {
+			InputLog log = InputLog.read(new File(args[i]));
+			FrameExporter exporter = null;
+			if(format != null) {
+				File target = new File(format.equals("png") ? args[i] + "-frames" : args[i] + "." + format);
+				exporter = FrameExporter.open(target, true);
+			}
+			RunResult result = replay(rom, log, useBlockCompiler, exporter);
+			if(exporter != null) {
+				exporter.close();
+			}
+			boolean isIdentical = result.getStateHash() == log.getFinalStateHash();
+			if(!isIdentical) {
+				failures++;
+			}
+			System.out.println(args[i] + " : " + (isIdentical ? "ok " : "MISMATCH ") + result);
+		}
+		System.out.println(failures == 0 ? "all replays identical" : failures + " replays differ");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
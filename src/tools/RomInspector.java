@@ -0,0 +1,80 @@
+package tools;
+
+import hardware.QuirksProfile;
+import hardware.RomAnalysis;
+import hardware.RomAnalyzer;
+import hardware.RomCatalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Prints what {@link RomAnalyzer} finds in roms without running them: the blocks of the
+ * control flow graph, the sprite and data ranges, and the instructions the interpreter
+ * does not know.
+ *
+ * usage : RomInspector [rom]...
+ *
+ * The quirks profile is guessed from the rom, or given with -Dchip8.quirks=SUPER_CHIP.
+ *
+ * @author Richard Yang
+ *
+ */
+public class RomInspector {
+	/**
+	 * system property naming the quirks profile to analyze the roms with
+	 */
+	public static final String QUIRKS_PROPERTY = "chip8.quirks";
+	
+	/**
+	 * print the analysis of one rom
+	 * @param name name of the rom
+	 * @param analysis its analysis
+	 */
+	public static void print(String name, RomAnalysis analysis) {
+		System.out.println(name + " (" + analysis.getQuirks() + ", " + analysis.getSha1() + ")");
+		System.out.println("  " + analysis);
+		for(RomAnalysis.Block block : analysis.getBlocks()) {
+			System.out.println("  block " + block);
+		}
+		printRanges(analysis, RomAnalysis.SPRITE, "sprites");
+		printRanges(analysis, RomAnalysis.DATA, "data");
+		for(int address : analysis.getUnknownOpcodes()) {
+			System.out.println(String.format("  unknown opcode at %03X", address));
+		}
+	}
+	
+	/**
+	 * print the runs of bytes with the given flag
+	 */
+	private static void printRanges(RomAnalysis analysis, int flag, String label) {
+		StringBuilder ranges = new StringBuilder();
+		int start = -1;
+		for(int address = analysis.getStart() ; address <= analysis.getEnd() ; address++) {
+			boolean isFlagged = (analysis.flagsAt(address) & flag) != 0;
+			if(isFlagged && start < 0) {
+				start = address;
+			} else if(!isFlagged && start >= 0) {
+				ranges.append(String.format(" %03X-%03X", start, address - 1));
+				start = -1;
+			}
+		}
+		if(ranges.length() > 0) {
+			System.out.println("  " + label + ranges);
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("usage : RomInspector [rom]...");
+			System.exit(2);
+		}
+		String quirksName = System.getProperty(QUIRKS_PROPERTY);
+		for(String arg : args) {
+			ByteBuffer rom = RomCatalog.read(new File(arg));
+			QuirksProfile quirks = quirksName != null ? QuirksProfile.valueOf(quirksName) : RomCatalog.detectQuirks(rom);
+			print(arg, RomAnalyzer.analyze(rom, quirks));
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package tools;
+
+import hardware.CPU;
+import hardware.Chip8Core;
+import hardware.Metrics;
+import hardware.QuirksProfile;
+import hardware.RomAnalyzer;
+import hardware.RomCatalog;
+import hardware.Scheduler;
+import hardware.TerminalDisplay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Plays a rom in the terminal it is started from, without a window system, such as over
+ * SSH. The screen is drawn with {@link TerminalDisplay} and the keys are those of the
+ * window, 1 2 3 4 down to Z X C V; Ctrl-C quits.
+ *
+ * usage : TerminalRunner [rom]
+ *
+ * The terminal is put in raw mode with stty while playing. The quirks profile is guessed
+ * from the rom, or given with -Dchip8.quirks=SUPER_CHIP, and -Dchip8.instructionsPerSecond
+ * and -Dchip8.blockCompiler are honored as by the window. The metrics are shown through
+ * JMX as they are for the window.
+ *
+ * @author Richard Yang
+ *
+ */
+public class TerminalRunner {
+	/**
+	 * system property naming the quirks profile to run the rom with
+	 */
+	public static final String QUIRKS_PROPERTY = "chip8.quirks";
+	
+	/**
+	 * run stty on the controlling terminal
+	 * @return what stty printed, null if it failed, as without a terminal
+	 */
+	private static String stty(String arguments) {
+		try {
+			Process process = new ProcessBuilder("sh", "-c", "stty " + arguments + " < /dev/tty").start();
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			InputStream in = process.getInputStream();
+			byte[] buffer = new byte[256];
+			int count;
+			while((count = in.read(buffer)) > 0) {
+				output.write(buffer, 0, count);
+			}
+			return process.waitFor() == 0 ? output.toString().trim() : null;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return null;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if(args.length != 1) {
+			System.err.println("usage : TerminalRunner [rom]");
+			System.exit(2);
+		}
+		ByteBuffer rom = RomCatalog.read(new File(args[0]));
+		String quirksName = System.getProperty(QUIRKS_PROPERTY);
+		QuirksProfile quirks = quirksName != null ? QuirksProfile.valueOf(quirksName) : RomCatalog.detectQuirks(rom);
+		
+		Chip8Core core = new Chip8Core();
+		core.setQuirks(quirks);
+		core.setBlockCompilation(Boolean.getBoolean(CPU.BLOCK_COMPILER_PROPERTY));
+		core.load(rom);
+		core.prepare(RomAnalyzer.analyze(rom, quirks));
+		
+		TerminalDisplay terminal = new TerminalDisplay(System.in, new FileOutputStream(FileDescriptor.out));
+		core.setFrameSink(terminal);
+		core.setInputSource(terminal);
+		Metrics metrics = new Metrics();
+		core.setMetrics(metrics);
+		terminal.setMetrics(metrics);
+		metrics.register();
+		Scheduler scheduler = new Scheduler(core);
+		scheduler.setInstructionsPerSecond(
+				Integer.getInteger(CPU.SPEED_PROPERTY, Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND));
+		
+		// keys come as they are typed, and are not echoed over the screen
+		String settings = stty("-g");
+		stty("raw -echo");
+		try {
+			terminal.start();
+			while(!terminal.isQuitRequested()) {
+				scheduler.runFrame();
+			}
+		} finally {
+			terminal.close();
+			metrics.unregister();
+			if(settings != null) {
+				stty(settings);
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package hardware;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests that compiled blocks leave the machine exactly as the interpreter does.
+ *
+ * @author Richard Yang
+ *
+ */
+public class BlockCompilerTest {
+	
+	//instructions run by every test
+	private static final int INSTRUCTIONS = 2000;
+	
+	/**
+	 * a loop of arithmetic, logic, stores and loads run 192 times, long enough to get hot,
+	 * ending on the jump to itself at 0x21A
+	 */
+	private static final int[] ARITHMETIC_LOOP = {
+		0x6000, 0x6100, 0x6203, 0x8024, 0x8125, 0x8303, 0x7101, 0xA300,
+		0xF355, 0xF265, 0x7401, 0x34C0, 0x1206, 0x121A
+	};
+	
+	/**
+	 * add V5 = 1 to V6 112 times in a loop, then overwrite the V5 = 1 at 0x200 with
+	 * V5 = 9 through FX55 and run the loop 112 times again, ending on the jump to itself
+	 * at 0x210
+	 */
+	private static final int[] SELF_MODIFYING = {
+		0x6501, 0x7401, 0x8654, 0x7700, 0x3470, 0x1200, 0x3801, 0x1212,
+		0x1210, 0x6065, 0x6109, 0xA200, 0xF155, 0x6801, 0x6400, 0x1200
+	};
+	
+	/**
+	 * run a program for a number of instructions
+	 * @param program the instructions, from {@link Chip8Core#MEMORY_START}
+	 * @param compiled whether to run it with the block compiler
+	 * @return the machine after {@link #INSTRUCTIONS} instructions
+	 */
+	private static Chip8Core run(int[] program, boolean compiled) {
+		byte[] rom = new byte[program.length * 2];
+		for(int i = 0 ; i < program.length ; i++) {
+			rom[2 * i] = (byte)(program[i] >> 8);
+			rom[2 * i + 1] = (byte)program[i];
+		}
+		Chip8Core core = new Chip8Core();
+		core.setBlockCompilation(compiled);
+		core.load(rom, rom.length);
+		int count = 0;
+		while(count < INSTRUCTIONS) {
+			count += core.execute(INSTRUCTIONS - count);
+		}
+		return core;
+	}
+	
+	private static void assertSameState(Chip8Core expected, Chip8Core actual) {
+		assertEquals(expected.getPC(), actual.getPC());
+		assertEquals(expected.getIndexRegister(), actual.getIndexRegister());
+		for(int i = 0 ; i < 16 ; i++) {
+			assertEquals("V" + Integer.toHexString(i), expected.getRegister(i), actual.getRegister(i));
+		}
+	}
+	
+	@Test
+	public void matchesInterpreter() {
+		Chip8Core interpreted = run(ARITHMETIC_LOOP, false);
+		Chip8Core compiled = run(ARITHMETIC_LOOP, true);
+		assertEquals(0x21A, interpreted.getPC());
+		assertEquals(0xC0, interpreted.getRegister(4));
+		assertSameState(interpreted, compiled);
+	}
+	
+	@Test
+	public void recompilesOverwrittenBlock() {
+		Chip8Core compiled = run(SELF_MODIFYING, true);
+		assertEquals(0x210, compiled.getPC());
+		assertEquals(9, compiled.getRegister(5));
+		assertEquals(0x60, compiled.getRegister(6));
+		assertSameState(run(SELF_MODIFYING, false), compiled);
+	}
+}
@@ -0,0 +1,61 @@
+package hardware;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests that the cache of decoded instructions never runs an instruction that was
+ * overwritten since it was decoded.
+ *
+ * @author Richard Yang
+ *
+ */
+public class DecodeCacheTest {
+	
+	/**
+	 * run V5 = 1 at 0x200, then overwrite it with V5 = 9 through FX55 and run it again,
+	 * ending on the jump to itself at 0x206
+	 */
+	private static final int[] SELF_MODIFYING = {
+		0x6501, 0x3601, 0x1208, 0x1206, 0x6065, 0x6109, 0xA200, 0xF155, 0x6601, 0x1200
+	};
+	
+	/**
+	 * the same, but overwriting only the low byte of the instruction at 0x200 through F055
+	 */
+	private static final int[] LOW_BYTE_OVER_CODE = {
+		0x6501, 0x3601, 0x1208, 0x1206, 0x6009, 0xA201, 0xF055, 0x6601, 0x1200
+	};
+	
+	private static Chip8Core load(int[] program) {
+		byte[] rom = new byte[program.length * 2];
+		for(int i = 0 ; i < program.length ; i++) {
+			rom[2 * i] = (byte)(program[i] >> 8);
+			rom[2 * i + 1] = (byte)program[i];
+		}
+		Chip8Core core = new Chip8Core();
+		core.load(rom, rom.length);
+		return core;
+	}
+	
+	@Test
+	public void runsInstructionStoredOverCode() {
+		Chip8Core core = load(SELF_MODIFYING);
+		for(int i = 0 ; i < 20 ; i++) {
+			core.emulateCycle();
+		}
+		assertEquals(0x206, core.getPC());
+		assertEquals(9, core.getRegister(5));
+	}
+	
+	@Test
+	public void runsInstructionHalfOverwritten() {
+		Chip8Core core = load(LOW_BYTE_OVER_CODE);
+		for(int i = 0 ; i < 20 ; i++) {
+			core.emulateCycle();
+		}
+		assertEquals(0x206, core.getPC());
+		assertEquals(9, core.getRegister(5));
+	}
+}
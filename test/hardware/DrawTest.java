@@ -0,0 +1,179 @@
+package hardware;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests of DXYN and the SUPER-CHIP and XO-CHIP screen instructions: the packed rows they
+ * draw, clipping and wrapping at the edges, the collision flag, scrolling and planes.
+ *
+ * @author Richard Yang
+ *
+ */
+public class DrawTest {
+	
+	//address of the test sprite, the two rows FF 81
+	private static final int SPRITE = 0x300;
+	
+	//rows of the test sprite, as the highest byte of a framebuffer word
+	private static final long TOP = 0xFFL << 56;
+	private static final long BOTTOM = 0x81L << 56;
+	
+	/**
+	 * load a program with the test sprite at {@link #SPRITE} and run its instructions
+	 * one at a time
+	 * @param quirks the quirks profile to run with
+	 * @param wrap whether sprites wrap at the edges rather than being clipped
+	 * @param program the instructions, from {@link Chip8Core#MEMORY_START}
+	 * @return the machine after the last instruction
+	 */
+	private static Chip8Core run(QuirksProfile quirks, boolean wrap, int... program) {
+		byte[] rom = new byte[SPRITE - Chip8Core.MEMORY_START + 2];
+		for(int i = 0 ; i < program.length ; i++) {
+			rom[2 * i] = (byte)(program[i] >> 8);
+			rom[2 * i + 1] = (byte)program[i];
+		}
+		rom[rom.length - 2] = (byte)0xFF;
+		rom[rom.length - 1] = (byte)0x81;
+		Chip8Core core = new Chip8Core();
+		core.setQuirks(quirks);
+		core.setSpriteWrapping(wrap);
+		core.load(rom, rom.length);
+		for(int i = 0 ; i < program.length ; i++) {
+			core.emulateCycle();
+		}
+		return core;
+	}
+	
+	/**
+	 * draw the test sprite at (x, y) one or more times
+	 * @param wrap whether sprites wrap at the edges rather than being clipped
+	 * @param x column given to DXYN
+	 * @param y row given to DXYN
+	 * @param times how many times to draw it, 1 or 2
+	 * @return the machine after drawing
+	 */
+	private static Chip8Core draw(boolean wrap, int x, int y, int times) {
+		int[] program = {0x6000 | x, 0x6100 | y, 0xA000 | SPRITE, 0xD012, 0xD012};
+		int[] drawn = new int[3 + times];
+		System.arraycopy(program, 0, drawn, 0, drawn.length);
+		return run(QuirksProfile.CHIP8, wrap, drawn);
+	}
+	
+	/**
+	 * @return the first word of a row of the first plane
+	 */
+	private static long row(Chip8Core core, int row) {
+		return core.getFrameBuffer()[Chip8Core.rowIndex(0, row)];
+	}
+	
+	/**
+	 * @return the 8 pixels of a plane from a column on, as a byte
+	 */
+	private static int pixels(Chip8Core core, int plane, int row, int column) {
+		int index = Chip8Core.rowIndex(plane, row);
+		long[] frame = core.getFrameBuffer();
+		int bits = 0;
+		for(int i = 0 ; i < 8 ; i++) {
+			int c = column + i;
+			bits = (bits << 1) | (int)(frame[index + c / 64] >>> (63 - c % 64)) & 1;
+		}
+		return bits;
+	}
+	
+	@Test
+	public void drawsRows() {
+		Chip8Core core = draw(false, 0, 0, 1);
+		assertEquals(TOP, row(core, 0));
+		assertEquals(BOTTOM, row(core, 1));
+		assertEquals(0, row(core, 2));
+		assertEquals(0, core.getRegister(0xF));
+		
+		core = draw(false, 9, 3, 1);
+		assertEquals(0, row(core, 2));
+		assertEquals(TOP >>> 9, row(core, 3));
+		assertEquals(BOTTOM >>> 9, row(core, 4));
+	}
+	
+	@Test
+	public void setsCollisionWhenErasing() {
+		Chip8Core core = draw(false, 5, 7, 2);
+		assertEquals(0, row(core, 7));
+		assertEquals(0, row(core, 8));
+		assertEquals(1, core.getRegister(0xF));
+	}
+	
+	@Test
+	public void wrapsStartCoordinates() {
+		Chip8Core core = draw(false, 64 + 2, 32 + 1, 1);
+		assertEquals(TOP >>> 2, row(core, 1));
+		assertEquals(BOTTOM >>> 2, row(core, 2));
+	}
+	
+	@Test
+	public void clipsAtEdges() {
+		Chip8Core core = draw(false, 60, 31, 1);
+		assertEquals(0xFL, row(core, 31));
+		assertEquals(0, row(core, 0));
+	}
+	
+	@Test
+	public void wrapsAtEdges() {
+		Chip8Core core = draw(true, 60, 31, 1);
+		assertEquals(0xFL | 0xF0L << 56, row(core, 31));
+		assertEquals(0x8L | 0x10L << 56, row(core, 0));
+	}
+	
+	@Test
+	public void drawsAcrossWordsInHighResolution() {
+		Chip8Core core = run(QuirksProfile.SUPER_CHIP, false, 0x00FF, 0x603C, 0x6100, 0xA000 | SPRITE, 0xD012);
+		assertEquals(Chip8Core.HIRES_SCREEN_WIDTH, core.getScreenWidth());
+		assertEquals(0xFF, pixels(core, 0, 0, 60));
+		assertEquals(0x81, pixels(core, 0, 1, 60));
+		assertEquals(0, pixels(core, 0, 2, 60));
+	}
+	
+	@Test
+	public void clipsAtHighResolutionEdges() {
+		Chip8Core core = run(QuirksProfile.SUPER_CHIP, false, 0x00FF, 0x607C, 0x613F, 0xA000 | SPRITE, 0xD012);
+		assertEquals(0x0F, pixels(core, 0, 63, 120));
+		assertEquals(0, pixels(core, 0, 0, 0));
+		
+		core = run(QuirksProfile.SUPER_CHIP, true, 0x00FF, 0x607C, 0x613F, 0xA000 | SPRITE, 0xD012);
+		assertEquals(0x0F, pixels(core, 0, 63, 120));
+		assertEquals(0xF0, pixels(core, 0, 63, 0));
+		assertEquals(0x10, pixels(core, 0, 0, 0));
+	}
+	
+	@Test
+	public void scrollsDown() {
+		Chip8Core core = run(QuirksProfile.SUPER_CHIP, false, 0xA000 | SPRITE, 0xD012, 0x00C3);
+		assertEquals(0, row(core, 0));
+		assertEquals(0, row(core, 2));
+		assertEquals(TOP, row(core, 3));
+		assertEquals(BOTTOM, row(core, 4));
+	}
+	
+	@Test
+	public void scrollsAcrossWords() {
+		int[] program = {0x00FF, 0x603C, 0xA000 | SPRITE, 0xD012, 0x00FB};
+		Chip8Core core = run(QuirksProfile.SUPER_CHIP, false, program);
+		assertEquals(0xFF, pixels(core, 0, 0, 64));
+		assertEquals(0x81, pixels(core, 0, 1, 64));
+		assertEquals(0, pixels(core, 0, 0, 56));
+		
+		program = new int[] {0x00FF, 0x603C, 0xA000 | SPRITE, 0xD012, 0x00FB, 0x00FC, 0x00FC};
+		core = run(QuirksProfile.SUPER_CHIP, false, program);
+		assertEquals(0xFF, pixels(core, 0, 0, 56));
+		assertEquals(0, pixels(core, 0, 0, 64));
+	}
+	
+	@Test
+	public void drawsSelectedPlane() {
+		Chip8Core core = run(QuirksProfile.XO_CHIP, false, 0xF201, 0xA000 | SPRITE, 0xD012);
+		assertEquals(0, pixels(core, 0, 0, 0));
+		assertEquals(0xFF, pixels(core, 1, 0, 0));
+		assertEquals(0x81, pixels(core, 1, 1, 0));
+	}
+}
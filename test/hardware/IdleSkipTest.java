@@ -0,0 +1,159 @@
+package hardware;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests that counting idle spins with {@link Chip8Core#skipIdle(int)} ends every frame in
+ * the state running them does.
+ *
+ * @author Richard Yang
+ *
+ */
+public class IdleSkipTest {
+	
+	/**
+	 * poll the delay timer down from 5, wait for a key into V2, then jump to itself
+	 */
+	private static final byte[] PROGRAM = {
+		0x60, 0x05, (byte)0xF0, 0x15, (byte)0xF1, 0x07, 0x31, 0x00,
+		0x12, 0x04, (byte)0xF2, 0x0A, 0x12, 0x0C
+	};
+	
+	//instructions run per frame
+	private static final int FRAME = 500;
+	
+	//frame key 3 is pressed at, it is released two frames later
+	private static final int PRESS_FRAME = 20;
+	
+	/**
+	 * a keypad whose keys only change between frames, as a frame-based source does
+	 */
+	private static class Keypad implements InputSource {
+		
+		private final KeyEventQueue events = new KeyEventQueue();
+		private int keyState;
+		
+		void set(int key, boolean isPressed) {
+			keyState = isPressed ? keyState | 1 << key : keyState & ~(1 << key);
+			events.offer(isPressed ? KeyEventQueue.pressed(key) : KeyEventQueue.released(key));
+		}
+		
+		@Override
+		public int getKeyState() {
+			return keyState;
+		}
+		
+		@Override
+		public int pollKeyEvent() {
+			return events.poll();
+		}
+		
+		@Override
+		public long nextInputCount(long count) {
+			return Long.MAX_VALUE;
+		}
+	}
+	
+	/**
+	 * wait for a key into V2 and count the keys in V3, over and over
+	 */
+	private static final byte[] KEY_COUNTER = {
+		(byte)0xF2, 0x0A, 0x73, 0x01, 0x12, 0x00
+	};
+	
+	/**
+	 * run the program frame by frame as the scheduler does
+	 * @param isSkipping whether idle spins are counted in place
+	 * @param hashes filled with the state hash at the end of every frame
+	 * @return number of instructions accounted for by skipIdle
+	 */
+	private static long run(boolean isSkipping, long[] hashes) {
+		Keypad keypad = new Keypad();
+		Chip8Core core = start(PROGRAM, isSkipping);
+		core.setInputSource(keypad);
+		long skipped = 0;
+		for(int frame = 0 ; frame < hashes.length ; frame++) {
+			if(frame == PRESS_FRAME || frame == PRESS_FRAME + 2) {
+				keypad.set(3, frame == PRESS_FRAME);
+			}
+			skipped += runFrame(core);
+			hashes[frame] = core.stateHash();
+		}
+		assertEquals(3, core.getRegister(2));
+		assertEquals((long)FRAME * hashes.length, core.getInstructionCount());
+		return skipped;
+	}
+	
+	private static Chip8Core start(byte[] program, boolean isSkipping) {
+		Chip8Core core = new Chip8Core();
+		core.setSeed(1);
+		core.setIdleSkipping(isSkipping);
+		core.load(program, program.length);
+		return core;
+	}
+	
+	/**
+	 * run one frame as the scheduler does
+	 * @return number of instructions accounted for by skipIdle
+	 */
+	private static int runFrame(Chip8Core core) {
+		int skipped = 0;
+		int executed = 0;
+		while(executed < FRAME) {
+			int count = core.skipIdle(FRAME - executed);
+			skipped += count;
+			executed += count > 0 ? count : core.execute(FRAME - executed);
+		}
+		core.tickTimers();
+		return skipped;
+	}
+	
+	/**
+	 * run the key counter with a keypad changing in the middle of frames, pressing a key
+	 * every few dozen instructions as a script keyed by instruction count does
+	 * @param isSkipping whether idle spins are counted in place
+	 * @param hashes filled with the state hash at the end of every frame
+	 * @return the machine after the last frame
+	 */
+	private static Chip8Core runScripted(boolean isSkipping, long[] hashes) {
+		final Chip8Core core = start(KEY_COUNTER, isSkipping);
+		core.setInputSource(new PolledInputSource() {
+			@Override
+			public int getKeyState() {
+				long period = core.getInstructionCount() / 37;
+				return period % 2 == 0 ? 0 : 1 << (int)(period % 16);
+			}
+		});
+		for(int frame = 0 ; frame < hashes.length ; frame++) {
+			runFrame(core);
+			hashes[frame] = core.stateHash();
+		}
+		return core;
+	}
+	
+	@Test
+	public void matchesRunningTheSpins() {
+		long[] running = new long[40];
+		long[] skipping = new long[running.length];
+		assertEquals(0, run(false, running));
+		assertTrue(run(true, skipping) > running.length * FRAME / 2);
+		for(int frame = 0 ; frame < running.length ; frame++) {
+			assertEquals("frame " + frame, running[frame], skipping[frame]);
+		}
+	}
+	
+	@Test
+	public void seesKeysChangingWithinFrames() {
+		long[] running = new long[20];
+		long[] skipping = new long[running.length];
+		Chip8Core core = runScripted(false, running);
+		assertTrue(core.getRegister(3) > 50);
+		assertEquals(core.getRegister(3), runScripted(true, skipping).getRegister(3));
+		for(int frame = 0 ; frame < running.length ; frame++) {
+			assertEquals("frame " + frame, running[frame], skipping[frame]);
+		}
+	}
+}
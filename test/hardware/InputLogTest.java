@@ -0,0 +1,152 @@
+package hardware;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the {@link InputLog}, its file, and recording and replaying through it.
+ *
+ * @author Richard Yang
+ *
+ */
+public class InputLogTest {
+	
+	/**
+	 * add 0x40 to V2 for every pass that finds key 0 held, and wait for a key into V3
+	 * every time V2 wraps
+	 */
+	private static final byte[] PROGRAM = {
+		(byte)0xE0, (byte)0x9E, 0x12, 0x06, 0x72, 0x40, 0x42, 0x00,
+		(byte)0xF3, 0x0A, 0x12, 0x00
+	};
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void findsStateAtCount() {
+		InputLog log = new InputLog(1, 700, QuirksProfile.CHIP8);
+		assertEquals(0, log.stateAt(100));
+		log.add(10, 0x0001);
+		log.add(20, 0x0003);
+		log.add(20, 0x0002);
+		log.add(35, 0x0000);
+		assertEquals(4, log.getStateCount());
+		assertEquals(0, log.stateAt(9));
+		assertEquals(-1, log.indexAt(9));
+		assertEquals(0x0001, log.stateAt(10));
+		assertEquals(0x0001, log.stateAt(19));
+		// the last change at a count wins
+		assertEquals(0x0002, log.stateAt(20));
+		assertEquals(2, log.indexAt(20));
+		assertEquals(0x0002, log.stateAt(34));
+		assertEquals(0x0000, log.stateAt(1000));
+	}
+	
+	@Test
+	public void growsPastFirstArrays() {
+		InputLog log = new InputLog(1, 700, QuirksProfile.CHIP8);
+		for(int i = 0 ; i < 1000 ; i++) {
+			log.add(i * 3, i & 0xFFFF);
+			log.addKeyEvent(i * 3 + 1, KeyEventQueue.pressed(i & 0x0F));
+		}
+		assertEquals(1000, log.getStateCount());
+		assertEquals(1000, log.getKeyEventCount());
+		for(int i = 0 ; i < 1000 ; i++) {
+			assertEquals(i, log.stateAt(i * 3 + 2));
+			assertEquals(i * 3 + 1, log.edgeCountAt(i));
+			assertEquals(KeyEventQueue.pressed(i & 0x0F), log.edgeAt(i));
+		}
+	}
+	
+	@Test
+	public void roundTripsFile() throws IOException {
+		InputLog log = new InputLog(0x123456789ABCDEFL, 1000, QuirksProfile.SUPER_CHIP);
+		log.add(0, 0x8001);
+		log.add(200, 0xFFFF);
+		log.add(1L << 40, 0);
+		log.addKeyEvent(5, KeyEventQueue.pressed(0xF));
+		log.addKeyEvent(300, KeyEventQueue.released(0xF));
+		Chip8Core core = new Chip8Core();
+		core.execute(1);
+		log.finish(core);
+		File file = folder.newFile("input.c8i");
+		log.write(file);
+		
+		InputLog read = InputLog.read(file);
+		assertEquals(log.getSeed(), read.getSeed());
+		assertEquals(1000, read.getInstructionsPerSecond());
+		assertEquals(QuirksProfile.SUPER_CHIP, read.getQuirks());
+		assertEquals(1, read.getTotalInstructions());
+		assertEquals(core.stateHash(), read.getFinalStateHash());
+		assertEquals(3, read.getStateCount());
+		for(int i = 0 ; i < 3 ; i++) {
+			assertEquals(log.countAt(i), read.countAt(i));
+			assertEquals(log.stateAtIndex(i), read.stateAtIndex(i));
+		}
+		assertEquals(2, read.getKeyEventCount());
+		for(int i = 0 ; i < 2 ; i++) {
+			assertEquals(log.edgeCountAt(i), read.edgeCountAt(i));
+			assertEquals(log.edgeAt(i), read.edgeAt(i));
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws IOException {
+		File file = folder.newFile("state.c8s");
+		new Snapshot().write(file);
+		InputLog.read(file);
+	}
+	
+	@Test
+	public void replaysRecording() {
+		final Chip8Core recorded = new Chip8Core();
+		recorded.setSeed(7);
+		recorded.load(PROGRAM, PROGRAM.length);
+		InputLog log = new InputLog(7, 700, QuirksProfile.CHIP8);
+		final KeyEventQueue events = new KeyEventQueue();
+		// key 0 held for 7 instructions out of every 14
+		InputSource keypad = new InputSource() {
+			@Override
+			public int getKeyState() {
+				return recorded.getInstructionCount() / 7 % 2 == 0 ? 0x0001 : 0x0000;
+			}
+			
+			@Override
+			public int pollKeyEvent() {
+				return events.poll();
+			}
+		};
+		recorded.setInputSource(new RecordingInputSource(keypad, recorded, log));
+		for(int i = 0 ; i < 5000 ; i++) {
+			// and key 5 pressed for 250 of every 500
+			if(i % 500 == 0) {
+				events.offer(KeyEventQueue.pressed(5));
+			} else if(i % 500 == 250) {
+				events.offer(KeyEventQueue.released(5));
+			}
+			recorded.execute(1);
+		}
+		log.finish(recorded);
+		assertTrue(log.getStateCount() > 10);
+		assertTrue(log.getKeyEventCount() > 10);
+		
+		Chip8Core replayed = new Chip8Core();
+		replayed.setSeed(7);
+		replayed.load(PROGRAM, PROGRAM.length);
+		ReplayInputSource replay = new ReplayInputSource(log, replayed, null);
+		replayed.setInputSource(replay);
+		while(!replay.isFinished()) {
+			replayed.execute(1);
+		}
+		assertEquals(log.getTotalInstructions(), replayed.getInstructionCount());
+		assertEquals(log.getFinalStateHash(), replayed.stateHash());
+	}
+}
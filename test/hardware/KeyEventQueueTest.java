@@ -0,0 +1,114 @@
+package hardware;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of the single producer, single consumer {@link KeyEventQueue}.
+ *
+ * @author Richard Yang
+ *
+ */
+public class KeyEventQueueTest {
+	
+	//number of events the queue holds
+	private static final int CAPACITY = 256;
+	
+	@Test
+	public void pollsEmptyQueue() {
+		KeyEventQueue queue = new KeyEventQueue();
+		assertEquals(-1, queue.poll());
+		assertTrue(queue.offer(KeyEventQueue.pressed(5)));
+		assertEquals(KeyEventQueue.pressed(5), queue.poll());
+		assertEquals(-1, queue.poll());
+	}
+	
+	@Test
+	public void keepsOrder() {
+		KeyEventQueue queue = new KeyEventQueue();
+		for(int key = 0 ; key < 16 ; key++) {
+			assertTrue(queue.offer(KeyEventQueue.pressed(key)));
+			assertTrue(queue.offer(KeyEventQueue.released(key)));
+		}
+		for(int key = 0 ; key < 16 ; key++) {
+			int event = queue.poll();
+			assertTrue(KeyEventQueue.isPress(event));
+			assertEquals(key, KeyEventQueue.keyOf(event));
+			event = queue.poll();
+			assertFalse(KeyEventQueue.isPress(event));
+			assertEquals(key, KeyEventQueue.keyOf(event));
+		}
+		assertEquals(-1, queue.poll());
+	}
+	
+	@Test
+	public void dropsEventsWhenFull() {
+		KeyEventQueue queue = new KeyEventQueue();
+		for(int i = 0 ; i < CAPACITY ; i++) {
+			assertTrue(queue.offer(i & 0x1F));
+		}
+		assertFalse(queue.offer(KeyEventQueue.pressed(1)));
+		assertEquals(0, queue.poll());
+		// taking one makes room for one
+		assertTrue(queue.offer(KeyEventQueue.pressed(1)));
+		assertFalse(queue.offer(KeyEventQueue.pressed(2)));
+		for(int i = 1 ; i < CAPACITY ; i++) {
+			assertEquals(i & 0x1F, queue.poll());
+		}
+		assertEquals(KeyEventQueue.pressed(1), queue.poll());
+		assertEquals(-1, queue.poll());
+	}
+	
+	@Test
+	public void wrapsAround() {
+		KeyEventQueue queue = new KeyEventQueue();
+		int next = 0;
+		int expected = 0;
+		// offer three and take two at a time, so the slots used move around the ring
+		for(int round = 0 ; round < 10 * CAPACITY ; round++) {
+			for(int i = 0 ; i < 3 ; i++) {
+				if(queue.offer(next & 0x1F)) {
+					next++;
+				}
+			}
+			for(int i = 0 ; i < 2 ; i++) {
+				assertEquals(expected & 0x1F, queue.poll());
+				expected++;
+			}
+		}
+		while(expected < next) {
+			assertEquals(expected & 0x1F, queue.poll());
+			expected++;
+		}
+		assertEquals(-1, queue.poll());
+	}
+	
+	@Test(timeout = 10000)
+	public void passesEventsBetweenThreads() throws InterruptedException {
+		final KeyEventQueue queue = new KeyEventQueue();
+		final int count = 100000;
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 0 ; i < count ; i++) {
+					while(!queue.offer(i & 0x1F)) {
+						Thread.yield();
+					}
+				}
+			}
+		});
+		producer.start();
+		for(int i = 0 ; i < count ; i++) {
+			int event;
+			while((event = queue.poll()) < 0) {
+				Thread.yield();
+			}
+			assertEquals(i & 0x1F, event);
+		}
+		producer.join();
+		assertEquals(-1, queue.poll());
+	}
+}
@@ -0,0 +1,132 @@
+package hardware;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests of the instructions whose results depend on the {@link QuirksProfile}, run on
+ * small programs by the interpreter and by the block compiler.
+ *
+ * @author Richard Yang
+ *
+ */
+public class QuirksTest {
+	
+	/**
+	 * load a program and run its instructions one at a time
+	 * @param quirks the quirks profile to run with
+	 * @param program the instructions, from {@link Chip8Core#MEMORY_START}
+	 * @return the machine after the last instruction
+	 */
+	private static Chip8Core run(QuirksProfile quirks, int... program) {
+		Chip8Core core = load(quirks, program);
+		for(int i = 0 ; i < program.length ; i++) {
+			core.emulateCycle();
+		}
+		return core;
+	}
+	
+	private static Chip8Core load(QuirksProfile quirks, int... program) {
+		byte[] rom = new byte[program.length * 2];
+		for(int i = 0 ; i < program.length ; i++) {
+			rom[2 * i] = (byte)(program[i] >> 8);
+			rom[2 * i + 1] = (byte)program[i];
+		}
+		Chip8Core core = new Chip8Core();
+		core.setQuirks(quirks);
+		core.load(rom, rom.length);
+		return core;
+	}
+	
+	private static void runUntil(Chip8Core core, long count) {
+		while(core.getInstructionCount() < count) {
+			core.execute((int)Math.min(10, count - core.getInstructionCount()));
+		}
+	}
+	
+	@Test
+	public void addSetsCarry() {
+		for(QuirksProfile quirks : QuirksProfile.values()) {
+			// V0 = 0xFF + 0x02, V2 = 0x10 + 0x20
+			Chip8Core core = run(quirks, 0x60FF, 0x6102, 0x8014, 0x6210, 0x6320, 0x8234);
+			assertEquals(0x01, core.getRegister(0));
+			assertEquals(0x30, core.getRegister(2));
+			assertEquals(0, core.getRegister(0xF));
+			
+			core = run(quirks, 0x60FF, 0x6102, 0x8014);
+			assertEquals(0x01, core.getRegister(0));
+			assertEquals(1, core.getRegister(0xF));
+		}
+	}
+	
+	@Test
+	public void addSetsCarryLastIntoVF() {
+		// VF + V1 with a carry leaves the flag, not the sum, in VF
+		Chip8Core core = run(QuirksProfile.CHIP8, 0x6FFF, 0x6102, 0x8F14);
+		assertEquals(1, core.getRegister(0xF));
+	}
+	
+	@Test
+	public void shiftRightTakesVYOrVX() {
+		int[] program = {0x6005, 0x610C, 0x8016};
+		// VY shifted into VX, VF is the bit of VY shifted out
+		Chip8Core core = run(QuirksProfile.CHIP8, program);
+		assertEquals(0x06, core.getRegister(0));
+		assertEquals(0, core.getRegister(0xF));
+		core = run(QuirksProfile.XO_CHIP, program);
+		assertEquals(0x06, core.getRegister(0));
+		assertEquals(0, core.getRegister(0xF));
+		// VX shifted in place
+		core = run(QuirksProfile.CHIP48, program);
+		assertEquals(0x02, core.getRegister(0));
+		assertEquals(1, core.getRegister(0xF));
+		core = run(QuirksProfile.SUPER_CHIP, program);
+		assertEquals(0x02, core.getRegister(0));
+		assertEquals(1, core.getRegister(0xF));
+	}
+	
+	@Test
+	public void jumpAddsV0OrVX() {
+		// V0 = 2, V3 = 0x20, then B310
+		int[] program = {0x6002, 0x6320, 0xB310};
+		assertEquals(0x312, run(QuirksProfile.CHIP8, program).getPC());
+		assertEquals(0x312, run(QuirksProfile.XO_CHIP, program).getPC());
+		assertEquals(0x330, run(QuirksProfile.CHIP48, program).getPC());
+		assertEquals(0x330, run(QuirksProfile.SUPER_CHIP, program).getPC());
+	}
+	
+	@Test
+	public void storeMovesIndex() {
+		// I = 0x400, V0 to V2 = 0x11, 0x22, 0x33, then F255
+		int[] program = {0xA400, 0x6011, 0x6122, 0x6233, 0xF255};
+		assertEquals(0x403, run(QuirksProfile.CHIP8, program).getIndexRegister());
+		assertEquals(0x403, run(QuirksProfile.XO_CHIP, program).getIndexRegister());
+		assertEquals(0x402, run(QuirksProfile.CHIP48, program).getIndexRegister());
+		assertEquals(0x400, run(QuirksProfile.SUPER_CHIP, program).getIndexRegister());
+		for(QuirksProfile quirks : QuirksProfile.values()) {
+			byte[] memory = run(quirks, program).getMemory();
+			assertEquals(0x11, memory[0x400]);
+			assertEquals(0x22, memory[0x401]);
+			assertEquals(0x33, memory[0x402]);
+			assertEquals(0x00, memory[0x403]);
+		}
+	}
+	
+	@Test
+	public void compiledBlocksMatchInterpreter() {
+		// the quirk instructions in a loop, ended by a jump to itself
+		int[] program = {0x6005, 0x610C, 0x6320, 0xA400,
+				0x8014, 0x8016, 0x8316, 0xF255, 0x7101, 0x3140, 0x1208, 0x1216};
+		for(QuirksProfile quirks : QuirksProfile.values()) {
+			Chip8Core interpreted = load(quirks, program);
+			Chip8Core compiled = load(quirks, program);
+			interpreted.setSeed(1);
+			compiled.setSeed(1);
+			compiled.setBlockCompilation(true);
+			runUntil(interpreted, 1000);
+			runUntil(compiled, 1000);
+			assertEquals(quirks.toString(), interpreted.stateHash(), compiled.stateHash());
+		}
+	}
+}
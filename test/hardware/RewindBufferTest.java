@@ -0,0 +1,109 @@
+package hardware;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests that the {@link RewindBuffer} puts the machine back exactly in the state of the
+ * frames it recorded.
+ *
+ * @author Richard Yang
+ *
+ */
+public class RewindBufferTest {
+	
+	/**
+	 * count V0 up, store it as BCD at 0x300 and draw its font digit at (V0, V1)
+	 */
+	private static final byte[] PROGRAM = {
+		0x60, 0x00, 0x61, 0x00, (byte)0xA3, 0x00, (byte)0xF0, 0x33,
+		(byte)0xA0, 0x00, (byte)0xD0, 0x15, 0x70, 0x01, 0x12, 0x04
+	};
+	
+	//instructions run per frame
+	private static final int FRAME = 30;
+	
+	private static Chip8Core start() {
+		Chip8Core core = new Chip8Core();
+		core.setSeed(1);
+		core.load(PROGRAM, PROGRAM.length);
+		return core;
+	}
+	
+	/**
+	 * run frames, recording the end of each
+	 * @param core the machine, its current state recorded already
+	 * @param rewind the history to record into
+	 * @param frames number of frames to run
+	 * @return the state hash now, then at the end of every frame
+	 */
+	private static long[] record(Chip8Core core, RewindBuffer rewind, int frames) {
+		long[] hashes = new long[frames + 1];
+		hashes[0] = core.stateHash();
+		for(int frame = 1 ; frame <= frames ; frame++) {
+			for(int i = 0 ; i < FRAME ; i++) {
+				core.execute(1);
+			}
+			core.tickTimers();
+			rewind.record(core);
+			hashes[frame] = core.stateHash();
+		}
+		return hashes;
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBudgetBelowOneKeyframe() {
+		new RewindBuffer(2 * Snapshot.MAX_DELTA_SIZE - 1, 10);
+	}
+	
+	@Test
+	public void stepsBackEveryFrame() {
+		Chip8Core core = start();
+		RewindBuffer rewind = new RewindBuffer(1 << 20, 7);
+		rewind.record(core);
+		long[] hashes = record(core, rewind, 100);
+		assertEquals(100, rewind.getFrameCount());
+		for(int frame = 99 ; frame >= 0 ; frame--) {
+			assertTrue(rewind.stepBack(core));
+			assertEquals("frame " + frame, hashes[frame], core.stateHash());
+		}
+		assertFalse(rewind.stepBack(core));
+		assertEquals(hashes[0], core.stateHash());
+	}
+	
+	@Test
+	public void rewindsFromKeyframe() {
+		Chip8Core core = start();
+		RewindBuffer rewind = new RewindBuffer(1 << 20, 7);
+		rewind.record(core);
+		long[] hashes = record(core, rewind, 100);
+		assertEquals(45, rewind.rewind(core, 45));
+		assertEquals(hashes[55], core.stateHash());
+		assertEquals(55, rewind.getFrameCount());
+		
+		// running on from there records the same frames again
+		long[] again = record(core, rewind, 10);
+		for(int frame = 0 ; frame <= 10 ; frame++) {
+			assertEquals(hashes[55 + frame], again[frame]);
+		}
+		assertEquals(65, rewind.getFrameCount());
+		assertEquals(3, rewind.rewind(core, 3));
+		assertEquals(hashes[62], core.stateHash());
+	}
+	
+	@Test
+	public void dropsOldestFramesOverBudget() {
+		Chip8Core core = start();
+		RewindBuffer rewind = new RewindBuffer(2 * Snapshot.MAX_DELTA_SIZE, 1);
+		rewind.record(core);
+		long[] hashes = record(core, rewind, 5000);
+		int frames = rewind.getFrameCount();
+		assertTrue(frames > 0);
+		assertTrue(frames < 5000);
+		assertEquals(frames, rewind.rewind(core, frames + 10));
+		assertEquals(hashes[5000 - frames], core.stateHash());
+	}
+}
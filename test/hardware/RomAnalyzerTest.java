@@ -0,0 +1,70 @@
+package hardware;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests of the control-flow graph {@link RomAnalyzer} builds and the blocks it marks hot.
+ *
+ * @author Richard Yang
+ *
+ */
+public class RomAnalyzerTest {
+	
+	/**
+	 * draw the sprite at 0x220, then call the subroutine at 0x210 and count V0 up to 0x10
+	 * in a loop back to the call, ending on the jump to itself at 0x20E
+	 */
+	private static final byte[] PROGRAM = {
+		0x60, 0x00, (byte)0xA2, 0x20, (byte)0xD0, 0x05, 0x22, 0x10,
+		0x70, 0x01, 0x30, 0x10, 0x12, 0x06, 0x12, 0x0E,
+		0x00, (byte)0xEE, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+		0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+		(byte)0xF0, (byte)0x90, (byte)0x90, (byte)0x90, (byte)0xF0
+	};
+	
+	private static void assertBlock(RomAnalysis.Block block, int start, int end, boolean isHot, int... successors) {
+		assertEquals(start, block.getStart());
+		assertEquals(end, block.getEnd());
+		assertEquals(String.format("%03X", start), isHot, block.isHot());
+		assertArrayEquals(successors, block.getSuccessors());
+	}
+	
+	@Test
+	public void splitsBlocksAtBranchesAndTargets() {
+		List<RomAnalysis.Block> blocks = RomAnalyzer.analyze(PROGRAM, QuirksProfile.CHIP8).getBlocks();
+		assertEquals(6, blocks.size());
+		assertBlock(blocks.get(0), 0x200, 0x206, false, 0x206);
+		assertBlock(blocks.get(1), 0x206, 0x208, true, 0x210, 0x208);
+		assertBlock(blocks.get(2), 0x208, 0x20C, true, 0x20C, 0x20E);
+		assertBlock(blocks.get(3), 0x20C, 0x20E, true, 0x206);
+		assertBlock(blocks.get(4), 0x20E, 0x210, true, 0x20E);
+		assertBlock(blocks.get(5), 0x210, 0x212, true);
+	}
+	
+	@Test
+	public void flagsCodeAndSprites() {
+		RomAnalysis analysis = RomAnalyzer.analyze(PROGRAM, QuirksProfile.CHIP8);
+		assertEquals(0x200 + PROGRAM.length, analysis.getEnd());
+		assertTrue(analysis.isCode(0x210));
+		assertFalse(analysis.isCode(0x212));
+		assertEquals(18, analysis.countBytes(RomAnalysis.CODE));
+		assertEquals(5, analysis.countBytes(RomAnalysis.SPRITE));
+		assertEquals(RomAnalysis.SPRITE, analysis.flagsAt(0x220));
+		assertEquals(0, analysis.getUnknownOpcodes().length);
+	}
+	
+	@Test
+	public void reusesAnalysisOfSameRom() {
+		RomAnalysis analysis = RomAnalyzer.analyze(PROGRAM, QuirksProfile.CHIP8);
+		assertSame(analysis, RomAnalyzer.analyze(PROGRAM.clone(), QuirksProfile.CHIP8));
+		assertEquals(QuirksProfile.SUPER_CHIP, RomAnalyzer.analyze(PROGRAM, QuirksProfile.SUPER_CHIP).getQuirks());
+	}
+}
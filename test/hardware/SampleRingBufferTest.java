@@ -0,0 +1,89 @@
+package hardware;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link SampleRingBuffer} between the emulation and the audio thread.
+ *
+ * @author Richard Yang
+ *
+ */
+public class SampleRingBufferTest {
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsCapacityNotPowerOfTwo() {
+		new SampleRingBuffer(1000);
+	}
+	
+	@Test
+	public void reportsCapacity() {
+		SampleRingBuffer ring = new SampleRingBuffer(1024);
+		assertEquals(1024, ring.getCapacity());
+		assertEquals(0, ring.size());
+	}
+	
+	@Test
+	public void hidesSamplesUntilPublished() {
+		SampleRingBuffer ring = new SampleRingBuffer(16);
+		byte[] out = new byte[32];
+		ring.put(0, (short)1);
+		ring.put(1, (short)2);
+		assertEquals(0, ring.size());
+		assertEquals(0, ring.read(out, 0, 16));
+		ring.publish(2);
+		assertEquals(2, ring.size());
+		assertEquals(2, ring.read(out, 0, 16));
+		assertEquals(0, ring.size());
+	}
+	
+	@Test
+	public void readsLittleEndianSamples() {
+		SampleRingBuffer ring = new SampleRingBuffer(16);
+		ring.put(0, (short)0x1234);
+		ring.put(1, (short)-2);
+		ring.publish(2);
+		byte[] out = new byte[6];
+		assertEquals(2, ring.read(out, 2, 16));
+		assertEquals(0x34, out[2]);
+		assertEquals(0x12, out[3]);
+		assertEquals((byte)0xFE, out[4]);
+		assertEquals((byte)0xFF, out[5]);
+	}
+	
+	@Test
+	public void readsAtMostCount() {
+		SampleRingBuffer ring = new SampleRingBuffer(16);
+		for(int i = 0 ; i < 10 ; i++) {
+			ring.put(i, (short)i);
+		}
+		ring.publish(10);
+		byte[] out = new byte[32];
+		assertEquals(4, ring.read(out, 0, 4));
+		assertEquals(6, ring.size());
+		assertEquals(6, ring.read(out, 0, 16));
+		assertEquals(4, out[0]);
+		assertEquals(9, out[10]);
+	}
+	
+	@Test
+	public void wrapsAround() {
+		SampleRingBuffer ring = new SampleRingBuffer(8);
+		byte[] out = new byte[16];
+		short next = 0;
+		short expected = 0;
+		// a frame of five samples at a time, so frames straddle the end of the ring
+		for(int frame = 0 ; frame < 100 ; frame++) {
+			for(int i = 0 ; i < 5 ; i++) {
+				ring.put(i, next++);
+			}
+			ring.publish(5);
+			assertEquals(5, ring.size());
+			assertEquals(5, ring.read(out, 0, 8));
+			for(int i = 0 ; i < 5 ; i++) {
+				assertEquals(expected++, (short)((out[2 * i] & 0xFF) | (out[2 * i + 1] << 8)));
+			}
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package hardware;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link Snapshot} save states and the XOR deltas between them.
+ *
+ * @author Richard Yang
+ *
+ */
+public class SnapshotTest {
+	
+	/**
+	 * count V0 up, store it as BCD at 0x300 and draw its font digit at (V0, V1)
+	 */
+	private static final byte[] PROGRAM = {
+		0x60, 0x00, 0x61, 0x00, (byte)0xA3, 0x00, (byte)0xF0, 0x33,
+		(byte)0xA0, 0x00, (byte)0xD0, 0x15, 0x70, 0x01, 0x12, 0x04
+	};
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static Chip8Core start(QuirksProfile quirks) {
+		Chip8Core core = new Chip8Core();
+		core.setQuirks(quirks);
+		core.setSeed(1);
+		core.load(PROGRAM, PROGRAM.length);
+		return core;
+	}
+	
+	private static void run(Chip8Core core, int count) {
+		for(int i = 0 ; i < count ; i++) {
+			core.execute(1);
+		}
+	}
+	
+	private static void assertSame(Snapshot expected, Snapshot actual) {
+		assertEquals(expected.getSize(), actual.getSize());
+		assertArrayEquals(expected.data, actual.data);
+	}
+	
+	@Test
+	public void sizesToQuirksProfile() {
+		Snapshot chip8 = new Snapshot();
+		start(QuirksProfile.CHIP8).saveState(chip8);
+		Snapshot xoChip = new Snapshot();
+		start(QuirksProfile.XO_CHIP).saveState(xoChip);
+		assertEquals(Snapshot.MEMORY_OFFSET + 0x1000 + Chip8Core.SCREEN_HEIGHT * 8, chip8.getSize());
+		assertTrue(xoChip.getSize() > chip8.getSize());
+		assertTrue(xoChip.getSize() <= Snapshot.MAX_SIZE);
+	}
+	
+	@Test
+	public void keepsCountAndQuirks() {
+		Chip8Core core = start(QuirksProfile.SUPER_CHIP);
+		run(core, 100);
+		Snapshot snapshot = new Snapshot();
+		core.saveState(snapshot);
+		assertEquals(QuirksProfile.SUPER_CHIP, snapshot.getQuirks());
+		assertEquals(100, snapshot.getInstructionCount());
+		
+		Chip8Core restored = new Chip8Core();
+		restored.restoreState(snapshot);
+		assertEquals(QuirksProfile.SUPER_CHIP, restored.getQuirks());
+		assertEquals(100, restored.getInstructionCount());
+		assertEquals(core.stateHash(), restored.stateHash());
+	}
+	
+	@Test
+	public void encodesNoDeltaBetweenEqualSnapshots() {
+		Chip8Core core = start(QuirksProfile.CHIP8);
+		run(core, 50);
+		Snapshot a = new Snapshot();
+		Snapshot b = new Snapshot();
+		core.saveState(a);
+		core.saveState(b);
+		assertEquals(0, a.encodeDelta(b, new byte[Snapshot.MAX_DELTA_SIZE], 0));
+	}
+	
+	@Test
+	public void roundTripsDelta() {
+		Chip8Core core = start(QuirksProfile.CHIP8);
+		run(core, 50);
+		Snapshot base = new Snapshot();
+		core.saveState(base);
+		run(core, 50);
+		Snapshot current = new Snapshot();
+		core.saveState(current);
+		
+		byte[] buffer = new byte[Snapshot.MAX_DELTA_SIZE + 3];
+		int length = current.encodeDelta(base, buffer, 3);
+		assertTrue(length > 0);
+		assertTrue(length <= Snapshot.maxDeltaSize(current.getSize()));
+		
+		// the base with the delta is the current snapshot
+		Snapshot copy = new Snapshot();
+		copy.copyFrom(base);
+		copy.applyDelta(buffer, 3, length);
+		assertSame(current, copy);
+		
+		// and the delta again gives the base back
+		copy.applyDelta(buffer, 3, length);
+		assertSame(base, copy);
+		
+		// a machine restored from the decoded snapshot goes on as the original
+		copy.applyDelta(Arrays.copyOfRange(buffer, 3, 3 + length));
+		Chip8Core restored = new Chip8Core();
+		restored.restoreState(copy);
+		assertEquals(core.stateHash(), restored.stateHash());
+		run(core, 50);
+		run(restored, 50);
+		assertEquals(core.stateHash(), restored.stateHash());
+	}
+	
+	@Test
+	public void roundTripsDeltaAcrossSizes() {
+		Snapshot small = new Snapshot();
+		start(QuirksProfile.CHIP8).saveState(small);
+		Chip8Core core = start(QuirksProfile.XO_CHIP);
+		run(core, 80);
+		Snapshot large = new Snapshot();
+		core.saveState(large);
+		
+		byte[] buffer = new byte[Snapshot.maxDeltaSize(large.getSize())];
+		int length = large.encodeDelta(small, buffer, 0);
+		Snapshot copy = new Snapshot();
+		copy.copyFrom(small);
+		copy.applyDelta(buffer, 0, length);
+		assertSame(large, copy);
+		
+		length = small.encodeDelta(large, buffer, 0);
+		copy.applyDelta(buffer, 0, length);
+		assertSame(small, copy);
+	}
+	
+	@Test
+	public void roundTripsFile() throws IOException {
+		Chip8Core core = start(QuirksProfile.XO_CHIP);
+		run(core, 120);
+		Snapshot snapshot = new Snapshot();
+		core.saveState(snapshot);
+		File file = folder.newFile("state.c8s");
+		snapshot.write(file);
+		assertEquals(5 + snapshot.getSize(), file.length());
+		
+		Snapshot read = new Snapshot();
+		read.read(file);
+		assertSame(snapshot, read);
+	}
+	
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws IOException {
+		InputLog log = new InputLog(1, 700, QuirksProfile.CHIP8);
+		File file = folder.newFile("input.c8i");
+		log.write(file);
+		new Snapshot().read(file);
+	}
+}
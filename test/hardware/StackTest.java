@@ -0,0 +1,40 @@
+package hardware;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests that the stack wraps around memory, counting a fault, rather than running off it.
+ *
+ * @author Richard Yang
+ *
+ */
+public class StackTest {
+	
+	/**
+	 * call itself forever
+	 */
+	private static final byte[] RECURSION = {
+		0x22, 0x00
+	};
+	
+	private static Chip8Core start(byte[] program) {
+		Chip8Core core = new Chip8Core();
+		core.load(program, program.length);
+		return core;
+	}
+	
+	@Test
+	public void wrapsPastStartOfMemory() {
+		// each call takes two bytes below 0x1E0, so the 241st runs past the start
+		Chip8Core core = start(RECURSION);
+		Scheduler scheduler = new Scheduler(core);
+		assertEquals(0, scheduler.runInstructions(240).getStackFaults());
+		RunResult result = scheduler.runInstructions(760);
+		assertEquals(760, result.getInstructions());
+		assertEquals(1, result.getStackFaults());
+		assertEquals(1, core.getStackFaults());
+		assertEquals(0x200, core.getPC());
+	}
+}